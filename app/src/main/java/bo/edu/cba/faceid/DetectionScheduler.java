@@ -0,0 +1,161 @@
+package bo.edu.cba.faceid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides where and at which resolution to run face detection on each frame.
+ *
+ * <p>A full-frame scan at the coarse {@code fullScanScale} runs every {@code fullScanInterval}
+ * frames. In between, only expanded regions around the faces found in the previous frame are
+ * searched, each downscaled so that its face is about {@code targetFaceSize} pixels wide. The
+ * scheduler falls back to a full scan when no faces are known, when a region pass finds fewer
+ * faces than it searched for, or when the regions would cover most of the frame anyway.
+ *
+ * <p>Regions are in displayed frame coordinates. Not thread safe.
+ */
+public class DetectionScheduler {
+
+    public static final int   DEFAULT_FULL_SCAN_INTERVAL = 10;
+    public static final float DEFAULT_EXPANSION          = 1.f;
+    public static final float DEFAULT_TARGET_FACE_SIZE   = 64.f;
+    public static final float DEFAULT_MAX_COVERAGE       = 0.5f;
+
+    public static class Region {
+        public final float   x, y, w, h;
+        /** Downscale factor of the detector input relative to the frame. */
+        public final float   scale;
+
+        Region(float x, float y, float w, float h, float scale) {
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.scale = scale;
+        }
+    }
+
+    private final float         mFullScanScale;
+    private final int           mFullScanInterval;
+    private final float         mExpansion;
+    private final float         mTargetFaceSize;
+    private final float         mMaxCoverage;
+    private final List<float[]> mFaces = new ArrayList<>();
+    private int                 mSinceFullScan;
+    private boolean             mFullScan = true;
+    private int                 mSearched;
+    private long                mFullScans;
+    private long                mRegionScans;
+
+    public DetectionScheduler(float fullScanScale, int fullScanInterval) {
+        this(fullScanScale, fullScanInterval, DEFAULT_EXPANSION, DEFAULT_TARGET_FACE_SIZE, DEFAULT_MAX_COVERAGE);
+    }
+
+    /**
+     * @param expansion      margin added on each side of a face box, relative to its size
+     * @param targetFaceSize face size in detector input pixels that region scales aim for
+     * @param maxCoverage    fraction of the frame area above which a full scan is used instead
+     */
+    public DetectionScheduler(float fullScanScale, int fullScanInterval, float expansion, float targetFaceSize,
+                              float maxCoverage) {
+        if (fullScanInterval < 1)
+            throw new IllegalArgumentException("Full scan interval must be positive: " + fullScanInterval);
+        mFullScanScale = fullScanScale;
+        mFullScanInterval = fullScanInterval;
+        mExpansion = expansion;
+        mTargetFaceSize = targetFaceSize;
+        mMaxCoverage = maxCoverage;
+    }
+
+    /**
+     * Returns the regions to search in the next {@code width}x{@code height} frame. A full scan is
+     * a single region covering the frame.
+     */
+    public List<Region> plan(int width, int height) {
+        Region full = new Region(0, 0, width, height, mFullScanScale);
+        mSearched = mFaces.size();
+        mFullScan = mFaces.isEmpty() || mSinceFullScan + 1 >= mFullScanInterval;
+        if (mFullScan)
+            return Collections.singletonList(full);
+
+        List<float[]> regions = new ArrayList<>(mFaces.size());
+        for (float[] face : mFaces) {
+            float size = Math.max(face[2], face[3]);
+            float margin = mExpansion * size;
+            float x0 = Math.max(0, face[0] - margin);
+            float y0 = Math.max(0, face[1] - margin);
+            float x1 = Math.min(width, face[0] + face[2] + margin);
+            float y1 = Math.min(height, face[1] + face[3] + margin);
+            if (x1 > x0 && y1 > y0)
+                regions.add(new float[] { x0, y0, x1, y1, Math.max(1.f, size / mTargetFaceSize) });
+        }
+        merge(regions);
+
+        float area = 0;
+        for (float[] r : regions) {
+            area += (r[2] - r[0]) * (r[3] - r[1]);
+        }
+        if (regions.isEmpty() || area > mMaxCoverage * width * height) {
+            mFullScan = true;
+            return Collections.singletonList(full);
+        }
+        List<Region> plan = new ArrayList<>(regions.size());
+        for (float[] r : regions) {
+            plan.add(new Region(r[0], r[1], r[2] - r[0], r[3] - r[1], r[4]));
+        }
+        return plan;
+    }
+
+    /**
+     * Reports the face boxes, {@code {x, y, w, h}} in frame coordinates, found with the last plan.
+     */
+    public void update(float[][] boxes) {
+        if (mFullScan) {
+            mFullScans++;
+            mSinceFullScan = 0;
+        } else {
+            mRegionScans++;
+            mSinceFullScan++;
+        }
+        // A face lost by a region pass may have moved out of its region: look everywhere next.
+        boolean lost = !mFullScan && boxes.length < mSearched;
+        mFaces.clear();
+        for (float[] box : boxes) {
+            mFaces.add(box.clone());
+        }
+        if (lost)
+            mSinceFullScan = mFullScanInterval;
+    }
+
+    public long fullScans() {
+        return mFullScans;
+    }
+
+    public long regionScans() {
+        return mRegionScans;
+    }
+
+    /** Unions overlapping regions {@code {x0, y0, x1, y1, scale}}, keeping the finer scale. */
+    private static void merge(List<float[]> regions) {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < regions.size() && !merged; i++) {
+                for (int j = i + 1; j < regions.size(); j++) {
+                    float[] a = regions.get(i), b = regions.get(j);
+                    if (a[0] < b[2] && b[0] < a[2] && a[1] < b[3] && b[1] < a[3]) {
+                        a[0] = Math.min(a[0], b[0]);
+                        a[1] = Math.min(a[1], b[1]);
+                        a[2] = Math.max(a[2], b[2]);
+                        a[3] = Math.max(a[3], b[3]);
+                        a[4] = Math.min(a[4], b[4]);
+                        regions.remove(j);
+                        merged = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
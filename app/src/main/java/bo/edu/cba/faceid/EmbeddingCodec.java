@@ -0,0 +1,123 @@
+package bo.edu.cba.faceid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Versioned little-endian binary encoding of face embeddings.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     2  magic 'F' 'E'
+ *      2     1  version (1)
+ *      3     1  element type (0 = float32, 1 = int8)
+ *      4     2  dimension, unsigned
+ *      6     2  reserved, zero
+ *      8     4  int8 only: float32 scale
+ *   8/12   ...  dimension elements
+ * </pre>
+ */
+public final class EmbeddingCodec {
+
+    public static final byte VERSION      = 1;
+    public static final byte TYPE_FLOAT32 = 0;
+    public static final byte TYPE_INT8    = 1;
+
+    static final int HEADER_SIZE = 8;
+
+    private static final byte MAGIC_0 = 'F';
+    private static final byte MAGIC_1 = 'E';
+
+    private EmbeddingCodec() {
+    }
+
+    public static byte[] encode(float[] feature) {
+        ByteBuffer buffer = header(TYPE_FLOAT32, feature.length, feature.length * Float.BYTES);
+        buffer.asFloatBuffer().put(feature);
+        return buffer.array();
+    }
+
+    /**
+     * Encodes {@code feature} as int8 codes with a single scale, a quarter of the float32 size.
+     */
+    public static byte[] encodeInt8(float[] feature) {
+        ByteBuffer buffer = header(TYPE_INT8, feature.length, Float.BYTES + feature.length);
+        byte[] codes = new byte[feature.length];
+        buffer.putFloat(QuantizedFaceGallery.quantize(feature, 0, feature.length, codes, 0));
+        buffer.put(codes);
+        return buffer.array();
+    }
+
+    /**
+     * Returns the dimension stored in the header of {@code data}.
+     */
+    public static int dim(byte[] data) {
+        checkHeader(data);
+        return (data[4] & 0xff) | (data[5] & 0xff) << 8;
+    }
+
+    public static float[] decode(byte[] data) {
+        float[] feature = new float[dim(data)];
+        decode(data, feature, 0);
+        return feature;
+    }
+
+    /**
+     * Decodes {@code data} into {@code dst} starting at {@code offset} and returns the dimension.
+     */
+    public static int decode(byte[] data, float[] dst, int offset) {
+        int dim = dim(data);
+        if (offset < 0 || offset + dim > dst.length)
+            throw new IllegalArgumentException("Destination too small for a " + dim + "-d embedding");
+        ByteBuffer buffer = ByteBuffer.wrap(data, HEADER_SIZE, data.length - HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        switch (data[3]) {
+            case TYPE_FLOAT32:
+                checkLength(data, dim * Float.BYTES);
+                buffer.asFloatBuffer().get(dst, offset, dim);
+                break;
+            case TYPE_INT8:
+                checkLength(data, Float.BYTES + dim);
+                float scale = buffer.getFloat();
+                for (int k = 0; k < dim; k++) {
+                    dst[offset + k] = data[HEADER_SIZE + Float.BYTES + k] * scale;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown embedding element type " + data[3]);
+        }
+        return dim;
+    }
+
+    /**
+     * Reads the legacy {@code faceEmbedding} representation, a list of boxed numbers.
+     */
+    public static float[] fromList(List<? extends Number> values) {
+        float[] feature = new float[values.size()];
+        for (int i = 0; i < feature.length; i++) {
+            feature[i] = values.get(i).floatValue();
+        }
+        return feature;
+    }
+
+    private static ByteBuffer header(byte type, int dim, int payload) {
+        if (dim <= 0 || dim > 0xffff)
+            throw new IllegalArgumentException("Unsupported embedding dimension " + dim);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(MAGIC_0).put(MAGIC_1).put(VERSION).put(type).putShort((short) dim).putShort((short) 0);
+        return buffer;
+    }
+
+    private static void checkHeader(byte[] data) {
+        if (data == null || data.length < HEADER_SIZE || data[0] != MAGIC_0 || data[1] != MAGIC_1)
+            throw new IllegalArgumentException("Not an encoded embedding");
+        if (data[2] != VERSION)
+            throw new IllegalArgumentException("Unsupported embedding version " + data[2]);
+    }
+
+    private static void checkLength(byte[] data, int payload) {
+        if (data.length != HEADER_SIZE + payload)
+            throw new IllegalArgumentException("Truncated embedding: " + data.length + " bytes");
+    }
+}
@@ -0,0 +1,146 @@
+package bo.edu.cba.faceid;
+
+import android.util.Log;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvException;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+import org.opencv.objdetect.FaceRecognizerSF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes SFace features for all aligned faces of a frame in one forward pass.
+ *
+ * <p>Preprocessing matches {@link FaceRecognizerSF#feature}: each 112x112 crop is turned into a
+ * blob with scale 1, zero mean and swapped R/B channels, so a batch of one is the same
+ * computation. The first multi-face batch is checked against per-face passes; if the model does
+ * not accept a batch dimension or a normalized feature differs by more than
+ * {@link #BATCH_TOLERANCE}, this instance falls back to one pass per face for its lifetime.
+ * Not thread safe: use one instance per thread.
+ */
+public class FaceBatchEmbedder {
+
+    private static final String TAG = "FaceBatchEmbedder";
+
+    public static final Size INPUT_SIZE = new Size(112, 112);
+
+    private static final Scalar MEAN = new Scalar(0, 0, 0);
+
+    /**
+     * Largest difference allowed between any value of a normalized batched feature and the same
+     * value from a single-face pass. A batched pass sums in a different order, so the two rarely
+     * agree to the last bit; at this tolerance a cosine score moves by less than 2e-4.
+     */
+    static final double BATCH_TOLERANCE = 1e-5;
+
+    private final Net     mNet;
+    private boolean       mBatching = true;
+    private boolean       mVerified;
+
+    public FaceBatchEmbedder(String modelPath) {
+        mNet = Dnn.readNetFromONNX(modelPath);
+    }
+
+    /** Loads the model from an in-memory ONNX buffer. */
+    public FaceBatchEmbedder(MatOfByte model) {
+        mNet = Dnn.readNetFromONNX(model);
+    }
+
+    /** Whether faces are still embedded in a single pass. */
+    public boolean isBatching() {
+        return mBatching;
+    }
+
+    /**
+     * Writes the feature of {@code alignedFaces.get(i)} to row {@code i} of {@code features}.
+     */
+    public void embed(List<Mat> alignedFaces, Mat features) {
+        int count = alignedFaces.size();
+        if (count == 1 || !mBatching) {
+            embedEach(alignedFaces, features);
+            return;
+        }
+        try {
+            Mat blob = Dnn.blobFromImages(alignedFaces, 1, INPUT_SIZE, MEAN, true, false);
+            mNet.setInput(blob);
+            Mat output = mNet.forward();
+            blob.release();
+            if (output.rows() != count) {
+                output.release();
+                disableBatching("unexpected output shape " + output.size());
+                embedEach(alignedFaces, features);
+                return;
+            }
+            output.copyTo(features);
+            output.release();
+        } catch (CvException e) {
+            disableBatching(e.getMessage());
+            embedEach(alignedFaces, features);
+            return;
+        }
+
+        if (!mVerified) {
+            mVerified = true;
+            Mat reference = new Mat();
+            embedEach(alignedFaces, reference);
+            float[] batched = new float[(int) features.total()];
+            float[] single = new float[(int) reference.total()];
+            features.get(0, 0, batched);
+            reference.get(0, 0, single);
+            reference.copyTo(features);
+            reference.release();
+            double diff = normalizedDifference(batched, single, features.cols());
+            if (!(diff <= BATCH_TOLERANCE))
+                disableBatching("batched features differ from single-face features by " + diff);
+        }
+    }
+
+    private void embedEach(List<Mat> alignedFaces, Mat features) {
+        List<Mat> rows = new ArrayList<>(alignedFaces.size());
+        for (Mat face : alignedFaces) {
+            Mat blob = Dnn.blobFromImage(face, 1, INPUT_SIZE, MEAN, true, false);
+            mNet.setInput(blob);
+            Mat output = mNet.forward();
+            // The output may alias the network's buffers, which the next pass overwrites.
+            rows.add(output.clone());
+            output.release();
+            blob.release();
+        }
+        Core.vconcat(rows, features);
+        for (Mat row : rows) {
+            row.release();
+        }
+    }
+
+    /**
+     * Largest difference between values of {@code a} and {@code b} once each row of {@code dim}
+     * values has been L2-normalized, or infinity if their sizes differ.
+     */
+    static double normalizedDifference(float[] a, float[] b, int dim) {
+        if (a.length != b.length || dim <= 0 || a.length % dim != 0)
+            return Double.POSITIVE_INFINITY;
+        double diff = 0;
+        for (int offset = 0; offset < a.length; offset += dim) {
+            double normA = FaceGallery.norm(a, offset, dim);
+            double normB = FaceGallery.norm(b, offset, dim);
+            double invA = normA > 0 ? 1 / normA : 0;
+            double invB = normB > 0 ? 1 / normB : 0;
+            for (int k = 0; k < dim; k++) {
+                diff = Math.max(diff, Math.abs(a[offset + k] * invA - b[offset + k] * invB));
+            }
+        }
+        return diff;
+    }
+
+    private void disableBatching(String reason) {
+        mBatching = false;
+        Log.w(TAG, "Batched embedding disabled: " + reason);
+    }
+}
@@ -0,0 +1,24 @@
+package bo.edu.cba.faceid;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface FaceDao {
+
+    @Query("SELECT * FROM user_faces")
+    List<FaceEntity> getAll();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsert(List<FaceEntity> faces);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsert(FaceEntity face);
+
+    @Query("DELETE FROM user_faces WHERE object_id IN (:objectIds)")
+    void deleteByIds(List<String> objectIds);
+}
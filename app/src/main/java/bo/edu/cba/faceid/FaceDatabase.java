@@ -0,0 +1,41 @@
+package bo.edu.cba.faceid;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+@Database(entities = {FaceEntity.class}, version = 2, exportSchema = false)
+public abstract class FaceDatabase extends RoomDatabase {
+
+    private static final String DATABASE_NAME = "faceid.db";
+
+    /** Indexes names, by which the features of re-ranked candidates are loaded. */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_user_faces_name` ON `user_faces` (`name`)");
+        }
+    };
+
+    private static volatile FaceDatabase sInstance;
+
+    public abstract FaceDao faceDao();
+
+    public static FaceDatabase getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (FaceDatabase.class) {
+                if (sInstance == null) {
+                    sInstance = Room.databaseBuilder(context.getApplicationContext(), FaceDatabase.class, DATABASE_NAME)
+                            .addMigrations(MIGRATION_1_2)
+                            .build();
+                }
+            }
+        }
+        return sInstance;
+    }
+}
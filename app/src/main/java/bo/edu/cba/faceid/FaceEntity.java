@@ -0,0 +1,35 @@
+package bo.edu.cba.faceid;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * Local copy of a {@code UserFace} row. The embedding is stored in {@link EmbeddingCodec} format.
+ */
+@Entity(tableName = "user_faces", indices = {@Index("name")})
+public class FaceEntity {
+
+    @PrimaryKey
+    @NonNull
+    @ColumnInfo(name = "object_id")
+    public String objectId;
+
+    @NonNull
+    public String name;
+
+    @NonNull
+    public byte[] embedding;
+
+    @ColumnInfo(name = "updated_at")
+    public long updatedAt;
+
+    public FaceEntity(@NonNull String objectId, @NonNull String name, @NonNull byte[] embedding, long updatedAt) {
+        this.objectId = objectId;
+        this.name = name;
+        this.embedding = embedding;
+        this.updatedAt = updatedAt;
+    }
+}
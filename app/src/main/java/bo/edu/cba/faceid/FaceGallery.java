@@ -0,0 +1,275 @@
+package bo.edu.cba.faceid;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registered face embeddings stored as one contiguous row-major {@code float[]} matrix.
+ * Every row is L2-normalized on insert, so scoring a probe against the whole gallery is a
+ * single dot-product loop equivalent to {@code FaceRecognizerSF.match(..., FR_COSINE)}.
+ */
+public class FaceGallery {
+
+    public static final int DEFAULT_DIM = 128;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int                    mDim;
+    /** The normalized rows, or null when a subclass keeps them elsewhere. */
+    private float[]                      mFeatures;
+    /** Holds the normalized feature being written when rows are not kept. */
+    private final float[]                mScratch;
+    private int                          mCapacity;
+    private final List<String>           mIds = new ArrayList<>();
+    private final HashMap<String, Integer> mRows = new HashMap<>();
+
+    public static class Match {
+        public final String bestId;
+        public final double bestScore;
+        public final String secondId;
+        public final double secondScore;
+
+        public Match(String bestId, double bestScore, String secondId, double secondScore) {
+            this.bestId = bestId;
+            this.bestScore = bestScore;
+            this.secondId = secondId;
+            this.secondScore = secondScore;
+        }
+    }
+
+    public FaceGallery() {
+        this(DEFAULT_DIM);
+    }
+
+    public FaceGallery(int dim) {
+        this(dim, true);
+    }
+
+    /**
+     * @param keepFeatures whether to keep the normalized rows; subclasses that do not must
+     *                     override {@link #match} and {@link #get}
+     */
+    FaceGallery(int dim, boolean keepFeatures) {
+        if (dim <= 0)
+            throw new IllegalArgumentException("Embedding dimension must be positive: " + dim);
+        mDim = dim;
+        mCapacity = INITIAL_CAPACITY;
+        mFeatures = keepFeatures ? new float[INITIAL_CAPACITY * dim] : null;
+        mScratch = keepFeatures ? null : new float[dim];
+    }
+
+    int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Bytes of embedding data held in memory, including spare capacity.
+     */
+    public synchronized long memoryBytes() {
+        return mFeatures != null ? (long) mFeatures.length * Float.BYTES : 0;
+    }
+
+    public int dim() {
+        return mDim;
+    }
+
+    public synchronized int size() {
+        return mIds.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return mIds.isEmpty();
+    }
+
+    public synchronized boolean contains(String id) {
+        return mRows.containsKey(id);
+    }
+
+    public synchronized List<String> ids() {
+        return new ArrayList<>(mIds);
+    }
+
+    /**
+     * Adds or replaces the embedding stored for {@code id}. The feature is copied and normalized.
+     */
+    public synchronized void put(String id, float[] feature) {
+        checkDim(feature);
+        Integer row = mRows.get(id);
+        if (row == null) {
+            row = mIds.size();
+            ensureCapacity(row + 1);
+            mIds.add(id);
+            mRows.put(id, row);
+        }
+        float[] dst = mFeatures != null ? mFeatures : mScratch;
+        int offset = mFeatures != null ? row * mDim : 0;
+        System.arraycopy(feature, 0, dst, offset, mDim);
+        normalize(dst, offset, mDim);
+        onRowWritten(row, dst, offset);
+    }
+
+    /**
+     * Removes {@code id}, moving the last row into its slot to keep the matrix dense.
+     */
+    public synchronized boolean remove(String id) {
+        Integer row = mRows.remove(id);
+        if (row == null)
+            return false;
+        onRowRemoved(row);
+        int last = mIds.size() - 1;
+        String lastId = mIds.remove(last);
+        if (row != last) {
+            if (mFeatures != null)
+                System.arraycopy(mFeatures, last * mDim, mFeatures, row * mDim, mDim);
+            mIds.set(row, lastId);
+            mRows.put(lastId, row);
+            onRowMoved(last, row);
+        }
+        return true;
+    }
+
+    /**
+     * Applies {@code removals} and then {@code puts} while holding the gallery lock, so a
+     * concurrent {@link #match} never observes a partially applied batch.
+     */
+    public synchronized void apply(Map<String, float[]> puts, Collection<String> removals) {
+        for (float[] feature : puts.values()) {
+            checkDim(feature);
+        }
+        for (String id : removals) {
+            remove(id);
+        }
+        for (Map.Entry<String, float[]> entry : puts.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public synchronized void clear() {
+        mIds.clear();
+        mRows.clear();
+        onCleared();
+    }
+
+    /**
+     * Returns a normalized copy of the embedding stored for {@code id}, or null.
+     */
+    public synchronized float[] get(String id) {
+        Integer row = mRows.get(id);
+        if (row == null)
+            return null;
+        float[] feature = new float[mDim];
+        System.arraycopy(mFeatures, row * mDim, feature, 0, mDim);
+        return feature;
+    }
+
+    /**
+     * Scores {@code probe} against every row and returns the best and second-best identities.
+     * Returns null when the gallery is empty.
+     */
+    public synchronized Match match(float[] probe) {
+        checkDim(probe);
+        int count = mIds.size();
+        if (count == 0)
+            return null;
+
+        double norm = norm(probe, 0, mDim);
+        float inv = norm > 0 ? (float) (1.0 / norm) : 0.f;
+
+        final float[] features = mFeatures;
+        final int dim = mDim;
+        int best = -1, second = -1;
+        float bestScore = Float.NEGATIVE_INFINITY, secondScore = Float.NEGATIVE_INFINITY;
+        for (int row = 0, offset = 0; row < count; row++, offset += dim) {
+            float dot = 0.f;
+            for (int k = 0; k < dim; k++) {
+                dot += features[offset + k] * probe[k];
+            }
+            if (dot > bestScore) {
+                second = best;
+                secondScore = bestScore;
+                best = row;
+                bestScore = dot;
+            } else if (dot > secondScore) {
+                second = row;
+                secondScore = dot;
+            }
+        }
+
+        return new Match(mIds.get(best), bestScore * inv,
+                second >= 0 ? mIds.get(second) : null,
+                second >= 0 ? secondScore * inv : Double.NEGATIVE_INFINITY);
+    }
+
+    static double norm(float[] v, int offset, int length) {
+        double sum = 0;
+        for (int k = 0; k < length; k++) {
+            sum += (double) v[offset + k] * v[offset + k];
+        }
+        return Math.sqrt(sum);
+    }
+
+    static void normalize(float[] v, int offset, int length) {
+        double norm = norm(v, offset, length);
+        if (norm == 0)
+            return;
+        float inv = (float) (1.0 / norm);
+        for (int k = 0; k < length; k++) {
+            v[offset + k] *= inv;
+        }
+    }
+
+    private void ensureCapacity(int rows) {
+        if (rows <= mCapacity)
+            return;
+        int capacity = Math.max(rows, mCapacity * 2);
+        if (mFeatures != null) {
+            float[] grown = new float[capacity * mDim];
+            System.arraycopy(mFeatures, 0, grown, 0, mIds.size() * mDim);
+            mFeatures = grown;
+        }
+        mCapacity = capacity;
+        onCapacityChanged(capacity);
+    }
+
+    /**
+     * Called after the feature of {@code row} has been (re)written; its normalized values are at
+     * {@code offset} in {@code feature}.
+     */
+    void onRowWritten(int row, float[] feature, int offset) {
+    }
+
+    /** Called when {@link #remove} is about to drop {@code row}, before any row is moved. */
+    void onRowRemoved(int row) {
+    }
+
+    /** Called when {@link #remove} moves the last row {@code from} into the freed slot {@code to}. */
+    void onRowMoved(int from, int to) {
+    }
+
+    /** Called after the backing matrix has grown to hold {@code rows} rows. */
+    void onCapacityChanged(int rows) {
+    }
+
+    /** Called after {@link #clear} has emptied the gallery. */
+    void onCleared() {
+    }
+
+    String idAt(int row) {
+        return mIds.get(row);
+    }
+
+    /** The row holding {@code id}, or -1. */
+    synchronized int rowOf(String id) {
+        Integer row = mRows.get(id);
+        return row != null ? row : -1;
+    }
+
+    void checkDim(float[] feature) {
+        if (feature == null || feature.length != mDim)
+            throw new IllegalArgumentException("Expected a " + mDim + "-d feature, got "
+                    + (feature == null ? "null" : feature.length + "-d"));
+    }
+}
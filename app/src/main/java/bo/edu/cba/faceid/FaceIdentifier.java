@@ -0,0 +1,119 @@
+package bo.edu.cba.faceid;
+
+import java.util.Arrays;
+
+/**
+ * Decides which detected faces of a frame need recognition and what identity each one shows,
+ * combining an optional {@link FaceTracker} with {@link FaceGallery} matching.
+ *
+ * <p>Has no OpenCV or Android dependencies, so the decisions {@link RecognitionPipeline} makes
+ * can be tested and replayed on a desktop JVM.
+ */
+public class FaceIdentifier {
+
+    /** The faces of one frame, in detection order. */
+    public static class Assignment {
+        /** Boxes to report, {@code {x, y, w, h}}: the track's box if tracked, else the detection. */
+        public final float[][]           boxes;
+        /** Track of each face, or null entries when tracking is off. */
+        public final FaceTracker.Track[] tracks;
+        /** Identity of each face, or null if unknown or not recognized. */
+        public final String[]            names;
+        public final double[]            scores;
+        /** Indices of the faces to embed and pass to {@link #identify} or {@link #abandon}. */
+        public final int[]               pending;
+
+        Assignment(int count, int[] pending) {
+            this.boxes = new float[count][];
+            this.tracks = new FaceTracker.Track[count];
+            this.names = new String[count];
+            this.scores = new double[count];
+            this.pending = pending;
+        }
+
+        public int size() {
+            return boxes.length;
+        }
+    }
+
+    private final FaceGallery mGallery;
+    private final double      mCosThreshold;
+    private final FaceTracker mTracker;
+
+    /**
+     * @param tracker if null, every face is recognized on every frame
+     */
+    public FaceIdentifier(FaceGallery gallery, double cosThreshold, FaceTracker tracker) {
+        mGallery = gallery;
+        mCosThreshold = cosThreshold;
+        mTracker = tracker;
+    }
+
+    public FaceGallery gallery() {
+        return mGallery;
+    }
+
+    /**
+     * Associates this frame's detections, {@code boxes[i] = {x, y, w, h}}, with tracks and picks
+     * the faces to recognize. None are picked if {@code recognize} is false or the gallery is
+     * empty; tracked faces are picked when {@link FaceTracker#claimRecognition} says they are due.
+     */
+    public Assignment assign(float[][] boxes, boolean recognize) {
+        int count = boxes.length;
+        FaceTracker.Track[] tracks = mTracker != null ? mTracker.update(boxes) : new FaceTracker.Track[count];
+        recognize = recognize && !mGallery.isEmpty();
+        int[] pending = new int[count];
+        int claimed = 0;
+        for (int i = 0; i < count; i++) {
+            if (tracks[i] == null) {
+                if (recognize)
+                    pending[claimed++] = i;
+            } else if (recognize && mTracker.claimRecognition(tracks[i])) {
+                pending[claimed++] = i;
+            }
+        }
+
+        Assignment assignment = new Assignment(count, Arrays.copyOf(pending, claimed));
+        for (int i = 0; i < count; i++) {
+            FaceTracker.Track track = tracks[i];
+            assignment.tracks[i] = track;
+            if (track == null) {
+                assignment.boxes[i] = boxes[i].clone();
+            } else {
+                assignment.boxes[i] = new float[] { track.x, track.y, track.w, track.h };
+                assignment.names[i] = mTracker.name(track);
+                assignment.scores[i] = mTracker.score(track);
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * Matches the embedding {@code probe} of pending face {@code index} against the gallery and
+     * records the identity on the assignment and its track. Faces of one assignment may be
+     * identified concurrently from different threads.
+     */
+    public void identify(Assignment assignment, int index, float[] probe) {
+        FaceGallery.Match match = mGallery.match(probe);
+        boolean matched = match != null && match.bestScore > mCosThreshold;
+        String name = matched ? match.bestId : null;
+        double score = match != null ? match.bestScore : 0;
+        assignment.names[index] = name;
+        assignment.scores[index] = score;
+        FaceTracker.Track track = assignment.tracks[index];
+        if (track != null)
+            mTracker.recognized(track, name, score);
+    }
+
+    /** Gives up on pending face {@code index}, so its track is retried on a later frame. */
+    public void abandon(Assignment assignment, int index) {
+        FaceTracker.Track track = assignment.tracks[index];
+        if (track != null)
+            mTracker.abandoned(track);
+    }
+
+    public void clear() {
+        if (mTracker != null)
+            mTracker.clear();
+    }
+}
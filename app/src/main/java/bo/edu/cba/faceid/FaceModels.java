@@ -0,0 +1,202 @@
+package bo.edu.cba.faceid;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Size;
+import org.opencv.objdetect.FaceDetectorYN;
+import org.opencv.objdetect.FaceRecognizerSF;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the face detection and recognition models concurrently in the background.
+ *
+ * <p>Each model is created on its own thread and then run once on a blank input, so the first
+ * real frame does not pay for lazy initialization inside OpenCV. {@link #ready()} completes once
+ * both are usable; until then {@link #detector()} and {@link #recognizer()} return null.
+ *
+ * <p>Models are read straight from the APK through {@link ModelBuffer}, without copying them to
+ * a file. The instance is process wide, so loaded models survive activity recreation. The
+ * recognizers and embedders of pipeline workers are kept too: {@link #recognizerFactory()} and
+ * {@link #embedderFactory()} hand out idle ones before loading the model again.
+ */
+public class FaceModels {
+
+    private static final String TAG = "FaceModels";
+
+    public static final Size DETECTOR_INPUT_SIZE = new Size(320, 320);
+
+    private static final String FRAMEWORK = "onnx";
+    /** Copies written to the cache dir by earlier versions, which loaded models from files. */
+    private static final String[] LEGACY_CACHE_FILES = {
+            "face_detection_yunet_2023mar.onnx", "face_recognition_sface_2021dec.onnx"
+    };
+
+    private static FaceModels sInstance;
+
+    private final Context                            mContext;
+    private final ExecutorService                    mExecutor = Executors.newFixedThreadPool(2);
+    private final CompletableFuture<FaceDetectorYN>   mDetector;
+    private final CompletableFuture<ModelBuffer>      mRecognizerModel;
+    private final CompletableFuture<FaceRecognizerSF> mRecognizer;
+    private final CompletableFuture<Void>             mReady;
+    private final Queue<FaceRecognizerSF>             mIdleRecognizers = new ConcurrentLinkedQueue<>();
+    private final Queue<FaceBatchEmbedder>            mIdleEmbedders = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Returns the process-wide instance, starting to load the models on first use or after a
+     * failed attempt.
+     */
+    public static synchronized FaceModels getInstance(Context context) {
+        if (sInstance == null || sInstance.mReady.isCompletedExceptionally()) {
+            sInstance = new FaceModels(context);
+        }
+        return sInstance;
+    }
+
+    private FaceModels(Context context) {
+        mContext = context.getApplicationContext();
+        mDetector = CompletableFuture.supplyAsync(() -> {
+            ModelBuffer model = load(R.raw.face_detection_yunet_2023mar);
+            FaceDetectorYN detector = FaceDetectorYN.create(FRAMEWORK, model.mat(), new MatOfByte(),
+                    DETECTOR_INPUT_SIZE);
+            warmUp(detector);
+            Log.i(TAG, "FaceDetectorYN initialized successfully!");
+            return detector;
+        }, mExecutor);
+        mRecognizerModel = CompletableFuture.supplyAsync(
+                () -> load(R.raw.face_recognition_sface_2021dec), mExecutor);
+        mRecognizer = mRecognizerModel.thenApply(model -> {
+            FaceRecognizerSF recognizer = createRecognizer(model);
+            Log.i(TAG, "FaceRecognizerSF initialized successfully!");
+            return recognizer;
+        });
+        mExecutor.execute(this::deleteLegacyCacheFiles);
+        mReady = CompletableFuture.allOf(mDetector, mRecognizer);
+        mReady.whenComplete((ignored, e) -> {
+            mExecutor.shutdown();
+            if (e != null)
+                Log.e(TAG, "Failed to load face models", e);
+        });
+    }
+
+    /** Completes when both models are loaded and warmed up, or exceptionally if either failed. */
+    public CompletableFuture<Void> ready() {
+        return mReady;
+    }
+
+    public boolean isReady() {
+        return mReady.isDone() && !mReady.isCompletedExceptionally();
+    }
+
+    /** The shared detector, or null until {@link #ready()}. Use from one thread at a time. */
+    public FaceDetectorYN detector() {
+        return isReady() ? mDetector.join() : null;
+    }
+
+    /**
+     * The shared recognizer, or null until {@link #ready()}. Use from one thread at a time;
+     * {@link FaceRecognizerSF#alignCrop} alone keeps no state and may be called from any thread.
+     */
+    public FaceRecognizerSF recognizer() {
+        return isReady() ? mRecognizer.join() : null;
+    }
+
+    /**
+     * Recognizers for pipeline workers, or for the workers to share for alignment when they embed
+     * in batches. Recycled recognizers are handed out again before new ones are loaded. Use after
+     * {@link #ready()}.
+     */
+    public RecognitionPipeline.RecognizerFactory recognizerFactory() {
+        return new RecognitionPipeline.RecognizerFactory() {
+            @Override
+            public FaceRecognizerSF create() {
+                FaceRecognizerSF recognizer = mIdleRecognizers.poll();
+                return recognizer != null ? recognizer : createRecognizer(mRecognizerModel.join());
+            }
+
+            @Override
+            public void recycle(FaceRecognizerSF recognizer) {
+                mIdleRecognizers.add(recognizer);
+            }
+        };
+    }
+
+    /**
+     * Batch embedders for pipeline workers. Recycled embedders are handed out again before new
+     * ones are loaded. Use after {@link #ready()}.
+     */
+    public RecognitionPipeline.EmbedderFactory embedderFactory() {
+        return new RecognitionPipeline.EmbedderFactory() {
+            @Override
+            public FaceBatchEmbedder create() {
+                FaceBatchEmbedder embedder = mIdleEmbedders.poll();
+                return embedder != null ? embedder : createEmbedder(mRecognizerModel.join());
+            }
+
+            @Override
+            public void recycle(FaceBatchEmbedder embedder) {
+                mIdleEmbedders.add(embedder);
+            }
+        };
+    }
+
+    private static FaceBatchEmbedder createEmbedder(ModelBuffer model) {
+        FaceBatchEmbedder embedder = new FaceBatchEmbedder(model.mat());
+        Mat blank = Mat.zeros(FaceBatchEmbedder.INPUT_SIZE, CvType.CV_8UC3);
+        Mat feature = new Mat();
+        embedder.embed(Collections.singletonList(blank), feature);
+        blank.release();
+        feature.release();
+        return embedder;
+    }
+
+    private static FaceRecognizerSF createRecognizer(ModelBuffer model) {
+        FaceRecognizerSF recognizer = FaceRecognizerSF.create(FRAMEWORK, model.mat(), new MatOfByte());
+        Mat blank = Mat.zeros(FaceBatchEmbedder.INPUT_SIZE, CvType.CV_8UC3);
+        Mat feature = new Mat();
+        recognizer.feature(blank, feature);
+        blank.release();
+        feature.release();
+        return recognizer;
+    }
+
+    private static void warmUp(FaceDetectorYN detector) {
+        Mat blank = Mat.zeros(DETECTOR_INPUT_SIZE, CvType.CV_8UC3);
+        Mat faces = new Mat();
+        detector.detect(blank, faces);
+        blank.release();
+        faces.release();
+    }
+
+    private ModelBuffer load(int resourceId) {
+        try {
+            ModelBuffer model = ModelBuffer.fromRawResource(mContext, resourceId);
+            Log.i(TAG, "Loaded " + mContext.getResources().getResourceEntryName(resourceId)
+                    + " (" + model.size() + " bytes)");
+            return model;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load model from raw resource " + resourceId, e);
+        }
+    }
+
+    private void deleteLegacyCacheFiles() {
+        for (String name : LEGACY_CACHE_FILES) {
+            File file = new File(mContext.getCacheDir(), name);
+            if (file.exists() && !file.delete())
+                Log.w(TAG, "Failed to delete " + file);
+        }
+    }
+}
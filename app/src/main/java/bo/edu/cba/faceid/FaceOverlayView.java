@@ -0,0 +1,114 @@
+package bo.edu.cba.faceid;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Transparent view drawn over the camera preview with the box, landmarks, name and score of each
+ * face, so annotations are never rasterized into camera frames.
+ *
+ * <p>Results are double buffered without locks: {@link #setResults} publishes an immutable list
+ * as the pending buffer from any thread, and {@link #onDraw} swaps it in as the front buffer it
+ * draws. Updates arriving faster than the display are coalesced into one redraw per frame.
+ *
+ * <p>Coordinates are frame coordinates. The frame is either stretched to the view bounds, as
+ * {@link org.opencv.android.CameraGLSurfaceView} draws it, or drawn centered at a fixed scale, as
+ * {@link org.opencv.android.CameraBridgeViewBase} does; see {@link #setFrameGeometry}.
+ */
+public class FaceOverlayView extends View {
+
+    private static final float BOX_STROKE_DP   = 2.f;
+    private static final float LANDMARK_DP     = 2.5f;
+    private static final float TEXT_SIZE_SP    = 18.f;
+
+    private final Paint                                         mBoxPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint                                         mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float                                         mLandmarkRadius;
+    private final AtomicReference<List<RecognitionPipeline.FaceResult>> mPending = new AtomicReference<>();
+    private List<RecognitionPipeline.FaceResult>                mFront = Collections.emptyList();
+    private volatile int                                        mFrameWidth = 1;
+    private volatile int                                        mFrameHeight = 1;
+    private volatile float                                      mFrameScale;
+
+    public FaceOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mBoxPaint.setStyle(Paint.Style.STROKE);
+        mBoxPaint.setColor(Color.GREEN);
+        mBoxPaint.setStrokeWidth(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, BOX_STROKE_DP,
+                getResources().getDisplayMetrics()));
+        mTextPaint.setColor(Color.GREEN);
+        mTextPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, TEXT_SIZE_SP,
+                getResources().getDisplayMetrics()));
+        mLandmarkRadius = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, LANDMARK_DP,
+                getResources().getDisplayMetrics());
+    }
+
+    /**
+     * Sets the size of the frames results refer to and how they are laid out in the view.
+     *
+     * @param scale 0 if the frame is stretched to the view bounds, otherwise the scale at which
+     *              it is drawn centered in the view
+     */
+    public void setFrameGeometry(int frameWidth, int frameHeight, float scale) {
+        if (frameWidth == mFrameWidth && frameHeight == mFrameHeight && scale == mFrameScale)
+            return;
+        mFrameWidth = frameWidth;
+        mFrameHeight = frameHeight;
+        mFrameScale = scale;
+        postInvalidateOnAnimation();
+    }
+
+    /**
+     * Shows {@code results}, which must not be modified afterwards. May be called from any thread.
+     */
+    public void setResults(List<RecognitionPipeline.FaceResult> results) {
+        if (mPending.getAndSet(results) == null)
+            postInvalidateOnAnimation();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        List<RecognitionPipeline.FaceResult> pending = mPending.getAndSet(null);
+        if (pending != null)
+            mFront = pending;
+
+        float frameWidth = mFrameWidth, frameHeight = mFrameHeight, scale = mFrameScale;
+        float sx, sy, dx, dy;
+        if (scale == 0) {
+            sx = getWidth() / frameWidth;
+            sy = getHeight() / frameHeight;
+            dx = dy = 0;
+        } else {
+            sx = sy = scale;
+            dx = (getWidth() - scale * frameWidth) / 2;
+            dy = (getHeight() - scale * frameHeight) / 2;
+        }
+
+        for (RecognitionPipeline.FaceResult face : mFront) {
+            float left = dx + face.box.x * sx;
+            float top = dy + face.box.y * sy;
+            canvas.drawRect(left, top, left + face.box.width * sx, top + face.box.height * sy, mBoxPaint);
+            if (face.landmarks != null) {
+                for (int i = 0; i + 1 < face.landmarks.length; i += 2) {
+                    canvas.drawCircle(dx + face.landmarks[i] * sx, dy + face.landmarks[i + 1] * sy,
+                            mLandmarkRadius, mTextPaint);
+                }
+            }
+            if (face.name != null) {
+                String label = String.format(Locale.US, "%s %.2f", face.name, face.score);
+                canvas.drawText(label, left, top - mTextPaint.descent() - mBoxPaint.getStrokeWidth(), mTextPaint);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package bo.edu.cba.faceid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Incremental synchronization of registered faces into a {@link FaceGallery}.
+ *
+ * <p>Each {@link #sync} pages through the rows whose {@code updatedAt} is at or after the stored
+ * high-water mark, ordered by {@code (updatedAt, objectId)}, and applies inserts, updates,
+ * renames and soft deletes to the gallery in a single {@link FaceGallery#apply} call, so a
+ * concurrent {@link FaceGallery#match} sees either the old or the new gallery. Nothing is applied
+ * if a page fails to load.
+ *
+ * <p>Not thread-safe; run every call on the same worker thread.
+ */
+public class FaceSync {
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    public static class Record {
+        public final String  objectId;
+        public final String  name;
+        /** Decoded embedding, or null when the row is deleted or unreadable. */
+        public final float[] feature;
+        public final long    updatedAt;
+        public final boolean deleted;
+
+        public Record(String objectId, String name, float[] feature, long updatedAt, boolean deleted) {
+            this.objectId = objectId;
+            this.name = name;
+            this.feature = feature;
+            this.updatedAt = updatedAt;
+            this.deleted = deleted;
+        }
+    }
+
+    /**
+     * Remote store of registered faces.
+     */
+    public interface Source {
+        /**
+         * Returns up to {@code limit} rows with {@code updatedAt >= since}, ordered by
+         * {@code updatedAt} then {@code objectId}, skipping the first {@code skip}.
+         */
+        List<Record> fetch(long since, int skip, int limit) throws Exception;
+    }
+
+    public static class Result {
+        /** Rows inserted or updated in the gallery. */
+        public final List<Record> upserted;
+        /** Object ids removed from the gallery. */
+        public final List<String> deleted;
+        /** New high-water mark to pass to the next {@link #sync}. */
+        public final long         highWater;
+
+        Result(List<Record> upserted, List<String> deleted, long highWater) {
+            this.upserted = upserted;
+            this.deleted = deleted;
+            this.highWater = highWater;
+        }
+    }
+
+    private final Source              mSource;
+    private final FaceGallery         mGallery;
+    private final int                 mPageSize;
+    private final Map<String, String> mNames = new HashMap<>();
+    private long                      mHighWater = -1;
+    private final Set<String>         mSeenAtHighWater = new HashSet<>();
+
+    public FaceSync(Source source, FaceGallery gallery) {
+        this(source, gallery, DEFAULT_PAGE_SIZE);
+    }
+
+    public FaceSync(Source source, FaceGallery gallery, int pageSize) {
+        if (pageSize < 1)
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        mSource = source;
+        mGallery = gallery;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Records that {@code objectId} is already in the gallery as {@code name}, e.g. after loading
+     * the local cache or registering a face.
+     */
+    public void track(String objectId, String name) {
+        mNames.put(objectId, name);
+    }
+
+    public Result sync(long highWater) throws Exception {
+        Map<String, Record> changes = new LinkedHashMap<>();
+        long cursor = highWater;
+        Set<String> seenAtCursor = new HashSet<>();
+        if (highWater == mHighWater)
+            seenAtCursor.addAll(mSeenAtHighWater);
+        int skip = 0;
+
+        while (true) {
+            List<Record> page = mSource.fetch(cursor, skip, mPageSize);
+            boolean advanced = false;
+            for (Record record : page) {
+                if (record.updatedAt < cursor)
+                    continue;
+                if (record.updatedAt == cursor && !seenAtCursor.add(record.objectId))
+                    continue;
+                if (record.updatedAt > cursor) {
+                    cursor = record.updatedAt;
+                    seenAtCursor.clear();
+                    seenAtCursor.add(record.objectId);
+                    advanced = true;
+                }
+                changes.put(record.objectId, record);
+            }
+            if (page.size() < mPageSize)
+                break;
+            // A full page that never moved the cursor is all ties on one timestamp.
+            skip = advanced ? 0 : skip + mPageSize;
+        }
+
+        Map<String, float[]> puts = new LinkedHashMap<>();
+        List<String> removals = new ArrayList<>();
+        List<Record> upserted = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (Record record : changes.values()) {
+            String previous = mNames.get(record.objectId);
+            if (record.deleted) {
+                if (previous != null) {
+                    removals.add(previous);
+                    mNames.remove(record.objectId);
+                }
+                deleted.add(record.objectId);
+            } else if (record.name != null && record.feature != null) {
+                if (previous != null && !previous.equals(record.name))
+                    removals.add(previous);
+                puts.put(record.name, record.feature);
+                mNames.put(record.objectId, record.name);
+                upserted.add(record);
+            }
+        }
+        if (!puts.isEmpty() || !removals.isEmpty())
+            mGallery.apply(puts, removals);
+        mHighWater = cursor;
+        mSeenAtHighWater.clear();
+        mSeenAtHighWater.addAll(seenAtCursor);
+
+        return new Result(Collections.unmodifiableList(upserted), Collections.unmodifiableList(deleted), cursor);
+    }
+}
@@ -0,0 +1,219 @@
+package bo.edu.cba.faceid;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Links face boxes across frames by IoU and caches the identity recognized for each track, so a
+ * face only needs to be embedded when its track is new, when its identity is due for a periodic
+ * refresh, or when the last result was not confident.
+ *
+ * <p>{@link #update} must be called from a single thread; identity updates may come from others.
+ */
+public class FaceTracker {
+
+    public static final float  DEFAULT_IOU_THRESHOLD    = 0.3f;
+    public static final int    DEFAULT_MAX_MISSED       = 5;
+    public static final int    DEFAULT_REFRESH_INTERVAL = 30;
+    public static final int    DEFAULT_RETRY_INTERVAL   = 3;
+
+    /**
+     * Optional motion model applied to track boxes, e.g. a Kalman filter.
+     */
+    public interface Smoother {
+        /** Starts filtering a new track from its first detection. */
+        void start(Track track);
+        /** Moves the track box to where the track is expected in the next frame. */
+        void predict(Track track);
+        /** Folds the associated detection into the track box. */
+        void correct(Track track, float x, float y, float w, float h);
+        /** Releases state held for a track that has been dropped. */
+        void stop(Track track);
+    }
+
+    public static class Track {
+        public final int id;
+        public float     x, y, w, h;
+        /** Last recognized identity, or null if unknown. */
+        String           name;
+        double           score = Double.NEGATIVE_INFINITY;
+        long             recognizedAt = -1;
+        boolean          recognizing;
+        int              missed;
+        /** Per-track state owned by the {@link Smoother}. */
+        public Object    state;
+
+        Track(int id, float x, float y, float w, float h) {
+            this.id = id;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+
+        void set(float x, float y, float w, float h) {
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+    }
+
+    private final float       mIouThreshold;
+    private final int         mMaxMissed;
+    private final int         mRefreshInterval;
+    private final int         mRetryInterval;
+    private final double      mConfidentScore;
+    private final Smoother    mSmoother;
+    private final List<Track> mTracks = new ArrayList<>();
+    private int               mNextId;
+    private long              mFrame;
+
+    /**
+     * @param confidentScore identities scoring below this are re-checked every
+     *                       {@link #DEFAULT_RETRY_INTERVAL} frames instead of every refresh interval.
+     */
+    public FaceTracker(double confidentScore, Smoother smoother) {
+        this(DEFAULT_IOU_THRESHOLD, DEFAULT_MAX_MISSED, DEFAULT_REFRESH_INTERVAL, DEFAULT_RETRY_INTERVAL,
+                confidentScore, smoother);
+    }
+
+    public FaceTracker(float iouThreshold, int maxMissed, int refreshInterval, int retryInterval,
+                       double confidentScore, Smoother smoother) {
+        mIouThreshold = iouThreshold;
+        mMaxMissed = maxMissed;
+        mRefreshInterval = refreshInterval;
+        mRetryInterval = retryInterval;
+        mConfidentScore = confidentScore;
+        mSmoother = smoother;
+    }
+
+    /**
+     * Associates this frame's detections, given as {@code boxes[i] = {x, y, w, h}}, with existing
+     * tracks and returns the track of each detection. Unmatched detections start new tracks;
+     * tracks unmatched for more than the allowed number of frames are dropped.
+     */
+    public synchronized Track[] update(float[][] boxes) {
+        mFrame++;
+        if (mSmoother != null) {
+            for (Track track : mTracks) {
+                mSmoother.predict(track);
+            }
+        }
+
+        int count = boxes.length;
+        Track[] assigned = new Track[count];
+        boolean[] matched = new boolean[mTracks.size()];
+
+        // Greedy assignment in order of decreasing IoU.
+        List<float[]> pairs = new ArrayList<>();
+        for (int t = 0; t < mTracks.size(); t++) {
+            Track track = mTracks.get(t);
+            for (int d = 0; d < count; d++) {
+                float iou = iou(track.x, track.y, track.w, track.h, boxes[d]);
+                if (iou >= mIouThreshold)
+                    pairs.add(new float[] { iou, t, d });
+            }
+        }
+        pairs.sort((a, b) -> Float.compare(b[0], a[0]));
+        for (float[] pair : pairs) {
+            int t = (int) pair[1], d = (int) pair[2];
+            if (matched[t] || assigned[d] != null)
+                continue;
+            matched[t] = true;
+            Track track = mTracks.get(t);
+            float[] box = boxes[d];
+            if (mSmoother != null)
+                mSmoother.correct(track, box[0], box[1], box[2], box[3]);
+            else
+                track.set(box[0], box[1], box[2], box[3]);
+            track.missed = 0;
+            assigned[d] = track;
+        }
+
+        for (int t = 0; t < matched.length; t++) {
+            if (!matched[t])
+                mTracks.get(t).missed++;
+        }
+        Iterator<Track> it = mTracks.iterator();
+        while (it.hasNext()) {
+            Track track = it.next();
+            if (track.missed > mMaxMissed) {
+                if (mSmoother != null)
+                    mSmoother.stop(track);
+                it.remove();
+            }
+        }
+
+        for (int d = 0; d < count; d++) {
+            if (assigned[d] == null) {
+                float[] box = boxes[d];
+                Track track = new Track(mNextId++, box[0], box[1], box[2], box[3]);
+                if (mSmoother != null)
+                    mSmoother.start(track);
+                mTracks.add(track);
+                assigned[d] = track;
+            }
+        }
+        return assigned;
+    }
+
+    /**
+     * Returns true, and marks the track as being recognized, if its face should be embedded on
+     * this frame. Every such call must be followed by {@link #recognized} or {@link #abandoned}.
+     */
+    public synchronized boolean claimRecognition(Track track) {
+        if (track.recognizing)
+            return false;
+        long since = mFrame - track.recognizedAt;
+        boolean due = track.recognizedAt < 0
+                || since >= mRefreshInterval
+                || (track.score < mConfidentScore && since >= mRetryInterval);
+        if (due)
+            track.recognizing = true;
+        return due;
+    }
+
+    /** Caches the identity computed for {@code track}; {@code name} is null if unknown. */
+    public synchronized void recognized(Track track, String name, double score) {
+        track.recognizing = false;
+        track.recognizedAt = mFrame;
+        track.name = name;
+        track.score = score;
+    }
+
+    /** Releases a claim whose recognition did not run, so the next frame retries it. */
+    public synchronized void abandoned(Track track) {
+        track.recognizing = false;
+    }
+
+    public synchronized String name(Track track) {
+        return track.name;
+    }
+
+    public synchronized double score(Track track) {
+        return track.score;
+    }
+
+    public synchronized int size() {
+        return mTracks.size();
+    }
+
+    public synchronized void clear() {
+        if (mSmoother != null) {
+            for (Track track : mTracks) {
+                mSmoother.stop(track);
+            }
+        }
+        mTracks.clear();
+    }
+
+    static float iou(float x, float y, float w, float h, float[] box) {
+        float ix = Math.max(0, Math.min(x + w, box[0] + box[2]) - Math.max(x, box[0]));
+        float iy = Math.max(0, Math.min(y + h, box[1] + box[3]) - Math.max(y, box[1]));
+        float inter = ix * iy;
+        float union = w * h + box[2] * box[3] - inter;
+        return union > 0 ? inter / union : 0;
+    }
+}
@@ -0,0 +1,109 @@
+package bo.edu.cba.faceid;
+
+/**
+ * Maps boxes between the camera sensor image and the displayed frame, which is the sensor image
+ * rotated clockwise by {@link #rotation} degrees and then, for front cameras, mirrored
+ * horizontally. Lets stages work on unrotated sensor pixels and only transform coordinates.
+ *
+ * <p>Boxes are {@code {x, y, w, h}} at {@code offset} in a float array and are transformed in
+ * place.
+ */
+public class FrameGeometry {
+
+    /** Sensor image width. */
+    public final int     width;
+    /** Sensor image height. */
+    public final int     height;
+    /** Clockwise rotation in degrees: 0, 90, 180 or 270. */
+    public final int     rotation;
+    /** Whether the displayed frame is mirrored after rotation. */
+    public final boolean mirror;
+
+    public FrameGeometry(int width, int height, int rotation, boolean mirror) {
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270)
+            throw new IllegalArgumentException("Unsupported rotation: " + rotation);
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.mirror = mirror;
+    }
+
+    /** Whether the displayed frame has its axes swapped relative to the sensor image. */
+    public boolean transposed() {
+        return rotation == 90 || rotation == 270;
+    }
+
+    public int displayWidth() {
+        return transposed() ? height : width;
+    }
+
+    public int displayHeight() {
+        return transposed() ? width : height;
+    }
+
+    /** Transforms a box from sensor to display coordinates. */
+    public void boxToDisplay(float[] box, int offset) {
+        float x = box[offset], y = box[offset + 1], w = box[offset + 2], h = box[offset + 3];
+        switch (rotation) {
+            case 90:
+                set(box, offset, height - y - h, x, h, w);
+                break;
+            case 180:
+                set(box, offset, width - x - w, height - y - h, w, h);
+                break;
+            case 270:
+                set(box, offset, y, width - x - w, h, w);
+                break;
+            default:
+                break;
+        }
+        if (mirror)
+            box[offset] = displayWidth() - box[offset] - box[offset + 2];
+    }
+
+    /** Transforms a box from display to sensor coordinates. */
+    public void boxToSensor(float[] box, int offset) {
+        if (mirror)
+            box[offset] = displayWidth() - box[offset] - box[offset + 2];
+        float x = box[offset], y = box[offset + 1], w = box[offset + 2], h = box[offset + 3];
+        switch (rotation) {
+            case 90:
+                set(box, offset, y, height - x - w, h, w);
+                break;
+            case 180:
+                set(box, offset, width - x - w, height - y - h, w, h);
+                break;
+            case 270:
+                set(box, offset, width - y - h, x, h, w);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Maps a display box to the sensor rectangle {@code {left, top, right, bottom}} covering it,
+     * widened to even coordinates so it can address 2x2 subsampled chroma, and clipped to the
+     * image. Returns false, leaving {@code rect} unspecified, if nothing of the box is inside.
+     */
+    public boolean sensorRect(float[] box, int[] rect) {
+        float[] sensor = box.clone();
+        boxToSensor(sensor, 0);
+        rect[0] = clampEven(Math.floor(sensor[0] / 2), width);
+        rect[1] = clampEven(Math.floor(sensor[1] / 2), height);
+        rect[2] = clampEven(Math.ceil((sensor[0] + sensor[2]) / 2), width);
+        rect[3] = clampEven(Math.ceil((sensor[1] + sensor[3]) / 2), height);
+        return rect[2] > rect[0] && rect[3] > rect[1];
+    }
+
+    private static int clampEven(double half, int limit) {
+        return (int) Math.max(0, Math.min(limit, 2 * half));
+    }
+
+    private static void set(float[] box, int offset, float x, float y, float w, float h) {
+        box[offset] = x;
+        box[offset + 1] = y;
+        box[offset + 2] = w;
+        box[offset + 3] = h;
+    }
+}
@@ -0,0 +1,119 @@
+package bo.edu.cba.faceid;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Bounded hand-off queue between pipeline stages. When full, {@link #offer} applies the
+ * configured {@link DropPolicy}; every item that does not reach a consumer is passed to the
+ * drop callback so it can release its resources.
+ */
+public class FrameQueue<T> {
+
+    public enum DropPolicy {
+        /** Evict the oldest queued item to make room: consumers always see the latest frames. */
+        DROP_OLDEST,
+        /** Reject the new item and keep the queued ones. */
+        DROP_NEWEST,
+        /** Block the producer until a consumer makes room. */
+        BLOCK
+    }
+
+    private final ArrayDeque<T> mItems;
+    private final int           mCapacity;
+    private final DropPolicy    mPolicy;
+    private final Consumer<T>   mOnDrop;
+    private long                mDropped;
+    private boolean             mClosed;
+
+    public FrameQueue(int capacity, DropPolicy policy, Consumer<T> onDrop) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+        mItems = new ArrayDeque<>(capacity);
+        mCapacity = capacity;
+        mPolicy = policy;
+        mOnDrop = onDrop;
+    }
+
+    /**
+     * Queues {@code item}. Returns false if it was dropped, either by the policy or because the
+     * queue is closed; the drop callback has then already been invoked for it.
+     */
+    public boolean offer(T item) throws InterruptedException {
+        T evicted = null;
+        synchronized (this) {
+            if (!mClosed && mItems.size() >= mCapacity) {
+                switch (mPolicy) {
+                    case DROP_OLDEST:
+                        evicted = mItems.pollFirst();
+                        mDropped++;
+                        break;
+                    case DROP_NEWEST:
+                        mDropped++;
+                        evicted = item;
+                        item = null;
+                        break;
+                    case BLOCK:
+                        while (!mClosed && mItems.size() >= mCapacity) {
+                            wait();
+                        }
+                        break;
+                }
+            }
+            if (item != null && mClosed) {
+                evicted = item;
+                item = null;
+            }
+            if (item != null) {
+                mItems.addLast(item);
+                notifyAll();
+            }
+        }
+        if (evicted != null)
+            mOnDrop.accept(evicted);
+        return item != null;
+    }
+
+    /**
+     * Waits for the next item. Returns null once the queue has been closed.
+     */
+    public synchronized T take() throws InterruptedException {
+        while (!mClosed && mItems.isEmpty()) {
+            wait();
+        }
+        if (mClosed)
+            return null;
+        T item = mItems.pollFirst();
+        notifyAll();
+        return item;
+    }
+
+    public synchronized int size() {
+        return mItems.size();
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /** Number of items dropped by the policy since creation. */
+    public synchronized long dropped() {
+        return mDropped;
+    }
+
+    /**
+     * Rejects further items, wakes blocked producers and consumers, and drops whatever is queued.
+     */
+    public void close() {
+        ArrayDeque<T> remaining;
+        synchronized (this) {
+            mClosed = true;
+            remaining = new ArrayDeque<>(mItems);
+            mItems.clear();
+            notifyAll();
+        }
+        for (T item : remaining) {
+            mOnDrop.accept(item);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package bo.edu.cba.faceid;
+
+import java.util.Arrays;
+
+/**
+ * {@link FaceGallery} that answers {@link #match} through an {@link HnswIndex} instead of the
+ * exhaustive scan. Registrations insert into the graph incrementally and removals mark nodes
+ * deleted; the graph is rebuilt once tombstones outnumber live nodes. Small galleries, or any
+ * gallery with {@link #setExact} enabled, fall back to the exact scan.
+ *
+ * <p>The normalized rows live only in the graph, so each vector is stored once; a replaced or
+ * removed row keeps its vector as a tombstone until the next rebuild.
+ */
+public class HnswFaceGallery extends FaceGallery {
+
+    public static final int DEFAULT_EXACT_THRESHOLD = 2048;
+
+    private static final int MIN_COMPACT_TOMBSTONES = 64;
+
+    private HnswIndex mIndex;
+    private int[]     mNodeOfRow;
+    private int[]     mRowOfNode = new int[0];
+    private int       mEfSearch = HnswIndex.DEFAULT_EF_SEARCH;
+    private int       mExactThreshold = DEFAULT_EXACT_THRESHOLD;
+    private boolean   mExact;
+
+    public HnswFaceGallery() {
+        this(DEFAULT_DIM);
+    }
+
+    public HnswFaceGallery(int dim) {
+        super(dim, false);
+        mIndex = new HnswIndex(dim);
+        mNodeOfRow = new int[capacity()];
+        Arrays.fill(mNodeOfRow, -1);
+    }
+
+    /**
+     * Recall/latency knob: size of the candidate list explored per query.
+     */
+    public synchronized void setEfSearch(int efSearch) {
+        mIndex.setEfSearch(efSearch);
+        mEfSearch = efSearch;
+    }
+
+    public synchronized int efSearch() {
+        return mEfSearch;
+    }
+
+    /**
+     * Galleries with at most this many identities are matched with the exact scan.
+     */
+    public synchronized void setExactThreshold(int exactThreshold) {
+        mExactThreshold = exactThreshold;
+    }
+
+    /**
+     * Forces the exact scan regardless of gallery size.
+     */
+    public synchronized void setExact(boolean exact) {
+        mExact = exact;
+    }
+
+    /** The vectors held by the graph, tombstones included. */
+    @Override
+    public synchronized long memoryBytes() {
+        return super.memoryBytes() + mIndex.vectorBytes();
+    }
+
+    @Override
+    public synchronized void put(String id, float[] feature) {
+        super.put(id, feature);
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized boolean remove(String id) {
+        boolean removed = super.remove(id);
+        if (removed)
+            compactIfNeeded();
+        return removed;
+    }
+
+    @Override
+    public synchronized float[] get(String id) {
+        int row = rowOf(id);
+        if (row < 0)
+            return null;
+        float[] feature = new float[dim()];
+        mIndex.copyVector(mNodeOfRow[row], feature, 0);
+        return feature;
+    }
+
+    @Override
+    public synchronized Match match(float[] probe) {
+        checkDim(probe);
+        if (mExact || size() <= mExactThreshold)
+            return exactMatch(probe);
+
+        float[] scores = new float[2];
+        int[] nodes = mIndex.search(probe, 2, scores);
+        if (nodes.length == 0)
+            return null;
+        String second = nodes.length > 1 ? idAt(mRowOfNode[nodes[1]]) : null;
+        return new Match(idAt(mRowOfNode[nodes[0]]), scores[0],
+                second, nodes.length > 1 ? scores[1] : Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Rebuilds the graph from the live rows, dropping all tombstones.
+     */
+    public synchronized void rebuild() {
+        HnswIndex old = mIndex;
+        mIndex = new HnswIndex(dim());
+        mIndex.setEfSearch(mEfSearch);
+        mRowOfNode = new int[Math.max(size(), 1)];
+        float[] feature = new float[dim()];
+        for (int row = 0; row < size(); row++) {
+            old.copyVector(mNodeOfRow[row], feature, 0);
+            insertRow(row, feature, 0);
+        }
+    }
+
+    @Override
+    void onRowWritten(int row, float[] feature, int offset) {
+        int old = mNodeOfRow[row];
+        if (old >= 0) {
+            mIndex.markDeleted(old);
+            mRowOfNode[old] = -1;
+        }
+        insertRow(row, feature, offset);
+    }
+
+    @Override
+    void onRowRemoved(int row) {
+        int node = mNodeOfRow[row];
+        mIndex.markDeleted(node);
+        mRowOfNode[node] = -1;
+        mNodeOfRow[row] = -1;
+    }
+
+    @Override
+    void onRowMoved(int from, int to) {
+        int node = mNodeOfRow[from];
+        mNodeOfRow[to] = node;
+        mNodeOfRow[from] = -1;
+        mRowOfNode[node] = to;
+    }
+
+    @Override
+    void onCapacityChanged(int rows) {
+        int old = mNodeOfRow.length;
+        mNodeOfRow = Arrays.copyOf(mNodeOfRow, rows);
+        Arrays.fill(mNodeOfRow, old, rows, -1);
+    }
+
+    @Override
+    void onCleared() {
+        mIndex = new HnswIndex(dim());
+        mIndex.setEfSearch(mEfSearch);
+        Arrays.fill(mNodeOfRow, -1);
+        mRowOfNode = new int[0];
+    }
+
+    /** The scan of {@link FaceGallery#match}, over the vectors of the graph. */
+    private Match exactMatch(float[] probe) {
+        int count = size();
+        if (count == 0)
+            return null;
+
+        int best = -1, second = -1;
+        float bestScore = Float.NEGATIVE_INFINITY, secondScore = Float.NEGATIVE_INFINITY;
+        for (int row = 0; row < count; row++) {
+            float dot = mIndex.dot(probe, mNodeOfRow[row]);
+            if (dot > bestScore) {
+                second = best;
+                secondScore = bestScore;
+                best = row;
+                bestScore = dot;
+            } else if (dot > secondScore) {
+                second = row;
+                secondScore = dot;
+            }
+        }
+
+        double norm = norm(probe, 0, dim());
+        float inv = norm > 0 ? (float) (1.0 / norm) : 0.f;
+        return new Match(idAt(best), bestScore * inv,
+                second >= 0 ? idAt(second) : null,
+                second >= 0 ? secondScore * inv : Double.NEGATIVE_INFINITY);
+    }
+
+    private void compactIfNeeded() {
+        if (mIndex.deletedCount() >= MIN_COMPACT_TOMBSTONES
+                && mIndex.deletedCount() > mIndex.size()) {
+            rebuild();
+        }
+    }
+
+    private void insertRow(int row, float[] feature, int offset) {
+        int node = mIndex.insert(feature, offset);
+        if (node >= mRowOfNode.length) {
+            mRowOfNode = Arrays.copyOf(mRowOfNode, Math.max(node + 1, mRowOfNode.length * 2));
+        }
+        mRowOfNode[node] = row;
+        mNodeOfRow[row] = node;
+    }
+}
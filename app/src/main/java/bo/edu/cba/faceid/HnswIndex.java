@@ -0,0 +1,426 @@
+package bo.edu.cba.faceid;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Hierarchical navigable small world graph over L2-normalized embeddings, scored by cosine
+ * similarity. Nodes are numbered in insertion order; deleted nodes stay in the graph as
+ * tombstones so it remains navigable, and are skipped in results.
+ *
+ * <p>Not thread-safe; callers serialize access.
+ */
+public class HnswIndex {
+
+    public static final int DEFAULT_M               = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 100;
+    public static final int DEFAULT_EF_SEARCH       = 64;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int    mDim;
+    private final int    mM;
+    private final int    mMaxM0;
+    private final int    mEfConstruction;
+    private int          mEfSearch;
+    private final double mLevelMult;
+    private final Random mRandom;
+
+    private float[]      mVectors;
+    private int[][][]    mLinks;
+    private boolean[]    mDeleted;
+    private int[]        mVisited;
+    private int          mVisitEpoch;
+    private int          mCount;
+    private int          mDeletedCount;
+    private int          mEntryPoint = -1;
+    private int          mMaxLevel = -1;
+
+    private final Heap   mCandidates = new Heap(false);
+    private final Heap   mResults = new Heap(true);
+
+    public HnswIndex(int dim) {
+        this(dim, DEFAULT_M, DEFAULT_EF_CONSTRUCTION, DEFAULT_EF_SEARCH, 42);
+    }
+
+    public HnswIndex(int dim, int m, int efConstruction, int efSearch, long seed) {
+        if (dim <= 0 || m < 2 || efConstruction < 1)
+            throw new IllegalArgumentException("Invalid HNSW parameters: dim=" + dim + " M=" + m
+                    + " efConstruction=" + efConstruction);
+        mDim = dim;
+        mM = m;
+        mMaxM0 = 2 * m;
+        mEfConstruction = Math.max(efConstruction, m);
+        mLevelMult = 1.0 / Math.log(m);
+        mRandom = new Random(seed);
+        setEfSearch(efSearch);
+
+        mVectors = new float[INITIAL_CAPACITY * dim];
+        mLinks = new int[INITIAL_CAPACITY][][];
+        mDeleted = new boolean[INITIAL_CAPACITY];
+        mVisited = new int[INITIAL_CAPACITY];
+    }
+
+    public int dim() {
+        return mDim;
+    }
+
+    /** Number of nodes in the graph, including deleted ones. */
+    public int nodeCount() {
+        return mCount;
+    }
+
+    public int deletedCount() {
+        return mDeletedCount;
+    }
+
+    public int size() {
+        return mCount - mDeletedCount;
+    }
+
+    public int efSearch() {
+        return mEfSearch;
+    }
+
+    /**
+     * Size of the dynamic candidate list used by {@link #search}. Larger values raise recall
+     * at the cost of latency.
+     */
+    public void setEfSearch(int efSearch) {
+        if (efSearch < 1)
+            throw new IllegalArgumentException("efSearch must be positive: " + efSearch);
+        mEfSearch = efSearch;
+    }
+
+    public boolean isDeleted(int node) {
+        return mDeleted[node];
+    }
+
+    public void markDeleted(int node) {
+        if (node < 0 || node >= mCount)
+            throw new IndexOutOfBoundsException("No node " + node);
+        if (!mDeleted[node]) {
+            mDeleted[node] = true;
+            mDeletedCount++;
+        }
+    }
+
+    /**
+     * Inserts {@code src[offset, offset + dim)} and returns its node number.
+     */
+    public int insert(float[] src, int offset) {
+        ensureCapacity(mCount + 1);
+        int node = mCount++;
+        int base = node * mDim;
+        System.arraycopy(src, offset, mVectors, base, mDim);
+        FaceGallery.normalize(mVectors, base, mDim);
+
+        int level = (int) (-Math.log(1.0 - mRandom.nextDouble()) * mLevelMult);
+        mLinks[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            mLinks[node][l] = new int[1 + maxLinks(l)];
+        }
+
+        if (mEntryPoint < 0) {
+            mEntryPoint = node;
+            mMaxLevel = level;
+            return node;
+        }
+
+        int entry = mEntryPoint;
+        for (int l = mMaxLevel; l > level; l--) {
+            entry = greedyClosest(mVectors, base, entry, l);
+        }
+
+        for (int l = Math.min(level, mMaxLevel); l >= 0; l--) {
+            searchLayer(mVectors, base, entry, mEfConstruction, l);
+            int count = mResults.size;
+            int[] found = new int[count];
+            float[] scores = new float[count];
+            for (int i = count - 1; i >= 0; i--) {
+                scores[i] = mResults.peekScore();
+                found[i] = mResults.pop();
+            }
+            entry = found[0];
+
+            int[] links = mLinks[node][l];
+            links[0] = selectNeighbors(base, found, scores, count, mM, links);
+            for (int i = 1; i <= links[0]; i++) {
+                connect(links[i], node, l);
+            }
+        }
+
+        if (level > mMaxLevel) {
+            mMaxLevel = level;
+            mEntryPoint = node;
+        }
+        return node;
+    }
+
+    /**
+     * Returns up to {@code k} live nodes closest to {@code query}, best first. Their cosine
+     * similarities are written to {@code scores}.
+     */
+    public int[] search(float[] query, int k, float[] scores) {
+        if (mEntryPoint < 0 || size() == 0)
+            return new int[0];
+
+        float[] q = Arrays.copyOf(query, mDim);
+        FaceGallery.normalize(q, 0, mDim);
+
+        int entry = mEntryPoint;
+        for (int l = mMaxLevel; l > 0; l--) {
+            entry = greedyClosest(q, 0, entry, l);
+        }
+        searchLayer(q, 0, entry, Math.max(mEfSearch, k), 0);
+
+        int live = 0;
+        int[] nodes = new int[mResults.size];
+        float[] sims = new float[mResults.size];
+        for (int i = mResults.size - 1; i >= 0; i--) {
+            sims[i] = mResults.peekScore();
+            nodes[i] = mResults.pop();
+        }
+        int[] result = new int[Math.min(k, nodes.length)];
+        for (int i = 0; i < nodes.length && live < result.length; i++) {
+            if (!mDeleted[nodes[i]]) {
+                if (scores != null)
+                    scores[live] = sims[i];
+                result[live++] = nodes[i];
+            }
+        }
+        return live == result.length ? result : Arrays.copyOf(result, live);
+    }
+
+    /** Copies the normalized vector of {@code node} to {@code dst} at {@code offset}. */
+    public void copyVector(int node, float[] dst, int offset) {
+        if (node < 0 || node >= mCount)
+            throw new IndexOutOfBoundsException("No node " + node);
+        System.arraycopy(mVectors, node * mDim, dst, offset, mDim);
+    }
+
+    /**
+     * Dot product of {@code query}, taken as is, with the normalized vector of {@code node},
+     * deleted or not.
+     */
+    public float dot(float[] query, int node) {
+        if (node < 0 || node >= mCount)
+            throw new IndexOutOfBoundsException("No node " + node);
+        return similarity(query, 0, node);
+    }
+
+    /** Bytes of vector data held, including spare capacity and deleted nodes. */
+    public long vectorBytes() {
+        return (long) mVectors.length * Float.BYTES;
+    }
+
+    private int maxLinks(int level) {
+        return level == 0 ? mMaxM0 : mM;
+    }
+
+    private float similarity(float[] q, int qOffset, int node) {
+        final float[] v = mVectors;
+        int base = node * mDim;
+        float dot = 0.f;
+        for (int k = 0; k < mDim; k++) {
+            dot += v[base + k] * q[qOffset + k];
+        }
+        return dot;
+    }
+
+    private int greedyClosest(float[] q, int qOffset, int entry, int level) {
+        int current = entry;
+        float best = similarity(q, qOffset, current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] links = mLinks[current][level];
+            for (int i = 1; i <= links[0]; i++) {
+                float s = similarity(q, qOffset, links[i]);
+                if (s > best) {
+                    best = s;
+                    current = links[i];
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /** Leaves the {@code ef} best nodes found on {@code level} in {@link #mResults}. */
+    private void searchLayer(float[] q, int qOffset, int entry, int ef, int level) {
+        if (++mVisitEpoch == Integer.MAX_VALUE) {
+            Arrays.fill(mVisited, 0);
+            mVisitEpoch = 1;
+        }
+        mCandidates.clear();
+        mResults.clear();
+
+        float s = similarity(q, qOffset, entry);
+        mVisited[entry] = mVisitEpoch;
+        mCandidates.push(entry, s);
+        mResults.push(entry, s);
+
+        while (mCandidates.size > 0) {
+            float candidateScore = mCandidates.peekScore();
+            if (mResults.size >= ef && candidateScore < mResults.peekScore())
+                break;
+            int candidate = mCandidates.pop();
+            if (level >= mLinks[candidate].length)
+                continue;
+            int[] links = mLinks[candidate][level];
+            for (int i = 1; i <= links[0]; i++) {
+                int neighbor = links[i];
+                if (mVisited[neighbor] == mVisitEpoch)
+                    continue;
+                mVisited[neighbor] = mVisitEpoch;
+                float ns = similarity(q, qOffset, neighbor);
+                if (mResults.size < ef || ns > mResults.peekScore()) {
+                    mCandidates.push(neighbor, ns);
+                    mResults.push(neighbor, ns);
+                    if (mResults.size > ef)
+                        mResults.pop();
+                }
+            }
+        }
+    }
+
+    /**
+     * Heuristic neighbour selection: a candidate is kept only if it is closer to the base node
+     * than to every neighbour already kept, then the list is topped up with the best of the
+     * rest. {@code sorted} must be ordered best first. Writes into {@code out[1..]} and returns
+     * the number of neighbours selected.
+     */
+    private int selectNeighbors(int base, int[] sorted, float[] scores, int count, int max, int[] out) {
+        int selected = 0;
+        boolean[] taken = new boolean[count];
+        for (int i = 0; i < count && selected < max; i++) {
+            int candidate = sorted[i];
+            int cBase = candidate * mDim;
+            boolean keep = true;
+            for (int j = 1; j <= selected; j++) {
+                if (similarity(mVectors, cBase, out[j]) > scores[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                out[++selected] = candidate;
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < count && selected < max; i++) {
+            if (!taken[i])
+                out[++selected] = sorted[i];
+        }
+        return selected;
+    }
+
+    private void connect(int node, int neighbor, int level) {
+        int[] links = mLinks[node][level];
+        int max = maxLinks(level);
+        if (links[0] < max) {
+            links[++links[0]] = neighbor;
+            return;
+        }
+
+        int count = links[0] + 1;
+        int base = node * mDim;
+        int[] sorted = new int[count];
+        float[] scores = new float[count];
+        for (int i = 0; i < links[0]; i++) {
+            sorted[i] = links[i + 1];
+        }
+        sorted[count - 1] = neighbor;
+        for (int i = 0; i < count; i++) {
+            scores[i] = similarity(mVectors, base, sorted[i]);
+        }
+        for (int i = 1; i < count; i++) {
+            int n = sorted[i];
+            float s = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < s) {
+                sorted[j + 1] = sorted[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            sorted[j + 1] = n;
+            scores[j + 1] = s;
+        }
+        links[0] = selectNeighbors(base, sorted, scores, count, max, links);
+    }
+
+    private void ensureCapacity(int nodes) {
+        if (nodes <= mLinks.length)
+            return;
+        int capacity = Math.max(nodes, mLinks.length * 2);
+        mVectors = Arrays.copyOf(mVectors, capacity * mDim);
+        mLinks = Arrays.copyOf(mLinks, capacity);
+        mDeleted = Arrays.copyOf(mDeleted, capacity);
+        mVisited = Arrays.copyOf(mVisited, capacity);
+    }
+
+    /** Binary heap of (node, score) pairs, ordered as a min- or max-heap by score. */
+    private static class Heap {
+        private final boolean mMin;
+        private int[]         mNodes = new int[64];
+        private float[]       mScores = new float[64];
+        int                   size;
+
+        Heap(boolean min) {
+            mMin = min;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        float peekScore() {
+            return mScores[0];
+        }
+
+        private boolean before(float a, float b) {
+            return mMin ? a < b : a > b;
+        }
+
+        void push(int node, float score) {
+            if (size == mNodes.length) {
+                mNodes = Arrays.copyOf(mNodes, size * 2);
+                mScores = Arrays.copyOf(mScores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(score, mScores[parent]))
+                    break;
+                mNodes[i] = mNodes[parent];
+                mScores[i] = mScores[parent];
+                i = parent;
+            }
+            mNodes[i] = node;
+            mScores[i] = score;
+        }
+
+        int pop() {
+            int top = mNodes[0];
+            int lastNode = mNodes[--size];
+            float lastScore = mScores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size)
+                    break;
+                if (child + 1 < size && before(mScores[child + 1], mScores[child]))
+                    child++;
+                if (!before(mScores[child], lastScore))
+                    break;
+                mNodes[i] = mNodes[child];
+                mScores[i] = mScores[child];
+                i = child;
+            }
+            mNodes[i] = lastNode;
+            mScores[i] = lastScore;
+            return top;
+        }
+    }
+}
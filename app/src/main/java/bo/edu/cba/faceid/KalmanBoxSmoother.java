@@ -0,0 +1,111 @@
+package bo.edu.cba.faceid;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.video.KalmanFilter;
+
+/**
+ * Constant-velocity Kalman filter over the box center and size of each face track.
+ * State is {@code [cx, cy, w, h, vcx, vcy, vw, vh]}, measurement is {@code [cx, cy, w, h]}.
+ */
+public class KalmanBoxSmoother implements FaceTracker.Smoother {
+
+    private static final int STATE_SIZE       = 8;
+    private static final int MEASUREMENT_SIZE = 4;
+
+    private final float mProcessNoise;
+    private final float mMeasurementNoise;
+
+    private static class State {
+        final KalmanFilter filter = new KalmanFilter(STATE_SIZE, MEASUREMENT_SIZE, 0, CvType.CV_32F);
+        final Mat          measurement = new Mat(MEASUREMENT_SIZE, 1, CvType.CV_32F);
+        final float[]      values = new float[STATE_SIZE];
+    }
+
+    public KalmanBoxSmoother() {
+        this(1e-2f, 1e-1f);
+    }
+
+    public KalmanBoxSmoother(float processNoise, float measurementNoise) {
+        mProcessNoise = processNoise;
+        mMeasurementNoise = measurementNoise;
+    }
+
+    @Override
+    public void start(FaceTracker.Track track) {
+        State state = new State();
+
+        Mat transition = Mat.eye(STATE_SIZE, STATE_SIZE, CvType.CV_32F);
+        for (int i = 0; i < MEASUREMENT_SIZE; i++) {
+            transition.put(i, i + MEASUREMENT_SIZE, 1.f);
+        }
+        state.filter.set_transitionMatrix(transition);
+        transition.release();
+
+        Mat measurementMatrix = Mat.eye(MEASUREMENT_SIZE, STATE_SIZE, CvType.CV_32F);
+        state.filter.set_measurementMatrix(measurementMatrix);
+        measurementMatrix.release();
+
+        Mat processNoise = scaledIdentity(STATE_SIZE, mProcessNoise);
+        state.filter.set_processNoiseCov(processNoise);
+        processNoise.release();
+        Mat measurementNoise = scaledIdentity(MEASUREMENT_SIZE, mMeasurementNoise);
+        state.filter.set_measurementNoiseCov(measurementNoise);
+        measurementNoise.release();
+        Mat errorCov = scaledIdentity(STATE_SIZE, 1.f);
+        state.filter.set_errorCovPost(errorCov);
+        errorCov.release();
+
+        state.values[0] = track.x + track.w / 2;
+        state.values[1] = track.y + track.h / 2;
+        state.values[2] = track.w;
+        state.values[3] = track.h;
+        Mat statePost = new Mat(STATE_SIZE, 1, CvType.CV_32F);
+        statePost.put(0, 0, state.values);
+        state.filter.set_statePost(statePost);
+        statePost.release();
+
+        track.state = state;
+    }
+
+    @Override
+    public void predict(FaceTracker.Track track) {
+        State state = (State) track.state;
+        Mat predicted = state.filter.predict();
+        apply(track, state, predicted);
+        predicted.release();
+    }
+
+    @Override
+    public void correct(FaceTracker.Track track, float x, float y, float w, float h) {
+        State state = (State) track.state;
+        state.measurement.put(0, 0, x + w / 2, y + h / 2, w, h);
+        Mat corrected = state.filter.correct(state.measurement);
+        apply(track, state, corrected);
+        corrected.release();
+    }
+
+    @Override
+    public void stop(FaceTracker.Track track) {
+        State state = (State) track.state;
+        if (state != null) {
+            state.measurement.release();
+            track.state = null;
+        }
+    }
+
+    private static void apply(FaceTracker.Track track, State state, Mat estimate) {
+        estimate.get(0, 0, state.values);
+        float w = Math.max(state.values[2], 1.f);
+        float h = Math.max(state.values[3], 1.f);
+        track.set(state.values[0] - w / 2, state.values[1] - h / 2, w, h);
+    }
+
+    private static Mat scaledIdentity(int size, float value) {
+        Mat m = new Mat(size, size, CvType.CV_32F);
+        Core.setIdentity(m, new Scalar(value));
+        return m;
+    }
+}
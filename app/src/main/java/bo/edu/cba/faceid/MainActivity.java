@@ -1,63 +1,91 @@
 package bo.edu.cba.faceid;
 
 import com.parse.ParseObject;
-import com.parse.ParseQuery;
 
 import org.opencv.android.CameraActivity;
 import org.opencv.android.CameraBridgeViewBase.CvCameraViewFrame;
+import org.opencv.android.CameraBridgeViewBase.CvCameraViewYuvFrame;
+import org.opencv.android.CameraGLSurfaceView;
+import org.opencv.android.FrameMetrics;
 import org.opencv.android.OpenCVLoader;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.Point;
-import org.opencv.core.Rect;
+import org.opencv.core.MatPool;
+import org.opencv.core.MatScope;
+import org.opencv.core.MatView;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.android.CameraBridgeViewBase.CvCameraViewListener2;
-import org.opencv.objdetect.FaceDetectorYN;
 import org.opencv.objdetect.FaceRecognizerSF;
-import org.opencv.imgproc.Imgproc;
 
 import android.app.AlertDialog;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.text.InputType;
 import android.util.Log;
+import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class MainActivity extends CameraActivity implements CvCameraViewListener2 {
+public class MainActivity extends CameraActivity implements CvCameraViewListener2,
+        CameraGLSurfaceView.CameraFrameListener {
 
     private static final String    TAG  = "OCVSample::Activity";
 
-    private static final Scalar    BOX_COLOR         = new Scalar(0, 255, 0);
-    private static final Scalar    MATCH_COLOR       = new Scalar(0, 255, 0);
     private static final int       NUM_REGISTRATION_SAMPLES = 5;
+    private static final double    COS_THRESHOLD     = 0.363;
+    private static final boolean   ANN_GALLERY       = false;
+    private static final String    PREFS_SYNC        = "face_sync";
+    private static final String    KEY_LAST_SYNC     = "last_sync";
+    private static final int       FRAME_QUEUE_DEPTH = 2;
+    private static final FrameQueue.DropPolicy DROP_POLICY = FrameQueue.DropPolicy.DROP_OLDEST;
+    private static final int       RECOGNITION_THREADS = 2;
+    private static final boolean   METRICS_LOGCAT    = false;
+    private static final boolean   METRICS_OVERLAY   = false;
+    private static final boolean   METRICS_FILE      = false;
+    private static final boolean   YUV_DETECTION     = true;
+    private static final boolean   BATCH_EMBEDDING   = true;
+    private static final boolean   ADAPTIVE_DETECTION = true;
+    private static final int       FULL_SCAN_INTERVAL = 10;
+    /** Skip detection while the scene is static and nobody is in view. */
+    private static final boolean   MOTION_GATING     = true;
+    /**
+     * Draw the preview from the camera texture; processing gets a copy downscaled on the GPU to
+     * at most GL_FRAME_WIDTH pixels wide.
+     */
+    private static final boolean   GL_PREVIEW        = false;
+    private static final int       GL_FRAME_WIDTH    = 640;
+    /** Report Mats of scopes that are never closed, with the stack that created them. */
+    private static final boolean   MAT_LEAK_TRACKING = false;
 
-    private Mat                    mRgba;
-    private Mat                    mBgr;
-    private Mat                    mBgrScaled;
-    private Size                   mInputSize = null;
     private final float            mScale = 2.f;
-    private FaceDetectorYN         mFaceDetector;
-    private FaceRecognizerSF       mFaceRecognizer;
-    private Mat                    mFaces;
-    private final HashMap<String, Mat> mRegisteredFaces = new HashMap<>();
+    private FaceModels             mModels;
+    private volatile RecognitionPipeline mPipeline;
+    private final FaceGallery      mGallery = ANN_GALLERY ? new HnswFaceGallery() : new QuantizedFaceGallery();
     private final List<Mat>        registrationFeatures = new ArrayList<>();
+    private final ExecutorService  mIoExecutor = Executors.newSingleThreadExecutor();
+    private FaceDao                mFaceDao;
+    private FaceSync               mFaceSync;
+    private SharedPreferences      mSyncPrefs;
+    private final FrameMetrics     mMetrics = new FrameMetrics();
+    private FrameMetrics.FileExporter mMetricsFile;
 
     private CameraBridgeViewBase   mOpenCvCameraView;
+    private CameraGLSurfaceView    mGlCameraView;
+    private FaceOverlayView        mFaceOverlay;
     private int mCameraId = CameraBridgeViewBase.CAMERA_ID_BACK;
 
     @Override
@@ -66,23 +94,48 @@ public class MainActivity extends CameraActivity implements CvCameraViewListener
 
         if (OpenCVLoader.initLocal()) {
             Log.i(TAG, "OpenCV loaded successfully");
+            if (!MatView.isZeroCopySupported())
+                Log.w(TAG, "MatView cannot wrap Mat data on this runtime, views copy it");
+            if (MAT_LEAK_TRACKING) {
+                MatScope.setDebug(true);
+                MatScope.setLeakListener((bytes, tracked) -> Log.w(TAG, "Leaked Mat of " + bytes + " bytes", tracked));
+            }
         } else {
             Log.e(TAG, "¡La inicialización de OpenCV falló!");
             Toast.makeText(this, "¡La inicialización de OpenCV falló!", Toast.LENGTH_LONG).show();
             return;
         }
 
-        loadFaceModels();
+        mFaceDao = FaceDatabase.getInstance(this).faceDao();
+        mSyncPrefs = getSharedPreferences(PREFS_SYNC, MODE_PRIVATE);
+        mFaceSync = new FaceSync(new ParseFaceSource(mGallery.dim()), mGallery);
+
+        mModels = FaceModels.getInstance(this);
+        mModels.ready().whenComplete((ignored, e) -> {
+            if (e != null) {
+                runOnUiThread(() -> Toast.makeText(this, "No se pudieron cargar los modelos de rostro.", Toast.LENGTH_LONG).show());
+            }
+        });
         loadData();
 
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
         setContentView(R.layout.activity_main);
 
-        mOpenCvCameraView = findViewById(R.id.camera_view);
-        mOpenCvCameraView.setVisibility(CameraBridgeViewBase.VISIBLE);
-        mOpenCvCameraView.setCameraIndex(mCameraId);
-        mOpenCvCameraView.setCvCameraViewListener(this);
+        if (GL_PREVIEW) {
+            findViewById(R.id.camera_view).setVisibility(View.GONE);
+            mGlCameraView = findViewById(R.id.gl_camera_view);
+            mGlCameraView.setVisibility(View.VISIBLE);
+            mGlCameraView.setCameraIndex(mCameraId);
+            mGlCameraView.setCameraFrameListener(this, GL_FRAME_WIDTH);
+        } else {
+            mOpenCvCameraView = findViewById(R.id.camera_view);
+            mOpenCvCameraView.setVisibility(CameraBridgeViewBase.VISIBLE);
+            mOpenCvCameraView.setCameraIndex(mCameraId);
+            mOpenCvCameraView.setCvCameraViewListener(this);
+        }
+        mFaceOverlay = findViewById(R.id.face_overlay);
+        setupMetrics();
 
         Button switchCameraButton = findViewById(R.id.switch_camera_button);
         switchCameraButton.setOnClickListener(v -> swapCamera());
@@ -91,75 +144,104 @@ public class MainActivity extends CameraActivity implements CvCameraViewListener
         registerButton.setOnClickListener(v -> startRegistrationProcess());
 
         Button loadDataButton = findViewById(R.id.button_load_data);
-        loadDataButton.setOnClickListener(v -> loadData());
+        loadDataButton.setOnClickListener(v -> syncData());
     }
 
-    private String getPathFromRawResource(int resourceId, String filename) {
-        File file = new File(getCacheDir(), filename);
-        if (!file.exists()) {
-            try (InputStream is = getResources().openRawResource(resourceId);
-                 FileOutputStream os = new FileOutputStream(file)) {
-                byte[] buffer = new byte[4096];
-                int read;
-                while ((read = is.read(buffer)) != -1) {
-                    os.write(buffer, 0, read);
-                }
+    private void setupMetrics() {
+        // Nothing reads the metrics unless one of the exporters is on.
+        mMetrics.setEnabled(METRICS_LOGCAT || METRICS_FILE || METRICS_OVERLAY);
+        if (METRICS_LOGCAT) {
+            mMetrics.addExporter(new FrameMetrics.LogcatExporter());
+        }
+        if (METRICS_FILE) {
+            try {
+                mMetricsFile = new FrameMetrics.FileExporter(new File(getExternalFilesDir(null), "metrics.csv"));
+                mMetrics.addExporter(mMetricsFile);
             } catch (IOException e) {
-                Log.e(TAG, "Failed to load model from raw resource: " + e.getMessage());
-                return null;
+                Log.e(TAG, "Failed to open metrics file", e);
             }
         }
-        return file.getAbsolutePath();
+        if (mGlCameraView != null) {
+            mGlCameraView.setFrameMetrics(mMetrics);
+            return;
+        }
+        mOpenCvCameraView.setFrameMetrics(mMetrics);
+        if (METRICS_OVERLAY) {
+            mOpenCvCameraView.enableMetricsOverlay();
+        }
     }
 
-    private void loadFaceModels() {
-        String fdModelPath = getPathFromRawResource(R.raw.face_detection_yunet_2023mar, "face_detection_yunet_2023mar.onnx");
-        if (fdModelPath != null) {
-            mFaceDetector = FaceDetectorYN.create(fdModelPath, "", new Size(320, 320));
-            Log.i(TAG, "FaceDetectorYN initialized successfully!");
-        } else {
-            Log.e(TAG, "Failed to create FaceDetectorYN!");
+    /**
+     * Computes the feature of the face in the latest detected frame into {@code feature}, provided
+     * exactly one face was found. Returns the number of faces in that frame.
+     */
+    private int latestFaceFeature(Mat feature) {
+        FaceRecognizerSF recognizer = mModels.recognizer();
+        RecognitionPipeline pipeline = mPipeline;
+        if (recognizer == null || pipeline == null) {
+            return 0;
         }
-
-        String frModelPath = getPathFromRawResource(R.raw.face_recognition_sface_2021dec, "face_recognition_sface_2021dec.onnx");
-        if(frModelPath != null) {
-            mFaceRecognizer = FaceRecognizerSF.create(frModelPath, "");
-            Log.i(TAG, "FaceRecognizerSF initialized successfully!");
-        } else {
-            Log.e(TAG, "Failed to create FaceRecognizerSF!");
+        try (RecognitionPipeline.Frame frame = pipeline.acquireLatest()) {
+            if (frame == null || frame.faces().empty()) {
+                return 0;
+            }
+            int faces = frame.faces().rows();
+            if (faces == 1) {
+                try (MatScope scope = MatScope.open()) {
+                    Mat alignedFace = scope.acquire((int) FaceBatchEmbedder.INPUT_SIZE.height,
+                            (int) FaceBatchEmbedder.INPUT_SIZE.width, CvType.CV_8UC3);
+                    frame.alignCrop(recognizer, 0, alignedFace);
+                    recognizer.feature(alignedFace, feature);
+                }
+            }
+            return faces;
         }
     }
 
+    /** A feature Mat from the UI thread's pool, to be handed back with {@link #recycleFeature}. */
+    private Mat borrowFeature() {
+        return MatPool.local().acquire(1, mGallery.dim(), CvType.CV_32F);
+    }
+
+    private static void recycleFeature(Mat feature) {
+        MatPool.local().recycle(feature);
+    }
+
     private void startRegistrationProcess() {
-        if (mFaceRecognizer == null || mFaces == null || mFaces.empty()) {
+        final Mat currentFeature = borrowFeature();
+        int faces = latestFaceFeature(currentFeature);
+        if (faces == 0) {
+            recycleFeature(currentFeature);
             Toast.makeText(this, "No se detectó ningún rostro para iniciar el registro.", Toast.LENGTH_SHORT).show();
             return;
         }
-        if (mFaces.rows() > 1) {
+        if (faces > 1) {
+            recycleFeature(currentFeature);
             Toast.makeText(this, "Se detectaron múltiples rostros. Por favor, asegúrese de que solo haya uno.", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        final Mat currentFeature = new Mat();
-        Mat alignedFace = new Mat();
-        mFaceRecognizer.alignCrop(mBgr, mFaces.row(0), alignedFace);
-        mFaceRecognizer.feature(alignedFace, currentFeature);
-        alignedFace.release();
-
-        String matchedName = findMatchingFace(currentFeature);
-        currentFeature.release();
-
-        if (matchedName != null) {
-            Toast.makeText(this, "Este rostro parece ya estar registrado como '" + matchedName + "'.", Toast.LENGTH_LONG).show();
-            return;
-        }
+        float[] probe = new float[mGallery.dim()];
+        currentFeature.get(0, 0, probe);
+        recycleFeature(currentFeature);
 
-        startGuidedRegistration();
+        // A scan of a large gallery is kept off the UI thread.
+        CompletableFuture.supplyAsync(() -> findMatchingFace(probe)).whenComplete((matchedName, e) -> runOnUiThread(() -> {
+            if (e != null) {
+                Log.e(TAG, "Error al buscar el rostro en la galería", e);
+                return;
+            }
+            if (matchedName != null) {
+                Toast.makeText(this, "Este rostro parece ya estar registrado como '" + matchedName + "'.", Toast.LENGTH_LONG).show();
+                return;
+            }
+            startGuidedRegistration();
+        }));
     }
 
     private void startGuidedRegistration() {
         for (Mat feature : registrationFeatures) {
-            feature.release();
+            recycleFeature(feature);
         }
         registrationFeatures.clear();
         captureStep(0);
@@ -183,18 +265,14 @@ public class MainActivity extends CameraActivity implements CvCameraViewListener
                 .setTitle("Registrar Nuevo Rostro")
                 .setMessage(instructions[step])
                 .setPositiveButton("Capturar", (dialog, which) -> {
-                    if (mFaces == null || mFaces.empty() || mFaces.rows() > 1) {
+                    Mat feature = borrowFeature();
+                    if (latestFaceFeature(feature) != 1) {
+                        recycleFeature(feature);
                         Toast.makeText(this, "Por favor, asegúrese de que solo un rostro esté claramente visible.", Toast.LENGTH_SHORT).show();
                         captureStep(step);
                         return;
                     }
-
-                    Mat alignedFace = new Mat();
-                    mFaceRecognizer.alignCrop(mBgr, mFaces.row(0), alignedFace);
-                    Mat feature = new Mat();
-                    mFaceRecognizer.feature(alignedFace, feature);
                     registrationFeatures.add(feature);
-                    alignedFace.release();
 
                     Toast.makeText(this, "¡Captura " + (step + 1) + " exitosa!", Toast.LENGTH_SHORT).show();
 
@@ -202,7 +280,7 @@ public class MainActivity extends CameraActivity implements CvCameraViewListener
                 })
                 .setNegativeButton("Cancelar", (dialog, which) -> {
                     for (Mat f : registrationFeatures) {
-                        f.release();
+                        recycleFeature(f);
                     }
                     registrationFeatures.clear();
                     dialog.cancel();
@@ -212,7 +290,7 @@ public class MainActivity extends CameraActivity implements CvCameraViewListener
     }
 
     private void processAndSaveTemplate() {
-        Mat averagedFeature = new Mat();
+        Mat averagedFeature = borrowFeature();
         registrationFeatures.get(0).copyTo(averagedFeature);
 
         for (int i = 1; i < registrationFeatures.size(); i++) {
@@ -232,7 +310,7 @@ public class MainActivity extends CameraActivity implements CvCameraViewListener
             String name = input.getText().toString().trim();
             if (name.isEmpty()) {
                 Toast.makeText(this, "El nombre no puede estar vacío.", Toast.LENGTH_SHORT).show();
-            } else if (mRegisteredFaces.containsKey(name)) {
+            } else if (mGallery.contains(name)) {
                 Toast.makeText(this, "El nombre '" + name + "' ya existe.", Toast.LENGTH_LONG).show();
             } else {
                 float[] featureArray = new float[averagedFeature.cols() * averagedFeature.rows()];
@@ -240,7 +318,7 @@ public class MainActivity extends CameraActivity implements CvCameraViewListener
 
                 addUserToDatabase(name, featureArray);
 
-                mRegisteredFaces.put(name, averagedFeature.clone());
+                mGallery.put(name, featureArray);
                 Toast.makeText(this, "Rostro de '" + name + "' registrado exitosamente.", Toast.LENGTH_LONG).show();
             }
         });
@@ -249,9 +327,9 @@ public class MainActivity extends CameraActivity implements CvCameraViewListener
 
         AlertDialog dialog = builder.create();
         dialog.setOnDismissListener(d -> {
-            averagedFeature.release();
+            recycleFeature(averagedFeature);
             for (Mat feature : registrationFeatures) {
-                feature.release();
+                recycleFeature(feature);
             }
             registrationFeatures.clear();
         });
@@ -259,38 +337,31 @@ public class MainActivity extends CameraActivity implements CvCameraViewListener
     }
 
 
-    private String findMatchingFace(Mat currentFeature) {
-        if (mRegisteredFaces.isEmpty()) {
+    private String findMatchingFace(float[] probe) {
+        if (mGallery.isEmpty()) {
             return null;
         }
 
-        String bestMatchName = null;
-        double maxCosineScore = 0.0;
-        double cosThreshold = 0.363;
-
-        for (Map.Entry<String, Mat> entry : mRegisteredFaces.entrySet()) {
-            double cosScore = mFaceRecognizer.match(entry.getValue(), currentFeature, FaceRecognizerSF.FR_COSINE);
-
-            if (cosScore > cosThreshold && cosScore > maxCosineScore) {
-                maxCosineScore = cosScore;
-                bestMatchName = entry.getKey();
-            }
+        FaceGallery.Match match = mGallery.match(probe);
+        if (match == null || match.bestScore <= COS_THRESHOLD) {
+            return null;
         }
-        return bestMatchName;
+        return match.bestId;
     }
 
     private void addUserToDatabase(String name, float[] featureArray) {
-        List<Double> featureList = new ArrayList<>();
-        for (float v : featureArray) {
-            featureList.add((double) v);
-        }
-
-        ParseObject user = new ParseObject("UserFace");
-        user.put("name", name);
-        user.put("faceEmbedding", featureList);
+        ParseObject user = new ParseObject(ParseFaceSource.CLASS_NAME);
+        user.put(ParseFaceSource.KEY_NAME, name);
+        user.put(ParseFaceSource.KEY_EMBEDDING, EmbeddingCodec.encode(featureArray));
         user.saveInBackground(e -> {
             if (e == null) {
                 Log.d(TAG, "Usuario '" + name + "' guardado en Back4App.");
+                FaceEntity face = new FaceEntity(user.getObjectId(), name, EmbeddingCodec.encode(featureArray),
+                        ParseFaceSource.updatedAt(user));
+                mIoExecutor.execute(() -> {
+                    mFaceSync.track(face.objectId, face.name);
+                    mFaceDao.upsert(face);
+                });
             } else {
                 Log.e(TAG, "Error al guardar el usuario en Back4App", e);
             }
@@ -298,37 +369,59 @@ public class MainActivity extends CameraActivity implements CvCameraViewListener
     }
 
     private void loadData() {
-        ParseQuery<ParseObject> query = ParseQuery.getQuery("UserFace");
-        query.findInBackground((users, e) -> {
-            if (e == null) {
-                for (Mat mat : mRegisteredFaces.values()) {
-                    mat.release();
-                }
-                mRegisteredFaces.clear();
-
-                for (ParseObject user : users) {
-                    String name = user.getString("name");
-                    List<Double> featureList = user.getList("faceEmbedding");
-                    if (name != null && featureList != null) {
-                        float[] featureArray = new float[featureList.size()];
-                        for (int i = 0; i < featureList.size(); i++) {
-                            featureArray[i] = featureList.get(i).floatValue();
-                        }
-
-                        Mat faceFeature = new Mat(1, featureArray.length, CvType.CV_32F);
-                        faceFeature.put(0, 0, featureArray);
-                        mRegisteredFaces.put(name, faceFeature);
+        mIoExecutor.execute(() -> {
+            List<FaceEntity> faces = mFaceDao.getAll();
+            float[] featureArray = new float[mGallery.dim()];
+            for (FaceEntity face : faces) {
+                try {
+                    if (EmbeddingCodec.dim(face.embedding) == featureArray.length) {
+                        EmbeddingCodec.decode(face.embedding, featureArray, 0);
+                        mGallery.put(face.name, featureArray);
+                        mFaceSync.track(face.objectId, face.name);
                     }
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Embedding local inválido para '" + face.name + "'", e);
                 }
-                Toast.makeText(this, mRegisteredFaces.size() + " rostro(s) registrado(s) cargado(s) desde la nube.", Toast.LENGTH_SHORT).show();
-            } else {
+            }
+            runOnUiThread(() -> {
+                Toast.makeText(this, mGallery.size() + " rostro(s) registrado(s) cargado(s) desde el dispositivo.", Toast.LENGTH_SHORT).show();
+                syncData();
+            });
+        });
+    }
+
+    private void syncData() {
+        mIoExecutor.execute(() -> {
+            FaceSync.Result result;
+            try {
+                result = mFaceSync.sync(mSyncPrefs.getLong(KEY_LAST_SYNC, 0));
+            } catch (Exception e) {
                 Log.e(TAG, "Error al cargar los usuarios desde Back4App", e);
+                return;
+            }
+
+            List<FaceEntity> changed = new ArrayList<>(result.upserted.size());
+            for (FaceSync.Record record : result.upserted) {
+                changed.add(new FaceEntity(record.objectId, record.name, EmbeddingCodec.encode(record.feature),
+                        record.updatedAt));
+            }
+            mFaceDao.upsert(changed);
+            if (!result.deleted.isEmpty()) {
+                mFaceDao.deleteByIds(result.deleted);
             }
+            mSyncPrefs.edit().putLong(KEY_LAST_SYNC, result.highWater).apply();
+
+            int count = changed.size() + result.deleted.size();
+            runOnUiThread(() -> Toast.makeText(this, count + " rostro(s) actualizado(s) desde la nube.", Toast.LENGTH_SHORT).show());
         });
     }
 
     private void swapCamera() {
         mCameraId = mCameraId == CameraBridgeViewBase.CAMERA_ID_BACK ? CameraBridgeViewBase.CAMERA_ID_FRONT : CameraBridgeViewBase.CAMERA_ID_BACK;
+        if (mGlCameraView != null) {
+            mGlCameraView.setCameraIndex(mCameraId);
+            return;
+        }
         mOpenCvCameraView.disableView();
         mOpenCvCameraView.setCameraIndex(mCameraId);
         mOpenCvCameraView.enableView();
@@ -339,6 +432,8 @@ public class MainActivity extends CameraActivity implements CvCameraViewListener
         super.onPause();
         if (mOpenCvCameraView != null)
             mOpenCvCameraView.disableView();
+        if (mGlCameraView != null)
+            mGlCameraView.onPause();
     }
 
     @Override
@@ -346,6 +441,8 @@ public class MainActivity extends CameraActivity implements CvCameraViewListener
         super.onResume();
         if (mOpenCvCameraView != null)
             mOpenCvCameraView.enableView();
+        if (mGlCameraView != null)
+            mGlCameraView.onResume();
     }
 
     @Override
@@ -356,88 +453,123 @@ public class MainActivity extends CameraActivity implements CvCameraViewListener
     @Override
     public void onDestroy() {
         super.onDestroy();
-        mOpenCvCameraView.disableView();
+        if (mOpenCvCameraView != null)
+            mOpenCvCameraView.disableView();
+        if (mGlCameraView != null)
+            mGlCameraView.disableView();
+        mIoExecutor.shutdown();
+        if (mMetricsFile != null) {
+            mMetricsFile.close();
+        }
     }
 
     @Override
     public void onCameraViewStarted(int width, int height) {
-        mRgba = new Mat();
-        mBgr = new Mat();
-        mBgrScaled = new Mat();
-        mFaces = new Mat();
+        // The texture preview sets the geometry from each processed frame instead.
+        if (mOpenCvCameraView != null)
+            mFaceOverlay.setFrameGeometry(width, height, mOpenCvCameraView.getFrameScale());
+    }
+
+    /**
+     * Starts the pipeline once the models are ready. Called on the camera thread.
+     * {@code ReplayBenchmarkTest.config()} mirrors this configuration.
+     */
+    private void startPipelineIfReady() {
+        if (mModels.isReady()) {
+            RecognitionPipeline.Config config = new RecognitionPipeline.Config();
+            config.frameQueueDepth = FRAME_QUEUE_DEPTH;
+            config.dropPolicy = DROP_POLICY;
+            config.recognitionThreads = RECOGNITION_THREADS;
+            // Texture preview frames are already downscaled for processing.
+            config.scale = GL_PREVIEW ? 1.f : mScale;
+            config.cosThreshold = COS_THRESHOLD;
+            config.metrics = mMetrics;
+            config.adaptiveDetection = ADAPTIVE_DETECTION;
+            config.fullScanInterval = FULL_SCAN_INTERVAL;
+            config.motionSubtractor = MOTION_GATING ? RecognitionPipeline.MOG2 : null;
+            RecognitionPipeline pipeline = new RecognitionPipeline(config, mModels.detector(),
+                    mModels.recognizerFactory(), BATCH_EMBEDDING ? mModels.embedderFactory() : null, mGallery);
+            pipeline.start();
+            mPipeline = pipeline;
+        }
     }
 
     @Override
     public void onCameraViewStopped() {
-        mRgba.release();
-        mBgr.release();
-        mBgrScaled.release();
-        mFaces.release();
-        for(Mat mat : mRegisteredFaces.values()) {
-            mat.release();
+        if (mPipeline != null) {
+            mPipeline.stop();
+            mPipeline = null;
         }
         for(Mat mat : registrationFeatures) {
             mat.release();
         }
     }
 
-    private void visualizeAndVerify(Mat rgba, Mat faces) {
-        if (mFaceRecognizer == null || faces.empty()) {
-            return;
+    /**
+     * Hands the frame's YUV planes to the pipeline, when the camera exposes them, so detection
+     * does not depend on the full-resolution RGBA conversion. Returns false otherwise.
+     */
+    private boolean submitYuv(CvCameraViewFrame inputFrame, boolean mirror) {
+        if (!YUV_DETECTION || !(inputFrame instanceof CvCameraViewYuvFrame)) {
+            return false;
         }
-
-        for (int i = 0; i < faces.rows(); i++) {
-            float[] faceData = new float[faces.cols() * faces.channels()];
-            faces.get(i, 0, faceData);
-
-            Rect box = new Rect(Math.round(mScale*faceData[0]), Math.round(mScale*faceData[1]),
-                    Math.round(mScale*faceData[2]), Math.round(mScale*faceData[3]));
-            Imgproc.rectangle(rgba, box, BOX_COLOR, 2);
-
-            String identifiedName = null;
-
-            if (!mRegisteredFaces.isEmpty()) {
-                Mat alignedFace = new Mat();
-                mFaceRecognizer.alignCrop(mBgr, faces.row(i), alignedFace);
-                Mat currentFeature = new Mat();
-                mFaceRecognizer.feature(alignedFace, currentFeature);
-
-                identifiedName = findMatchingFace(currentFeature);
-
-                currentFeature.release();
-                alignedFace.release();
-            }
-
-            if (identifiedName != null) {
-                Imgproc.putText(rgba, identifiedName, new Point(box.x, box.y - 10), Imgproc.FONT_HERSHEY_SIMPLEX, 0.9, MATCH_COLOR, 2);
-            }
+        CvCameraViewYuvFrame yuvFrame = (CvCameraViewYuvFrame) inputFrame;
+        Mat y = yuvFrame.yPlane();
+        Mat uv = yuvFrame.uvPlane();
+        if (y == null || uv == null) {
+            return false;
         }
+        mPipeline.submitYuv(y, uv, yuvFrame.yuvToBgrCode(), yuvFrame.rotation(), mirror);
+        return true;
     }
 
     @Override
     public Mat onCameraFrame(CvCameraViewFrame inputFrame) {
-        mRgba = inputFrame.rgba();
-
-        if (mCameraId == CameraBridgeViewBase.CAMERA_ID_FRONT) {
-            Core.flip(mRgba, mRgba, 1);
+        // Owned by the camera view, which reuses it for the next frame.
+        Mat rgba = inputFrame.rgba();
+        boolean mirror = mCameraId == CameraBridgeViewBase.CAMERA_ID_FRONT;
+
+        if (mirror) {
+            long start = mMetrics.start();
+            Core.flip(rgba, rgba, 1);
+            mMetrics.end("app.flip", start);
         }
 
-        if (mFaceDetector == null) {
-            return mRgba;
+        if (mPipeline == null) {
+            startPipelineIfReady();
+            if (mPipeline == null) {
+                return rgba;
+            }
         }
 
-        Size inputSize = new Size(Math.round(mRgba.cols()/mScale), Math.round(mRgba.rows()/mScale));
-        if (mInputSize == null || !mInputSize.equals(inputSize)) {
-            mInputSize = inputSize;
-            mFaceDetector.setInputSize(mInputSize);
+        if (!submitYuv(inputFrame, mirror)) {
+            mPipeline.submit(rgba);
         }
+        mFaceOverlay.setResults(mPipeline.latestResults());
 
-        Imgproc.cvtColor(mRgba, mBgr, Imgproc.COLOR_RGBA2BGR);
-        Imgproc.resize(mBgr, mBgrScaled, mInputSize);
+        return rgba;
+    }
 
-        mFaceDetector.detect(mBgrScaled, mFaces);
-        visualizeAndVerify(mRgba, mFaces);
+    /**
+     * Frame callback of the texture preview, on the GL thread. The preview is already on screen,
+     * so only the downscaled copy is submitted and the overlay updated.
+     */
+    @Override
+    public void onCameraFrame(Mat rgba) {
+        if (mPipeline == null) {
+            startPipelineIfReady();
+            if (mPipeline == null) {
+                return;
+            }
+        }
+        mPipeline.submit(rgba);
+        mFaceOverlay.setFrameGeometry(rgba.cols(), rgba.rows(), 0);
+        mFaceOverlay.setResults(mPipeline.latestResults());
+    }
 
-        return mRgba;
+    /** The read back blocks the GL thread, so only frames detection will take are read. */
+    @Override
+    public boolean wantsFrame() {
+        return mPipeline == null || mPipeline.acceptsFrame();
     }
 }
@@ -0,0 +1,86 @@
+package bo.edu.cba.faceid;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+import android.util.Log;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A model file exposed to OpenCV as a {@link MatOfByte} that wraps native memory directly, for
+ * the {@code create(framework, bufferModel, ...)} overloads.
+ *
+ * <p>Raw resources stored uncompressed in the APK are memory mapped, so no bytes are copied at
+ * all; compressed ones are inflated once into a direct buffer. Keep this object reachable for as
+ * long as the Mat is in use: it owns the memory the Mat points to.
+ */
+public class ModelBuffer {
+
+    private static final String TAG = "ModelBuffer";
+
+    private final ByteBuffer mData;
+    private final MatOfByte  mMat;
+
+    private ModelBuffer(ByteBuffer data) {
+        mData = data;
+        Mat wrapper = new Mat(1, data.limit(), CvType.CV_8UC1, data);
+        mMat = new MatOfByte(wrapper);
+        wrapper.release();
+    }
+
+    public static ModelBuffer fromRawResource(Context context, int resourceId) throws IOException {
+        Resources resources = context.getResources();
+        AssetFileDescriptor afd;
+        try {
+            afd = resources.openRawResourceFd(resourceId);
+        } catch (Resources.NotFoundException e) {
+            afd = null;
+        }
+        if (afd != null) {
+            try (AssetFileDescriptor descriptor = afd;
+                 FileInputStream in = new FileInputStream(descriptor.getFileDescriptor());
+                 FileChannel channel = in.getChannel()) {
+                // The mapping stays valid after the channel is closed.
+                return new ModelBuffer(channel.map(FileChannel.MapMode.READ_ONLY,
+                        descriptor.getStartOffset(), descriptor.getLength()));
+            }
+        }
+
+        Log.w(TAG, "Resource " + resources.getResourceEntryName(resourceId)
+                + " is compressed in the APK; reading it into memory");
+        try (InputStream in = resources.openRawResource(resourceId);
+             ReadableByteChannel channel = Channels.newChannel(in)) {
+            ByteBuffer data = ByteBuffer.allocateDirect(Math.max(in.available(), 1 << 16));
+            while (channel.read(data) >= 0) {
+                if (!data.hasRemaining()) {
+                    ByteBuffer grown = ByteBuffer.allocateDirect(data.capacity() * 2);
+                    data.flip();
+                    grown.put(data);
+                    data = grown;
+                }
+            }
+            data.flip();
+            return new ModelBuffer(data);
+        }
+    }
+
+    /** The model bytes; valid while this object is reachable. */
+    public MatOfByte mat() {
+        return mMat;
+    }
+
+    public int size() {
+        return mData.limit();
+    }
+}
@@ -0,0 +1,94 @@
+package bo.edu.cba.faceid;
+
+/**
+ * Decides from the amount of motion in each frame whether face detection should run on it.
+ *
+ * <p>The gate is awake while a frame has at least {@code motionThreshold} of its pixels in the
+ * foreground, while faces are in view, and for {@code holdFrames} frames after either. A person
+ * standing still in front of the camera stops producing motion, so faces keep the gate awake on
+ * their own. Once asleep, detection only runs every {@code idleInterval} frames, to catch anyone
+ * who appeared too slowly to be seen as motion; any motion wakes the gate on the same frame.
+ *
+ * <p>Not thread safe.
+ */
+public class MotionGate {
+
+    public static final float DEFAULT_MOTION_THRESHOLD = 0.005f;
+    public static final int   DEFAULT_HOLD_FRAMES      = 30;
+    public static final int   DEFAULT_IDLE_INTERVAL    = 15;
+
+    private final float mMotionThreshold;
+    private final int   mHoldFrames;
+    private final int   mIdleInterval;
+    /** Frames left before the gate sleeps, 0 when asleep. */
+    private int         mAwake;
+    private int         mSinceDetection;
+    private long        mDetectedFrames;
+    private long        mSkippedFrames;
+
+    public MotionGate() {
+        this(DEFAULT_MOTION_THRESHOLD, DEFAULT_HOLD_FRAMES, DEFAULT_IDLE_INTERVAL);
+    }
+
+    /**
+     * @param motionThreshold fraction of foreground pixels that counts as motion
+     * @param holdFrames      frames the gate stays awake after the last motion or face
+     * @param idleInterval    frames between detections while asleep
+     */
+    public MotionGate(float motionThreshold, int holdFrames, int idleInterval) {
+        if (idleInterval < 1)
+            throw new IllegalArgumentException("Idle interval must be positive: " + idleInterval);
+        mMotionThreshold = motionThreshold;
+        mHoldFrames = holdFrames;
+        mIdleInterval = idleInterval;
+        // Start awake so the first frames are searched while the background model settles.
+        mAwake = holdFrames;
+    }
+
+    /**
+     * Returns whether to run detection on a frame with {@code motion}, the fraction of its pixels
+     * in the foreground.
+     */
+    public boolean admit(float motion) {
+        if (motion >= mMotionThreshold)
+            mAwake = Math.max(mAwake, mHoldFrames + 1);
+        boolean detect = mAwake > 0 || ++mSinceDetection >= mIdleInterval;
+        if (mAwake > 0)
+            mAwake--;
+        if (detect) {
+            mSinceDetection = 0;
+            mDetectedFrames++;
+        } else {
+            mSkippedFrames++;
+        }
+        return detect;
+    }
+
+    /**
+     * Reports the number of faces found on the last admitted frame.
+     */
+    public void update(int faces) {
+        if (faces > 0)
+            mAwake = Math.max(mAwake, mHoldFrames);
+    }
+
+    public boolean isAwake() {
+        return mAwake > 0;
+    }
+
+    public long detectedFrames() {
+        return mDetectedFrames;
+    }
+
+    public long skippedFrames() {
+        return mSkippedFrames;
+    }
+
+    /**
+     * Fraction of frames admitted for detection since creation, 1 before any frame.
+     */
+    public float dutyCycle() {
+        long total = mDetectedFrames + mSkippedFrames;
+        return total > 0 ? (float) mDetectedFrames / total : 1.f;
+    }
+}
@@ -0,0 +1,89 @@
+package bo.edu.cba.faceid;
+
+import android.util.Log;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * {@link FaceSync.Source} backed by the {@code UserFace} class on Back4App. Queries run
+ * synchronously and must be issued from a background thread.
+ */
+public class ParseFaceSource implements FaceSync.Source {
+
+    private static final String TAG = "ParseFaceSource";
+
+    public static final String CLASS_NAME           = "UserFace";
+    public static final String KEY_NAME             = "name";
+    public static final String KEY_EMBEDDING        = "faceEmbeddingBin";
+    public static final String KEY_LEGACY_EMBEDDING = "faceEmbedding";
+    /** Soft-delete flag; un-enrolment sets it instead of deleting the row so syncs can see it. */
+    public static final String KEY_DELETED          = "deleted";
+
+    private final int mDim;
+
+    public ParseFaceSource(int dim) {
+        mDim = dim;
+    }
+
+    @Override
+    public List<FaceSync.Record> fetch(long since, int skip, int limit) throws ParseException {
+        ParseQuery<ParseObject> query = ParseQuery.getQuery(CLASS_NAME);
+        query.whereGreaterThanOrEqualTo("updatedAt", new Date(since));
+        query.orderByAscending("updatedAt");
+        query.addAscendingOrder("objectId");
+        query.setSkip(skip);
+        query.setLimit(limit);
+
+        List<ParseObject> users = query.find();
+        List<FaceSync.Record> records = new ArrayList<>(users.size());
+        for (ParseObject user : users) {
+            boolean deleted = user.getBoolean(KEY_DELETED);
+            records.add(new FaceSync.Record(user.getObjectId(), user.getString(KEY_NAME),
+                    deleted ? null : readEmbedding(user), updatedAt(user), deleted));
+        }
+        return records;
+    }
+
+    static long updatedAt(ParseObject user) {
+        Date updatedAt = user.getUpdatedAt();
+        return updatedAt != null ? updatedAt.getTime() : 0;
+    }
+
+    private float[] readEmbedding(ParseObject user) {
+        byte[] encoded = user.getBytes(KEY_EMBEDDING);
+        if (encoded != null) {
+            try {
+                if (EmbeddingCodec.dim(encoded) == mDim) {
+                    return EmbeddingCodec.decode(encoded);
+                }
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Embedding inválido para '" + user.getString(KEY_NAME) + "'", e);
+            }
+            return null;
+        }
+
+        List<Number> featureList = user.getList(KEY_LEGACY_EMBEDDING);
+        if (featureList == null || featureList.size() != mDim) {
+            return null;
+        }
+        float[] featureArray = EmbeddingCodec.fromList(featureList);
+        migrateEmbedding(user, featureArray);
+        return featureArray;
+    }
+
+    private void migrateEmbedding(ParseObject user, float[] featureArray) {
+        user.put(KEY_EMBEDDING, EmbeddingCodec.encode(featureArray));
+        user.remove(KEY_LEGACY_EMBEDDING);
+        user.saveInBackground(e -> {
+            if (e != null) {
+                Log.e(TAG, "Error al migrar el embedding de '" + user.getString(KEY_NAME) + "'", e);
+            }
+        });
+    }
+}
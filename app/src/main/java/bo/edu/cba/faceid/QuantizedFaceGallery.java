@@ -0,0 +1,225 @@
+package bo.edu.cba.faceid;
+
+import java.util.Arrays;
+
+/**
+ * {@link FaceGallery} that scans int8 codes and re-ranks only the best {@code rerankCount}
+ * candidates with their features. Each row is quantized with its own scale, so the scan is an
+ * integer dot product per row followed by one multiply.
+ *
+ * <p>The scan reads the codes and scales alone, 132 bytes for a 128-d row against the 512 of
+ * {@link FaceGallery}. The features used for re-ranking are kept in memory as IEEE half-precision
+ * floats, which hold a normalized feature to about 1e-3 at half the bytes of floats, so matching
+ * never leaves the gallery.
+ */
+public class QuantizedFaceGallery extends FaceGallery {
+
+    public static final int DEFAULT_RERANK_COUNT = 16;
+
+    private final int     mRerankCount;
+    private byte[]        mCodes;
+    /** Maps the codes of a row back to its normalized values. */
+    private float[]       mScales;
+    /** Normalized rows as half-precision floats, for re-ranking. */
+    private short[]       mHalves;
+
+    public QuantizedFaceGallery() {
+        this(DEFAULT_DIM, DEFAULT_RERANK_COUNT);
+    }
+
+    public QuantizedFaceGallery(int dim, int rerankCount) {
+        super(dim, false);
+        if (rerankCount < 2)
+            throw new IllegalArgumentException("Re-rank count must be at least 2: " + rerankCount);
+        mRerankCount = rerankCount;
+        mCodes = new byte[capacity() * dim];
+        mScales = new float[capacity()];
+        mHalves = new short[capacity() * dim];
+    }
+
+    public int rerankCount() {
+        return mRerankCount;
+    }
+
+    /** The codes and their scales, which is all the first-pass scan reads. */
+    public synchronized long scanBytes() {
+        return mCodes.length + (long) mScales.length * Float.BYTES;
+    }
+
+    /** Includes the half-precision re-rank features. */
+    @Override
+    public synchronized long memoryBytes() {
+        return super.memoryBytes() + scanBytes() + (long) mHalves.length * Short.BYTES;
+    }
+
+    /** Returns the normalized embedding stored for {@code id}, at half precision, or null. */
+    @Override
+    public synchronized float[] get(String id) {
+        int row = rowOf(id);
+        if (row < 0)
+            return null;
+        int dim = dim();
+        float[] feature = new float[dim];
+        for (int k = 0, offset = row * dim; k < dim; k++) {
+            feature[k] = fromHalf(mHalves[offset + k]);
+        }
+        return feature;
+    }
+
+    @Override
+    public synchronized Match match(float[] probe) {
+        checkDim(probe);
+        final int dim = dim();
+        int count = size();
+        if (count == 0)
+            return null;
+
+        byte[] probeCode = new byte[dim];
+        quantize(probe, 0, dim, probeCode, 0);
+
+        // The probe scale is the same for every row, so it is left out of the ranking.
+        int[] candidates = new int[Math.min(mRerankCount, count)];
+        float[] candidateScores = new float[candidates.length];
+        int found = 0;
+        final byte[] codes = mCodes;
+        final float[] scales = mScales;
+        for (int row = 0, offset = 0; row < count; row++, offset += dim) {
+            int dot = 0;
+            for (int k = 0; k < dim; k++) {
+                dot += codes[offset + k] * probeCode[k];
+            }
+            float score = dot * scales[row];
+            if (found < candidates.length) {
+                found++;
+            } else if (score <= candidateScores[found - 1]) {
+                continue;
+            }
+            int pos = found - 1;
+            while (pos > 0 && candidateScores[pos - 1] < score) {
+                candidates[pos] = candidates[pos - 1];
+                candidateScores[pos] = candidateScores[pos - 1];
+                pos--;
+            }
+            candidates[pos] = row;
+            candidateScores[pos] = score;
+        }
+
+        final short[] halves = mHalves;
+        int best = -1, second = -1;
+        float bestScore = Float.NEGATIVE_INFINITY, secondScore = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < found; i++) {
+            int offset = candidates[i] * dim;
+            float score = 0.f;
+            for (int k = 0; k < dim; k++) {
+                score += fromHalf(halves[offset + k]) * probe[k];
+            }
+            if (score > bestScore) {
+                second = best;
+                secondScore = bestScore;
+                best = candidates[i];
+                bestScore = score;
+            } else if (score > secondScore) {
+                second = candidates[i];
+                secondScore = score;
+            }
+        }
+
+        double norm = norm(probe, 0, dim);
+        float inv = norm > 0 ? (float) (1.0 / norm) : 0.f;
+        return new Match(idAt(best), bestScore * inv,
+                second >= 0 ? idAt(second) : null,
+                second >= 0 ? secondScore * inv : Double.NEGATIVE_INFINITY);
+    }
+
+    @Override
+    void onRowWritten(int row, float[] feature, int offset) {
+        int dim = dim();
+        mScales[row] = quantize(feature, offset, dim, mCodes, row * dim);
+        for (int k = 0, half = row * dim; k < dim; k++) {
+            mHalves[half + k] = toHalf(feature[offset + k]);
+        }
+    }
+
+    @Override
+    void onRowMoved(int from, int to) {
+        int dim = dim();
+        System.arraycopy(mCodes, from * dim, mCodes, to * dim, dim);
+        System.arraycopy(mHalves, from * dim, mHalves, to * dim, dim);
+        mScales[to] = mScales[from];
+    }
+
+    @Override
+    void onCapacityChanged(int rows) {
+        mCodes = Arrays.copyOf(mCodes, rows * dim());
+        mScales = Arrays.copyOf(mScales, rows);
+        mHalves = Arrays.copyOf(mHalves, rows * dim());
+    }
+
+    /**
+     * Symmetric int8 quantization of {@code src[offset, offset + length)} into {@code dst}.
+     * Returns the scale that maps a code back to the original value.
+     */
+    static float quantize(float[] src, int offset, int length, byte[] dst, int dstOffset) {
+        float maxAbs = 0.f;
+        for (int k = 0; k < length; k++) {
+            maxAbs = Math.max(maxAbs, Math.abs(src[offset + k]));
+        }
+        if (maxAbs == 0.f) {
+            for (int k = 0; k < length; k++) {
+                dst[dstOffset + k] = 0;
+            }
+            return 0.f;
+        }
+        float scale = maxAbs / 127.f;
+        float inv = 127.f / maxAbs;
+        for (int k = 0; k < length; k++) {
+            dst[dstOffset + k] = (byte) Math.round(src[offset + k] * inv);
+        }
+        return scale;
+    }
+
+    /** Rounds {@code value} to the nearest IEEE half-precision float, ties to even. */
+    static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+        int mantissa = bits & 0x7fffff;
+        if (exponent == 0xff - 127 + 15)
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        if (exponent >= 0x1f)
+            return (short) (sign | 0x7c00);
+        int shift = 13;
+        int half;
+        if (exponent <= 0) {
+            // Subnormal: shift the mantissa, with its implicit bit, past the exponent.
+            if (exponent < -10)
+                return (short) sign;
+            mantissa |= 0x800000;
+            shift = 14 - exponent;
+            half = mantissa >> shift;
+        } else {
+            half = (exponent << 10) | (mantissa >> shift);
+        }
+        int rest = mantissa & ((1 << shift) - 1);
+        int halfway = 1 << (shift - 1);
+        // A carry out of the mantissa correctly moves to the next exponent, or to infinity.
+        if (rest > halfway || (rest == halfway && (half & 1) != 0))
+            half++;
+        return (short) (sign | half);
+    }
+
+    /** Widens an IEEE half-precision float. */
+    static float fromHalf(short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if (exponent == 0x1f)
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        if (exponent == 0) {
+            float value = mantissa * 0x1p-24f;
+            return sign != 0 ? -value : value;
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+}
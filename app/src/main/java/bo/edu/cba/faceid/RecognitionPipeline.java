@@ -0,0 +1,940 @@
+package bo.edu.cba.faceid;
+
+import android.util.Log;
+
+import org.opencv.android.FrameMetrics;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatPool;
+import org.opencv.core.MatScope;
+import org.opencv.core.MatView;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.FaceDetectorYN;
+import org.opencv.objdetect.FaceRecognizerSF;
+import org.opencv.video.BackgroundSubtractor;
+import org.opencv.video.Video;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Staged face pipeline that keeps detection and recognition off the camera thread.
+ *
+ * <p>{@link #submit} and {@link #submitYuv} are the capture stage: they copy the preview frame and
+ * queue it for the detection thread. The detection thread runs {@link FaceDetectorYN} and fans each face out
+ * to a pool of recognition workers, each with its own {@link FaceRecognizerSF}. When the last
+ * face of a frame has been matched, the frame's results are published and
+ * {@link #latestResults} returns them until a newer frame completes.
+ *
+ * <p>With a {@link EmbedderFactory}, all faces of a frame that need recognition go to one worker as
+ * a single job and are embedded in one batched forward pass by a {@link FaceBatchEmbedder}. Each
+ * worker then has its own embedder instead of a recognizer, and the workers share one recognizer
+ * that only aligns faces. Sharing it is safe because {@link FaceRecognizerSF#alignCrop} is a const
+ * method in OpenCV: it estimates a similarity transform from the face's landmarks and warps the
+ * image into the caller's output, without touching the network or any other member.
+ *
+ * <p>Recognizers and embedders are handed back to their factory when the pipeline stops, so that a
+ * factory can keep them for the next pipeline instead of loading the model again.
+ *
+ * <p>With tracking enabled, faces are linked across frames by a {@link FaceTracker} and only
+ * faces whose track is new, due for refresh or not confidently identified are sent for
+ * recognition; the others reuse the identity cached on their track. These decisions are made by
+ * a {@link FaceIdentifier}.
+ *
+ * <p>Frames submitted as YUV are never converted or rotated at full resolution: detection runs on
+ * a BGR image built from downscaled planes, rotation and mirroring are applied to the detected
+ * coordinates, and only the region around each face is converted for alignment.
+ *
+ * <p>With a {@link SubtractorFactory}, each frame first goes through a background subtractor at
+ * low resolution and a {@link MotionGate} skips detection while the scene is static and nobody is
+ * in view.
+ */
+public class RecognitionPipeline {
+
+    private static final String TAG = "RecognitionPipeline";
+
+    /** End of the box and landmark columns in a {@link FaceDetectorYN} row. */
+    private static final int   LANDMARKS_END = 14;
+    /** Context kept around a face when cropping it for alignment, relative to its size. */
+    private static final float CROP_MARGIN   = 0.5f;
+    /** Width of the images motion is measured on. */
+    private static final int   MOTION_WIDTH  = 160;
+    /**
+     * Where views would copy the whole Mat in and back out, one bulk get is cheaper, so rows are
+     * only read through a {@link MatView} when it is zero copy.
+     */
+    private static final boolean ZERO_COPY_VIEWS = MatView.isZeroCopySupported();
+
+    /** Gaussian mixture background model, the default for motion gating. */
+    public static final SubtractorFactory MOG2 = () -> Video.createBackgroundSubtractorMOG2(500, 16, false);
+    /** K-nearest-neighbours background model, more robust to flicker at a higher cost. */
+    public static final SubtractorFactory KNN  = () -> Video.createBackgroundSubtractorKNN(500, 400, false);
+
+    public static class Config {
+        /** Frames waiting for detection. */
+        public int                   frameQueueDepth = 2;
+        /** Faces waiting for recognition. */
+        public int                   faceQueueDepth = 16;
+        public FrameQueue.DropPolicy dropPolicy = FrameQueue.DropPolicy.DROP_OLDEST;
+        public int                   recognitionThreads = 2;
+        /** Detection runs on frames downscaled by this factor. */
+        public float                 scale = 2.f;
+        public double                cosThreshold = 0.363;
+        /** Link faces across frames and cache their identities. */
+        public boolean               tracking = true;
+        /** Smooth track boxes with a Kalman filter. */
+        public boolean               kalman = false;
+        /** Tracked identities scoring below this are re-checked more often. */
+        public double                confidentScore = 0.45;
+        /**
+         * Search only around the faces of the previous frame between full scans, at a resolution
+         * picked from the face size. See {@link DetectionScheduler}.
+         */
+        public boolean               adaptiveDetection = false;
+        /** Frames between full-frame scans with adaptive detection. */
+        public int                   fullScanInterval = DetectionScheduler.DEFAULT_FULL_SCAN_INTERVAL;
+        /** Receives the timing of each pipeline stage. */
+        public FrameMetrics          metrics = FrameMetrics.NONE;
+        /** Receives the results of every processed frame, if not null. */
+        public ResultListener        listener;
+        /**
+         * Background model used to skip detection on static scenes, such as {@link #MOG2}, or null
+         * to detect on every frame. See {@link MotionGate}.
+         */
+        public SubtractorFactory     motionSubtractor;
+        /** Fraction of foreground pixels that wakes detection with motion gating. */
+        public float                 motionThreshold = MotionGate.DEFAULT_MOTION_THRESHOLD;
+        /** Frames between detections while motion gating has detection asleep. */
+        public int                   motionIdleInterval = MotionGate.DEFAULT_IDLE_INTERVAL;
+    }
+
+    public interface RecognizerFactory {
+        FaceRecognizerSF create();
+
+        /** Takes back a recognizer the pipeline no longer uses; by default it is dropped. */
+        default void recycle(FaceRecognizerSF recognizer) {
+        }
+    }
+
+    public interface EmbedderFactory {
+        FaceBatchEmbedder create();
+
+        /** Takes back an embedder the pipeline no longer uses; by default it is dropped. */
+        default void recycle(FaceBatchEmbedder embedder) {
+        }
+    }
+
+    public interface SubtractorFactory {
+        BackgroundSubtractor create();
+    }
+
+    public interface ResultListener {
+        /**
+         * Called once per processed frame, on the pipeline thread that completed it. Frames may
+         * complete out of order; frames dropped before detection are not reported.
+         */
+        void onResults(long frameId, List<FaceResult> results);
+
+        /**
+         * Called instead of {@link #onResults} for a frame that motion gating skipped, on the
+         * detection thread. The results of the last processed frame stay current.
+         */
+        default void onSkipped(long frameId) {
+        }
+    }
+
+    public static class FaceResult {
+        /** Face box in full-frame coordinates. */
+        public final Rect    box;
+        /** Matched identity, or null if unknown or not recognized. */
+        public final String  name;
+        public final double  score;
+        /**
+         * Eyes, nose tip and mouth corners as {@code x, y} pairs in full-frame coordinates, in
+         * {@link FaceDetectorYN} order, or null.
+         */
+        public final float[] landmarks;
+
+        public FaceResult(Rect box, String name, double score) {
+            this(box, name, score, null);
+        }
+
+        public FaceResult(Rect box, String name, double score, float[] landmarks) {
+            this.box = box;
+            this.name = name;
+            this.score = score;
+            this.landmarks = landmarks;
+        }
+    }
+
+    /**
+     * A captured frame and its detections, shared by reference count between the stages. When
+     * the last reference is closed, its buffers go back to the pipeline for the next capture.
+     */
+    public static class Frame implements AutoCloseable {
+        long                id;
+        /** Full-resolution BGR image, for frames submitted as RGBA. */
+        final Mat           bgr = new Mat();
+        /** Luma and interleaved chroma planes in sensor orientation, for frames submitted as YUV. */
+        final Mat           y = new Mat();
+        final Mat           uv = new Mat();
+        int                 yuvToBgrCode;
+        FrameGeometry       geometry;
+        /** Detections in full-resolution display coordinates. */
+        final Mat           faces = new Mat();
+        FaceIdentifier.Assignment identities;
+        final AtomicInteger pending = new AtomicInteger();
+        private final AtomicInteger mRefs = new AtomicInteger(1);
+        private final Queue<Frame>  mIdle;
+
+        /** @param idle where the frame goes once closed, or null to release it */
+        Frame(long id, Queue<Frame> idle) {
+            this.id = id;
+            mIdle = idle;
+        }
+
+        /** Readies an idle frame for capture {@code id}, keeping its image buffers. */
+        Frame reset(long id) {
+            this.id = id;
+            faces.release();
+            identities = null;
+            pending.set(0);
+            mRefs.set(1);
+            return this;
+        }
+
+        /** Detections in {@link FaceDetectorYN} row layout, in displayed frame coordinates. */
+        public Mat faces() {
+            return faces;
+        }
+
+        /**
+         * Runs {@link FaceRecognizerSF#alignCrop} for face {@code index}. For YUV frames only the
+         * region around the face is converted to BGR and oriented like the displayed frame.
+         */
+        public void alignCrop(FaceRecognizerSF recognizer, int index, Mat aligned) {
+            try (MatScope scope = MatScope.open()) {
+                alignCrop(recognizer, index, aligned, scope);
+            }
+        }
+
+        private void alignCrop(FaceRecognizerSF recognizer, int index, Mat aligned, MatScope scope) {
+            if (y.empty()) {
+                recognizer.alignCrop(bgr, scope.track(faces.row(index)), aligned);
+                return;
+            }
+            float[] face = new float[faces.cols()];
+            faces.get(index, 0, face);
+
+            float x0 = face[0], y0 = face[1], x1 = face[0] + face[2], y1 = face[1] + face[3];
+            for (int i = 4; i < LANDMARKS_END; i += 2) {
+                x0 = Math.min(x0, face[i]);
+                x1 = Math.max(x1, face[i]);
+                y0 = Math.min(y0, face[i + 1]);
+                y1 = Math.max(y1, face[i + 1]);
+            }
+            float margin = CROP_MARGIN * Math.max(x1 - x0, y1 - y0);
+            float[] region = { x0 - margin, y0 - margin, x1 - x0 + 2 * margin, y1 - y0 + 2 * margin };
+            int[] rect = new int[4];
+            if (!geometry.sensorRect(region, rect)) {
+                rect[0] = rect[1] = 0;
+                rect[2] = geometry.width;
+                rect[3] = geometry.height;
+            }
+            int left = rect[0], top = rect[1], right = rect[2], bottom = rect[3];
+
+            Mat crop = scope.mat();
+            Imgproc.cvtColorTwoPlane(scope.track(y.submat(top, bottom, left, right)),
+                    scope.track(uv.submat(top / 2, bottom / 2, left / 2, right / 2)), crop, yuvToBgrCode);
+            if (geometry.rotation != 0) {
+                Mat rotated = scope.mat();
+                Core.rotate(crop, rotated, rotateCode(geometry.rotation));
+                crop = rotated;
+            }
+            if (geometry.mirror)
+                Core.flip(crop, crop, 1);
+
+            float[] origin = { left, top, right - left, bottom - top };
+            geometry.boxToDisplay(origin, 0);
+            for (int i = 0; i < LANDMARKS_END; i += 2) {
+                face[i] -= origin[0];
+                face[i + 1] -= origin[1];
+            }
+            Mat shifted = scope.acquire(1, face.length, CvType.CV_32F);
+            shifted.put(0, 0, face);
+            recognizer.alignCrop(crop, shifted, aligned);
+        }
+
+        Frame retain() {
+            mRefs.incrementAndGet();
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (mRefs.decrementAndGet() == 0 && (mIdle == null || !mIdle.offer(this)))
+                release();
+        }
+
+        void release() {
+            bgr.release();
+            y.release();
+            uv.release();
+            faces.release();
+        }
+    }
+
+    /** Faces of one frame to recognize together. */
+    private static class FaceJob {
+        final Frame frame;
+        final int[] indices;
+
+        FaceJob(Frame frame, int[] indices) {
+            this.frame = frame;
+            this.indices = indices;
+        }
+    }
+
+    private static class Published {
+        final long             frameId;
+        final List<FaceResult> results;
+
+        Published(long frameId, List<FaceResult> results) {
+            this.frameId = frameId;
+            this.results = results;
+        }
+    }
+
+    private final Config                     mConfig;
+    private final FaceDetectorYN             mDetector;
+    private final RecognizerFactory          mRecognizerFactory;
+    private final EmbedderFactory            mEmbedderFactory;
+    private final FaceIdentifier             mIdentifier;
+    private final DetectionScheduler         mScheduler;
+    private final MotionGate                 mMotionGate;
+    private final FrameMetrics               mMetrics;
+    private final AtomicLong                 mDetectedFaces = new AtomicLong();
+    private final AtomicLong                 mEmbeddedFaces = new AtomicLong();
+    private final FrameQueue<Frame>          mFrames;
+    /** Closed frames whose buffers the next captures reuse. */
+    private final BlockingQueue<Frame>       mIdleFrames;
+    private final FrameQueue<FaceJob>        mFaceJobs;
+    private final List<Thread>               mThreads = new ArrayList<>();
+    private final AtomicReference<Published> mPublished =
+            new AtomicReference<>(new Published(-1, Collections.<FaceResult>emptyList()));
+    private final Object                     mLatestLock = new Object();
+    private Frame                            mLatest;
+    private long                             mNextFrameId;
+    /** Shared by the workers for alignment when features come from a batch embedder. */
+    private FaceRecognizerSF                 mAligner;
+
+    public RecognitionPipeline(Config config, FaceDetectorYN detector, RecognizerFactory recognizerFactory,
+                               FaceGallery gallery) {
+        this(config, detector, recognizerFactory, null, gallery);
+    }
+
+    /**
+     * @param embedderFactory if not null, features are computed per frame in one batched pass
+     *                        instead of per face with {@link FaceRecognizerSF#feature}
+     */
+    public RecognitionPipeline(Config config, FaceDetectorYN detector, RecognizerFactory recognizerFactory,
+                               EmbedderFactory embedderFactory, FaceGallery gallery) {
+        mConfig = config;
+        mDetector = detector;
+        mRecognizerFactory = recognizerFactory;
+        mEmbedderFactory = embedderFactory;
+        mMetrics = config.metrics != null ? config.metrics : FrameMetrics.NONE;
+        mScheduler = config.adaptiveDetection
+                ? new DetectionScheduler(config.scale, config.fullScanInterval)
+                : null;
+        mMotionGate = config.motionSubtractor != null
+                ? new MotionGate(config.motionThreshold, MotionGate.DEFAULT_HOLD_FRAMES, config.motionIdleInterval)
+                : null;
+        mIdentifier = new FaceIdentifier(gallery, config.cosThreshold, config.tracking
+                ? new FaceTracker(config.confidentScore, config.kalman ? new KalmanBoxSmoother() : null)
+                : null);
+        mFrames = new FrameQueue<>(config.frameQueueDepth, config.dropPolicy, Frame::close);
+        // Queued frames, plus the one being detected and the latest detected one.
+        mIdleFrames = new ArrayBlockingQueue<>(config.frameQueueDepth + 2);
+        mFaceJobs = new FrameQueue<>(config.faceQueueDepth, config.dropPolicy, this::drop);
+    }
+
+    public void start() {
+        Thread detection = new Thread(this::detectionLoop, "FaceDetection");
+        mThreads.add(detection);
+        if (mRecognizerFactory != null) {
+            for (int i = 0; i < mConfig.recognitionThreads; i++) {
+                mThreads.add(new Thread(this::recognitionLoop, "FaceRecognition-" + i));
+            }
+        }
+        for (Thread thread : mThreads) {
+            thread.start();
+        }
+    }
+
+    public void stop() {
+        mFrames.close();
+        mFaceJobs.close();
+        for (Thread thread : mThreads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mThreads.clear();
+        synchronized (this) {
+            if (mAligner != null) {
+                mRecognizerFactory.recycle(mAligner);
+                mAligner = null;
+            }
+        }
+        synchronized (mLatestLock) {
+            if (mLatest != null) {
+                mLatest.close();
+                mLatest = null;
+            }
+        }
+        mIdentifier.clear();
+        Frame idle;
+        while ((idle = mIdleFrames.poll()) != null) {
+            idle.release();
+        }
+    }
+
+    /**
+     * Capture stage, called on the camera thread. Copies {@code rgba} as BGR and queues it.
+     * Returns the id the frame is reported with.
+     */
+    public long submit(Mat rgba) {
+        long start = mMetrics.start();
+        Frame frame = nextFrame();
+        frame.y.release();
+        frame.uv.release();
+        long data = frame.bgr.dataAddr();
+        Imgproc.cvtColor(rgba, frame.bgr, Imgproc.COLOR_RGBA2BGR);
+        frame.geometry = new FrameGeometry(rgba.cols(), rgba.rows(), 0, false);
+        if (frame.bgr.dataAddr() != data)
+            mMetrics.count("pipeline.frameAllocBytes", frame.bgr.total() * frame.bgr.elemSize());
+        mMetrics.end("pipeline.capture", start);
+        enqueue(frame);
+        return frame.id;
+    }
+
+    /**
+     * Capture stage for frames still in the camera's YUV 4:2:0 layout, called on the camera
+     * thread. Copies the luma plane {@code y} and interleaved chroma plane {@code uv} without
+     * conversion and queues them.
+     *
+     * @param yuvToBgrCode {@link Imgproc#cvtColorTwoPlane} code for the planes
+     * @param rotation     clockwise rotation in degrees from the planes to the displayed frame
+     * @param mirror       whether the displayed frame is mirrored after rotation
+     * @return the id the frame is reported with
+     */
+    public long submitYuv(Mat y, Mat uv, int yuvToBgrCode, int rotation, boolean mirror) {
+        long start = mMetrics.start();
+        Frame frame = nextFrame();
+        frame.bgr.release();
+        long yData = frame.y.dataAddr(), uvData = frame.uv.dataAddr();
+        y.copyTo(frame.y);
+        uv.copyTo(frame.uv);
+        frame.yuvToBgrCode = yuvToBgrCode;
+        frame.geometry = new FrameGeometry(y.cols(), y.rows(), rotation, mirror);
+        if (frame.y.dataAddr() != yData || frame.uv.dataAddr() != uvData)
+            mMetrics.count("pipeline.frameAllocBytes", frame.y.total() + frame.uv.total() * frame.uv.elemSize());
+        mMetrics.end("pipeline.capture", start);
+        enqueue(frame);
+        return frame.id;
+    }
+
+    /**
+     * Whether a frame submitted now would wait for detection without pushing out a queued one.
+     * Producers whose capture is expensive can skip frames while this is false.
+     */
+    public boolean acceptsFrame() {
+        return mFrames.size() < mFrames.capacity();
+    }
+
+    /** An idle frame to capture into, or a new one if every frame is still in use. */
+    private Frame nextFrame() {
+        Frame frame = mIdleFrames.poll();
+        if (frame != null)
+            return frame.reset(mNextFrameId++);
+        mMetrics.count("pipeline.frameAlloc", 1);
+        return new Frame(mNextFrameId++, mIdleFrames);
+    }
+
+    private void enqueue(Frame frame) {
+        try {
+            mFrames.offer(frame);
+        } catch (InterruptedException e) {
+            frame.close();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Results of the most recent fully processed frame.
+     */
+    public List<FaceResult> latestResults() {
+        return mPublished.get().results;
+    }
+
+    /**
+     * Returns the most recent detected frame, retained for the caller, or null. Close it when done.
+     */
+    public Frame acquireLatest() {
+        synchronized (mLatestLock) {
+            return mLatest != null ? mLatest.retain() : null;
+        }
+    }
+
+    public long droppedFrames() {
+        return mFrames.dropped();
+    }
+
+    public long droppedFaces() {
+        return mFaceJobs.dropped();
+    }
+
+    /** Faces detected since start. */
+    public long detectedFaces() {
+        return mDetectedFaces.get();
+    }
+
+    /** Faces sent through alignment and embedding since start. */
+    public long embeddedFaces() {
+        return mEmbeddedFaces.get();
+    }
+
+    /**
+     * Fraction of frames taken by the detection thread that motion gating let through to the
+     * detector, 1 without motion gating.
+     */
+    public float motionDutyCycle() {
+        if (mMotionGate == null)
+            return 1.f;
+        synchronized (mMotionGate) {
+            return mMotionGate.dutyCycle();
+        }
+    }
+
+    private void detectionLoop() {
+        Detection detection = new Detection();
+        List<Mat> regionFaces = new ArrayList<>();
+        try {
+            Frame frame;
+            while ((frame = mFrames.take()) != null) {
+                if (mMotionGate != null && !detection.admit(frame)) {
+                    if (mConfig.listener != null)
+                        mConfig.listener.onSkipped(frame.id);
+                    frame.close();
+                    continue;
+                }
+                FrameGeometry geometry = frame.geometry;
+                List<DetectionScheduler.Region> plan = mScheduler != null
+                        ? mScheduler.plan(geometry.displayWidth(), geometry.displayHeight())
+                        : Collections.singletonList(new DetectionScheduler.Region(0, 0,
+                                geometry.displayWidth(), geometry.displayHeight(), mConfig.scale));
+                if (plan.size() == 1) {
+                    detection.run(frame, plan.get(0), frame.faces);
+                } else {
+                    for (DetectionScheduler.Region region : plan) {
+                        Mat faces = new Mat();
+                        detection.run(frame, region, faces);
+                        if (!faces.empty())
+                            regionFaces.add(faces);
+                        else
+                            faces.release();
+                    }
+                    if (!regionFaces.isEmpty())
+                        Core.vconcat(regionFaces, frame.faces);
+                    for (Mat faces : regionFaces) {
+                        faces.release();
+                    }
+                    regionFaces.clear();
+                }
+                mMetrics.count("pipeline.detectRegions", plan.size());
+                dispatch(frame);
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Detection thread interrupted");
+        } finally {
+            detection.release();
+        }
+    }
+
+    /** Detector input buffers, reused across frames by the detection thread. */
+    private class Detection {
+        final Mat   bgrScaled = new Mat();
+        final Mat   yScaled = new Mat();
+        final Mat   uvScaled = new Mat();
+        final Mat   bgrRotated = new Mat();
+        final Mat   motionInput = new Mat();
+        final Mat   motionGray = new Mat();
+        final Mat   motionMask = new Mat();
+        final int[] rect = new int[4];
+        Size        inputSize;
+        BackgroundSubtractor subtractor;
+
+        /**
+         * Measures the motion in {@code frame} on a small grayscale copy and returns whether the
+         * motion gate lets it through to detection.
+         */
+        boolean admit(Frame frame) {
+            long start = mMetrics.start();
+            Mat source = frame.y.empty() ? frame.bgr : frame.y;
+            Size size = new Size(MOTION_WIDTH, Math.max(1, Math.round((float) MOTION_WIDTH * source.rows() / source.cols())));
+            if (frame.y.empty()) {
+                Imgproc.resize(source, motionInput, size, 0, 0, Imgproc.INTER_AREA);
+                Imgproc.cvtColor(motionInput, motionGray, Imgproc.COLOR_BGR2GRAY);
+            } else {
+                // The luma plane is already grayscale; orientation does not matter here.
+                Imgproc.resize(source, motionGray, size, 0, 0, Imgproc.INTER_AREA);
+            }
+            if (subtractor == null)
+                subtractor = mConfig.motionSubtractor.create();
+            subtractor.apply(motionGray, motionMask);
+            float motion = (float) Core.countNonZero(motionMask) / motionMask.total();
+            mMetrics.end("pipeline.motion", start);
+
+            boolean detect;
+            synchronized (mMotionGate) {
+                detect = mMotionGate.admit(motion);
+            }
+            mMetrics.count(detect ? "pipeline.motionDetected" : "pipeline.motionSkipped", 1);
+            return detect;
+        }
+
+        /**
+         * Detects faces inside {@code region} of {@code frame} and writes them to {@code faces} in
+         * full-resolution display coordinates.
+         */
+        void run(Frame frame, DetectionScheduler.Region region, Mat faces) {
+            FrameGeometry geometry = frame.geometry;
+            if (!geometry.sensorRect(new float[] { region.x, region.y, region.w, region.h }, rect)) {
+                faces.release();
+                return;
+            }
+            int left = rect[0], top = rect[1], right = rect[2], bottom = rect[3];
+            int width = 2 * Math.max(1, Math.round((right - left) / region.scale / 2));
+            int height = 2 * Math.max(1, Math.round((bottom - top) / region.scale / 2));
+
+            long start = mMetrics.start();
+            Mat input;
+            if (frame.y.empty()) {
+                Mat bgr = frame.bgr.submat(top, bottom, left, right);
+                Imgproc.resize(bgr, bgrScaled, new Size(width, height));
+                bgr.release();
+                input = bgrScaled;
+            } else {
+                // Downscale the planes first so the color conversion and rotation only touch
+                // detector-sized images.
+                Mat y = frame.y.submat(top, bottom, left, right);
+                Mat uv = frame.uv.submat(top / 2, bottom / 2, left / 2, right / 2);
+                Imgproc.resize(y, yScaled, new Size(width, height));
+                Imgproc.resize(uv, uvScaled, new Size(width / 2, height / 2));
+                y.release();
+                uv.release();
+                Imgproc.cvtColorTwoPlane(yScaled, uvScaled, bgrScaled, frame.yuvToBgrCode);
+                input = bgrScaled;
+                if (geometry.rotation != 0) {
+                    Core.rotate(bgrScaled, bgrRotated, rotateCode(geometry.rotation));
+                    input = bgrRotated;
+                }
+            }
+            mMetrics.end("pipeline.resize", start);
+
+            if (inputSize == null || !inputSize.equals(input.size())) {
+                inputSize = input.size();
+                mDetector.setInputSize(inputSize);
+            }
+            start = mMetrics.start();
+            mDetector.detect(input, faces);
+            mMetrics.end("pipeline.detect", start);
+
+            // The input covers this part of the display, before mirroring.
+            float[] origin = { left, top, right - left, bottom - top };
+            geometry.boxToDisplay(origin, 0);
+            if (geometry.mirror)
+                origin[0] = geometry.displayWidth() - origin[0] - origin[2];
+            toDisplay(faces, geometry, origin, input.cols(), input.rows());
+        }
+
+        void release() {
+            bgrScaled.release();
+            yScaled.release();
+            uvScaled.release();
+            bgrRotated.release();
+            motionInput.release();
+            motionGray.release();
+            motionMask.release();
+        }
+    }
+
+    /**
+     * Maps detections from a {@code cols}x{@code rows} detector input, which shows the unmirrored
+     * display area {@code origin}, to full-resolution display coordinates.
+     */
+    private static void toDisplay(Mat faces, FrameGeometry geometry, float[] origin, int cols, int rows) {
+        if (faces.empty())
+            return;
+        float sx = origin[2] / cols;
+        float sy = origin[3] / rows;
+        float[] face = new float[faces.cols() * faces.channels()];
+        try (MatView view = view(faces)) {
+            FloatBuffer data = floats(view, faces);
+            for (int i = 0; i < faces.rows(); i++) {
+                data.position(i * face.length);
+                data.get(face);
+                toDisplay(face, geometry, origin, sx, sy);
+                data.position(i * face.length);
+                data.put(face);
+            }
+            if (view == null)
+                faces.put(0, 0, data.array());
+        }
+    }
+
+    /** A view of {@code mat} if views are zero copy here, or null. */
+    private static MatView view(Mat mat) {
+        return ZERO_COPY_VIEWS ? MatView.of(mat) : null;
+    }
+
+    /**
+     * The data of the continuous {@link CvType#CV_32F} {@code mat}: the buffer of {@code view},
+     * or a bulk copy if it is null. Write a copy back with {@code mat.put(0, 0, data.array())}.
+     */
+    private static FloatBuffer floats(MatView view, Mat mat) {
+        if (view != null)
+            return view.floats();
+        float[] data = new float[(int) mat.total() * mat.channels()];
+        mat.get(0, 0, data);
+        return FloatBuffer.wrap(data);
+    }
+
+    /** Maps one detector row in place; see {@link #toDisplay(Mat, FrameGeometry, float[], int, int)}. */
+    private static void toDisplay(float[] face, FrameGeometry geometry, float[] origin, float sx, float sy) {
+        int width = geometry.displayWidth();
+        face[2] *= sx;
+        face[3] *= sy;
+        face[0] = origin[0] + face[0] * sx;
+        face[1] = origin[1] + face[1] * sy;
+        for (int j = 4; j < LANDMARKS_END; j += 2) {
+            face[j] = origin[0] + face[j] * sx;
+            face[j + 1] = origin[1] + face[j + 1] * sy;
+        }
+        if (geometry.mirror) {
+            face[0] = width - face[0] - face[2];
+            for (int j = 4; j < LANDMARKS_END; j += 2) {
+                face[j] = width - 1 - face[j];
+            }
+            // Keep the detector's landmark order (right eye, left eye, nose, right and left
+            // mouth corners) as seen in the mirrored frame.
+            swap(face, 4, 6);
+            swap(face, 5, 7);
+            swap(face, 10, 12);
+            swap(face, 11, 13);
+        }
+    }
+
+    private static void swap(float[] a, int i, int j) {
+        float t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+    static int rotateCode(int rotation) {
+        if (rotation == 90)
+            return Core.ROTATE_90_CLOCKWISE;
+        else if (rotation == 180)
+            return Core.ROTATE_180;
+        else
+            return Core.ROTATE_90_COUNTERCLOCKWISE;
+    }
+
+    private void dispatch(Frame frame) throws InterruptedException {
+        int count = frame.faces.empty() ? 0 : frame.faces.rows();
+        mDetectedFaces.addAndGet(count);
+        float[][] boxes = new float[count][];
+        if (count > 0) {
+            int stride = frame.faces.cols() * frame.faces.channels();
+            try (MatView view = view(frame.faces)) {
+                FloatBuffer data = floats(view, frame.faces);
+                for (int i = 0; i < count; i++) {
+                    boxes[i] = new float[4];
+                    data.position(i * stride);
+                    data.get(boxes[i]);
+                }
+            }
+        }
+        if (mScheduler != null)
+            mScheduler.update(boxes);
+        if (mMotionGate != null) {
+            synchronized (mMotionGate) {
+                mMotionGate.update(count);
+            }
+        }
+
+        long start = mMetrics.start();
+        FaceIdentifier.Assignment identities = mIdentifier.assign(boxes, mRecognizerFactory != null);
+        mMetrics.end("pipeline.track", start);
+        frame.identities = identities;
+        int[] pending = identities.pending;
+
+        List<FaceJob> jobs = new ArrayList<>(pending.length);
+        if (mEmbedderFactory != null && pending.length > 0) {
+            jobs.add(new FaceJob(frame, pending));
+        } else {
+            for (int index : pending) {
+                jobs.add(new FaceJob(frame, new int[] { index }));
+            }
+        }
+
+        synchronized (mLatestLock) {
+            if (mLatest != null)
+                mLatest.close();
+            mLatest = frame.retain();
+        }
+
+        if (jobs.isEmpty()) {
+            publish(frame);
+        } else {
+            frame.pending.set(jobs.size());
+            for (FaceJob job : jobs) {
+                frame.retain();
+                mFaceJobs.offer(job);
+            }
+        }
+        frame.close();
+    }
+
+    private static Rect toRect(float[] box) {
+        return new Rect(Math.round(box[0]), Math.round(box[1]), Math.round(box[2]), Math.round(box[3]));
+    }
+
+    private void recognitionLoop() {
+        FaceBatchEmbedder embedder = mEmbedderFactory != null ? mEmbedderFactory.create() : null;
+        FaceRecognizerSF recognizer = embedder != null ? aligner() : mRecognizerFactory.create();
+        // Per-face temporaries are borrowed from this thread's pool, so once every face count seen
+        // has been served, recognizing a frame allocates no Mat data.
+        MatPool pool = MatPool.local();
+        int alignedRows = (int) FaceBatchEmbedder.INPUT_SIZE.height;
+        int alignedCols = (int) FaceBatchEmbedder.INPUT_SIZE.width;
+        List<Mat> alignedFaces = new ArrayList<>();
+        float[] probe = new float[mIdentifier.gallery().dim()];
+        try {
+            FaceJob job;
+            while ((job = mFaceJobs.take()) != null) {
+                int count = job.indices.length;
+                long hits = pool.hits(), misses = pool.misses();
+                for (int i = 0; i < count; i++) {
+                    alignedFaces.add(pool.acquire(alignedRows, alignedCols, CvType.CV_8UC3));
+                }
+                Mat features = pool.acquire(embedder != null ? count : 1, probe.length, CvType.CV_32F);
+                long start = mMetrics.start();
+                for (int i = 0; i < count; i++) {
+                    job.frame.alignCrop(recognizer, job.indices[i], alignedFaces.get(i));
+                }
+                mMetrics.end("pipeline.align", start);
+                start = mMetrics.start();
+                if (embedder != null)
+                    embedder.embed(alignedFaces, features);
+                else
+                    recognizer.feature(alignedFaces.get(0), features);
+                mMetrics.end("pipeline.feature", start);
+                mMetrics.count("pipeline.embedPasses", 1);
+                mEmbeddedFaces.addAndGet(count);
+
+                try (MatView view = view(features)) {
+                    FloatBuffer data = floats(view, features);
+                    for (int i = 0; i < count; i++) {
+                        data.position(i * probe.length);
+                        data.get(probe);
+                        start = mMetrics.start();
+                        mIdentifier.identify(job.frame.identities, job.indices[i], probe);
+                        mMetrics.end("pipeline.match", start);
+                    }
+                }
+                for (int i = 0; i < count; i++) {
+                    pool.recycle(alignedFaces.get(i));
+                }
+                alignedFaces.clear();
+                pool.recycle(features);
+                mMetrics.count("pipeline.poolHits", pool.hits() - hits);
+                mMetrics.count("pipeline.poolMisses", pool.misses() - misses);
+                complete(job);
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Recognition thread interrupted");
+        } finally {
+            for (Mat alignedFace : alignedFaces) {
+                alignedFace.release();
+            }
+            pool.clear();
+            if (embedder != null)
+                mEmbedderFactory.recycle(embedder);
+            else
+                mRecognizerFactory.recycle(recognizer);
+        }
+    }
+
+    private synchronized FaceRecognizerSF aligner() {
+        if (mAligner == null)
+            mAligner = mRecognizerFactory.create();
+        return mAligner;
+    }
+
+    private void drop(FaceJob job) {
+        for (int index : job.indices) {
+            mIdentifier.abandon(job.frame.identities, index);
+        }
+        complete(job);
+    }
+
+    /** Finishes a face job, publishing its frame after the last one. */
+    private void complete(FaceJob job) {
+        if (job.frame.pending.decrementAndGet() == 0)
+            publish(job.frame);
+        job.frame.close();
+    }
+
+    private void publish(Frame frame) {
+        FaceIdentifier.Assignment identities = frame.identities;
+        FaceResult[] results = new FaceResult[identities.size()];
+        if (results.length > 0) {
+            int stride = frame.faces.cols() * frame.faces.channels();
+            try (MatView view = view(frame.faces)) {
+                FloatBuffer data = floats(view, frame.faces);
+                for (int i = 0; i < results.length; i++) {
+                    float[] landmarks = new float[LANDMARKS_END - 4];
+                    data.position(i * stride + 4);
+                    data.get(landmarks);
+                    results[i] = new FaceResult(toRect(identities.boxes[i]), identities.names[i],
+                            identities.scores[i], landmarks);
+                }
+            }
+        }
+        List<FaceResult> list = Collections.unmodifiableList(Arrays.asList(results));
+        if (mConfig.listener != null)
+            mConfig.listener.onResults(frame.id, list);
+        Published next = new Published(frame.id, list);
+        while (true) {
+            Published current = mPublished.get();
+            if (current.frameId >= frame.id || mPublished.compareAndSet(current, next))
+                return;
+        }
+    }
+}
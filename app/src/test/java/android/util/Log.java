@@ -0,0 +1,64 @@
+package android.util;
+
+/**
+ * Stands in for the framework {@code Log} in JVM unit tests, so that pipeline code that logs can
+ * run in tests such as {@link bo.edu.cba.faceid.ReplayBenchmarkTest}. Test classes come before
+ * {@code android.jar} on the unit test classpath, so this class wins while every other framework
+ * method still throws. Warnings and errors go to stderr, the rest is dropped.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+        return 0;
+    }
+
+    public static int v(String tag, String msg, Throwable tr) {
+        return 0;
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int d(String tag, String msg, Throwable tr) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg, Throwable tr) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return print("W", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return print("W", tag, msg, tr);
+    }
+
+    public static int w(String tag, Throwable tr) {
+        return print("W", tag, "", tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return print("E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return print("E", tag, msg, tr);
+    }
+
+    private static int print(String level, String tag, String msg, Throwable tr) {
+        System.err.println(level + "/" + tag + ": " + msg);
+        if (tr != null)
+            tr.printStackTrace();
+        return 0;
+    }
+}
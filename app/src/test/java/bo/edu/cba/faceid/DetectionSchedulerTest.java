@@ -0,0 +1,95 @@
+package bo.edu.cba.faceid;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DetectionSchedulerTest {
+
+    private static final int WIDTH  = 1920;
+    private static final int HEIGHT = 1080;
+
+    private static float[] box(float x, float y, float w, float h) {
+        return new float[] { x, y, w, h };
+    }
+
+    private static boolean isFullScan(List<DetectionScheduler.Region> plan) {
+        return plan.size() == 1 && plan.get(0).w == WIDTH && plan.get(0).h == HEIGHT;
+    }
+
+    @Test
+    public void plan_scansFullFrameWithoutKnownFaces() {
+        DetectionScheduler scheduler = new DetectionScheduler(2.f, 10);
+        List<DetectionScheduler.Region> plan = scheduler.plan(WIDTH, HEIGHT);
+        assertTrue(isFullScan(plan));
+        assertEquals(2.f, plan.get(0).scale, 0);
+    }
+
+    @Test
+    public void plan_searchesExpandedRegionAroundFace() {
+        DetectionScheduler scheduler = new DetectionScheduler(2.f, 10);
+        scheduler.plan(WIDTH, HEIGHT);
+        scheduler.update(new float[][] { box(800, 400, 128, 128) });
+
+        List<DetectionScheduler.Region> plan = scheduler.plan(WIDTH, HEIGHT);
+        assertEquals(1, plan.size());
+        DetectionScheduler.Region region = plan.get(0);
+        assertEquals(672, region.x, 0);
+        assertEquals(272, region.y, 0);
+        assertEquals(384, region.w, 0);
+        assertEquals(384, region.h, 0);
+        assertEquals(2.f, region.scale, 0);
+    }
+
+    @Test
+    public void plan_keepsSmallFacesAtFullResolution() {
+        DetectionScheduler scheduler = new DetectionScheduler(2.f, 10);
+        scheduler.plan(WIDTH, HEIGHT);
+        scheduler.update(new float[][] { box(100, 100, 32, 32) });
+        assertEquals(1.f, scheduler.plan(WIDTH, HEIGHT).get(0).scale, 0);
+    }
+
+    @Test
+    public void plan_mergesOverlappingRegions() {
+        DetectionScheduler scheduler = new DetectionScheduler(2.f, 10);
+        scheduler.plan(WIDTH, HEIGHT);
+        scheduler.update(new float[][] { box(400, 400, 100, 100), box(550, 400, 50, 50) });
+        List<DetectionScheduler.Region> plan = scheduler.plan(WIDTH, HEIGHT);
+        assertEquals(1, plan.size());
+        assertEquals(1.f, plan.get(0).scale, 0);
+    }
+
+    @Test
+    public void plan_rescansFullFrameEveryInterval() {
+        DetectionScheduler scheduler = new DetectionScheduler(2.f, 3);
+        int fullScans = 0;
+        for (int i = 0; i < 9; i++) {
+            if (isFullScan(scheduler.plan(WIDTH, HEIGHT)))
+                fullScans++;
+            scheduler.update(new float[][] { box(800, 400, 100, 100) });
+        }
+        assertEquals(3, fullScans);
+        assertEquals(3, scheduler.fullScans());
+        assertEquals(6, scheduler.regionScans());
+    }
+
+    @Test
+    public void plan_fallsBackToFullScanWhenFaceIsLost() {
+        DetectionScheduler scheduler = new DetectionScheduler(2.f, 10);
+        scheduler.plan(WIDTH, HEIGHT);
+        scheduler.update(new float[][] { box(800, 400, 100, 100), box(100, 100, 100, 100) });
+        assertFalse(isFullScan(scheduler.plan(WIDTH, HEIGHT)));
+        scheduler.update(new float[][] { box(800, 400, 100, 100) });
+        assertTrue(isFullScan(scheduler.plan(WIDTH, HEIGHT)));
+    }
+
+    @Test
+    public void plan_fallsBackToFullScanForLargeCoverage() {
+        DetectionScheduler scheduler = new DetectionScheduler(2.f, 10);
+        scheduler.plan(WIDTH, HEIGHT);
+        scheduler.update(new float[][] { box(660, 240, 600, 600) });
+        assertTrue(isFullScan(scheduler.plan(WIDTH, HEIGHT)));
+    }
+}
@@ -0,0 +1,78 @@
+package bo.edu.cba.faceid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static bo.edu.cba.faceid.TestFeatures.randomFeature;
+import static org.junit.Assert.*;
+
+public class EmbeddingCodecTest {
+
+    @Test
+    public void float32_roundTripsExactly() {
+        float[] feature = randomFeature(new Random(1), 128);
+        byte[] encoded = EmbeddingCodec.encode(feature);
+        assertEquals(EmbeddingCodec.HEADER_SIZE + 128 * 4, encoded.length);
+        assertEquals(128, EmbeddingCodec.dim(encoded));
+        assertArrayEquals(feature, EmbeddingCodec.decode(encoded), 0.f);
+    }
+
+    @Test
+    public void float32_isLittleEndian() {
+        byte[] encoded = EmbeddingCodec.encode(new float[] { 1.0f });
+        int bits = Float.floatToIntBits(1.0f);
+        assertEquals((byte) bits, encoded[EmbeddingCodec.HEADER_SIZE]);
+        assertEquals((byte) (bits >>> 24), encoded[EmbeddingCodec.HEADER_SIZE + 3]);
+    }
+
+    @Test
+    public void int8_roundTripsWithinOneStep() {
+        float[] feature = randomFeature(new Random(2), 128);
+        byte[] encoded = EmbeddingCodec.encodeInt8(feature);
+        assertEquals(EmbeddingCodec.HEADER_SIZE + 4 + 128, encoded.length);
+
+        float maxAbs = 0.f;
+        for (float v : feature) {
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        assertArrayEquals(feature, EmbeddingCodec.decode(encoded), maxAbs / 254 + 1e-6f);
+    }
+
+    @Test
+    public void decode_writesAtOffset() {
+        float[] feature = randomFeature(new Random(3), 16);
+        float[] dst = new float[40];
+        assertEquals(16, EmbeddingCodec.decode(EmbeddingCodec.encode(feature), dst, 20));
+        assertEquals(0.f, dst[19], 0.f);
+        assertEquals(feature[0], dst[20], 0.f);
+        assertEquals(feature[15], dst[35], 0.f);
+    }
+
+    @Test
+    public void fromList_readsLegacyDoubles() {
+        float[] feature = randomFeature(new Random(4), 128);
+        List<Double> legacy = new ArrayList<>();
+        for (float v : feature) {
+            legacy.add((double) v);
+        }
+        assertArrayEquals(feature, EmbeddingCodec.fromList(legacy), 0.f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsTruncatedData() {
+        byte[] encoded = EmbeddingCodec.encode(new float[128]);
+        byte[] truncated = new byte[encoded.length - 4];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        EmbeddingCodec.decode(truncated);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsUnknownVersion() {
+        byte[] encoded = EmbeddingCodec.encode(new float[128]);
+        encoded[2] = 9;
+        EmbeddingCodec.decode(encoded);
+    }
+}
@@ -0,0 +1,92 @@
+package bo.edu.cba.faceid;
+
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.objdetect.FaceRecognizerSF;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static bo.edu.cba.faceid.TestFeatures.randomFeature;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class FaceBatchEmbedderTest {
+
+    private static final File MODEL = new File(System.getProperty("replay.models", "src/main/res/raw"),
+            "face_recognition_sface_2021dec.onnx");
+
+    @Test
+    public void normalizedDifference_acceptsSummationOrderRounding() {
+        Random random = new Random(1);
+        int dim = FaceGallery.DEFAULT_DIM;
+        float[] single = new float[4 * dim];
+        float[] batched = new float[single.length];
+        for (int i = 0; i < 4; i++) {
+            float[] feature = randomFeature(random, dim);
+            for (int k = 0; k < dim; k++) {
+                // Unnormalized, as the network outputs them, and a few ulps apart.
+                single[i * dim + k] = feature[k] * 7.f;
+                batched[i * dim + k] = single[i * dim + k] + 4 * Math.ulp(single[i * dim + k]);
+            }
+        }
+        double diff = FaceBatchEmbedder.normalizedDifference(batched, single, dim);
+        assertTrue(diff > 0);
+        assertTrue(diff <= FaceBatchEmbedder.BATCH_TOLERANCE);
+    }
+
+    @Test
+    public void normalizedDifference_catchesWrongFeatures() {
+        Random random = new Random(2);
+        int dim = FaceGallery.DEFAULT_DIM;
+        float[] a = randomFeature(random, dim);
+        float[] b = a.clone();
+        b[3] += 1e-2f;
+        assertTrue(FaceBatchEmbedder.normalizedDifference(a, b, dim) > FaceBatchEmbedder.BATCH_TOLERANCE);
+        assertEquals(Double.POSITIVE_INFINITY,
+                FaceBatchEmbedder.normalizedDifference(a, new float[dim - 1], dim), 0);
+    }
+
+    /** Needs {@code opencv.library} and the SFace model, see {@link ReplayBenchmarkTest}. */
+    @Test
+    public void embed_keepsBatchingOnTheSfaceModel() {
+        String library = System.getProperty("opencv.library");
+        assumeTrue("opencv.library not set", library != null);
+        assumeTrue(MODEL + " not found", MODEL.isFile());
+        System.load(new File(library).getAbsolutePath());
+
+        List<Mat> faces = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Mat face = new Mat(FaceBatchEmbedder.INPUT_SIZE, CvType.CV_8UC3);
+            Core.randu(face, 0, 256);
+            faces.add(face);
+        }
+        FaceBatchEmbedder embedder = new FaceBatchEmbedder(MODEL.getPath());
+        Mat features = new Mat();
+        embedder.embed(faces, features);
+        embedder.embed(faces, features);
+        assertTrue(embedder.isBatching());
+
+        FaceRecognizerSF recognizer = FaceRecognizerSF.create(MODEL.getPath(), "");
+        int dim = features.cols();
+        float[] batched = new float[dim];
+        float[] single = new float[dim];
+        Mat feature = new Mat();
+        for (int i = 0; i < faces.size(); i++) {
+            features.get(i, 0, batched);
+            recognizer.feature(faces.get(i), feature);
+            feature.get(0, 0, single);
+            assertTrue(FaceBatchEmbedder.normalizedDifference(batched, single, dim)
+                    <= FaceBatchEmbedder.BATCH_TOLERANCE);
+        }
+        feature.release();
+        features.release();
+        for (Mat face : faces) {
+            face.release();
+        }
+    }
+}
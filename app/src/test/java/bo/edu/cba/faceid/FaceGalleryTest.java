@@ -0,0 +1,105 @@
+package bo.edu.cba.faceid;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static bo.edu.cba.faceid.TestFeatures.randomFeature;
+import static org.junit.Assert.*;
+
+public class FaceGalleryTest {
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return dot / Math.sqrt(na * nb);
+    }
+
+    @Test
+    public void match_emptyGalleryReturnsNull() {
+        FaceGallery gallery = new FaceGallery();
+        assertNull(gallery.match(new float[FaceGallery.DEFAULT_DIM]));
+    }
+
+    @Test
+    public void match_returnsBestAndSecondBestByCosine() {
+        Random random = new Random(1);
+        FaceGallery gallery = new FaceGallery();
+        float[][] features = new float[200][];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = randomFeature(random, gallery.dim());
+            gallery.put("user" + i, features[i]);
+        }
+
+        float[] probe = features[42].clone();
+        for (int i = 0; i < probe.length; i++) {
+            probe[i] += 0.1f * (float) random.nextGaussian();
+        }
+
+        int best = -1, second = -1;
+        double bestScore = -2, secondScore = -2;
+        for (int i = 0; i < features.length; i++) {
+            double score = cosine(features[i], probe);
+            if (score > bestScore) {
+                second = best;
+                secondScore = bestScore;
+                best = i;
+                bestScore = score;
+            } else if (score > secondScore) {
+                second = i;
+                secondScore = score;
+            }
+        }
+
+        FaceGallery.Match match = gallery.match(probe);
+        assertEquals("user42", match.bestId);
+        assertEquals("user" + best, match.bestId);
+        assertEquals(bestScore, match.bestScore, 1e-4);
+        assertEquals("user" + second, match.secondId);
+        assertEquals(secondScore, match.secondScore, 1e-4);
+    }
+
+    @Test
+    public void put_replacesExistingIdentity() {
+        Random random = new Random(2);
+        FaceGallery gallery = new FaceGallery();
+        gallery.put("ana", randomFeature(random, gallery.dim()));
+        float[] updated = randomFeature(random, gallery.dim());
+        gallery.put("ana", updated);
+
+        assertEquals(1, gallery.size());
+        assertEquals(1.0, gallery.match(updated).bestScore, 1e-5);
+        assertNull(gallery.match(updated).secondId);
+    }
+
+    @Test
+    public void remove_keepsRemainingRowsAddressable() {
+        Random random = new Random(3);
+        FaceGallery gallery = new FaceGallery(8);
+        float[][] features = new float[100][];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = randomFeature(random, 8);
+            gallery.put("user" + i, features[i]);
+        }
+        for (int i = 0; i < features.length; i += 3) {
+            assertTrue(gallery.remove("user" + i));
+        }
+        assertFalse(gallery.remove("user0"));
+
+        for (int i = 0; i < features.length; i++) {
+            assertEquals(i % 3 != 0, gallery.contains("user" + i));
+            if (i % 3 != 0) {
+                assertEquals("user" + i, gallery.match(features[i]).bestId);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void put_rejectsWrongDimension() {
+        new FaceGallery().put("ana", new float[64]);
+    }
+}
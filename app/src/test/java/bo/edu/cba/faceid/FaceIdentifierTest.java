@@ -0,0 +1,73 @@
+package bo.edu.cba.faceid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FaceIdentifierTest {
+
+    private static float[] box(float x, float y, float w, float h) {
+        return new float[] { x, y, w, h };
+    }
+
+    private static FaceGallery gallery() {
+        FaceGallery gallery = new FaceGallery(2);
+        gallery.put("ana", new float[] { 1, 0 });
+        gallery.put("luis", new float[] { 0, 1 });
+        return gallery;
+    }
+
+    @Test
+    public void assign_withoutTrackerRecognizesEveryFace() {
+        FaceIdentifier identifier = new FaceIdentifier(gallery(), 0.5, null);
+        float[][] boxes = { box(0, 0, 10, 10), box(50, 0, 10, 10) };
+        for (int frame = 0; frame < 3; frame++) {
+            FaceIdentifier.Assignment assignment = identifier.assign(boxes, true);
+            assertArrayEquals(new int[] { 0, 1 }, assignment.pending);
+            assertNull(assignment.tracks[0]);
+            assertArrayEquals(boxes[1], assignment.boxes[1], 0);
+        }
+    }
+
+    @Test
+    public void assign_picksNothingWithEmptyGalleryOrWithoutRecognition() {
+        float[][] boxes = { box(0, 0, 10, 10) };
+        assertEquals(0, new FaceIdentifier(new FaceGallery(2), 0.5, null).assign(boxes, true).pending.length);
+        assertEquals(0, new FaceIdentifier(gallery(), 0.5, null).assign(boxes, false).pending.length);
+    }
+
+    @Test
+    public void identify_cachesIdentityOnTrack() {
+        FaceIdentifier identifier = new FaceIdentifier(gallery(), 0.5, new FaceTracker(0.5, null));
+        float[][] boxes = { box(0, 0, 100, 100) };
+
+        FaceIdentifier.Assignment first = identifier.assign(boxes, true);
+        assertArrayEquals(new int[] { 0 }, first.pending);
+        identifier.identify(first, 0, new float[] { 0.1f, 1 });
+        assertEquals("luis", first.names[0]);
+
+        FaceIdentifier.Assignment second = identifier.assign(new float[][] { box(4, 2, 100, 100) }, true);
+        assertEquals(0, second.pending.length);
+        assertEquals("luis", second.names[0]);
+        assertEquals(first.scores[0], second.scores[0], 0);
+        assertEquals(4, second.boxes[0][0], 0);
+    }
+
+    @Test
+    public void identify_reportsUnknownBelowThreshold() {
+        FaceIdentifier identifier = new FaceIdentifier(gallery(), 0.9, null);
+        FaceIdentifier.Assignment assignment = identifier.assign(new float[][] { box(0, 0, 10, 10) }, true);
+        identifier.identify(assignment, 0, new float[] { 1, 1 });
+        assertNull(assignment.names[0]);
+        assertEquals(Math.sqrt(0.5), assignment.scores[0], 1e-6);
+    }
+
+    @Test
+    public void abandon_retriesFaceOnNextFrame() {
+        FaceIdentifier identifier = new FaceIdentifier(gallery(), 0.5, new FaceTracker(0.5, null));
+        float[][] boxes = { box(0, 0, 100, 100) };
+        FaceIdentifier.Assignment first = identifier.assign(boxes, true);
+        identifier.abandon(first, 0);
+        assertArrayEquals(new int[] { 0 }, identifier.assign(boxes, true).pending);
+    }
+}
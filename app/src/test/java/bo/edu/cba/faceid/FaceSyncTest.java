@@ -0,0 +1,187 @@
+package bo.edu.cba.faceid;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FaceSyncTest {
+
+    private static final int DIM = 8;
+
+    /** In-memory stand-in for the UserFace class. */
+    private static class FakeSource implements FaceSync.Source {
+        final Map<String, FaceSync.Record> rows = new LinkedHashMap<>();
+        int fetches;
+        boolean failing;
+
+        void save(String objectId, String name, float[] feature, long updatedAt) {
+            rows.put(objectId, new FaceSync.Record(objectId, name, feature, updatedAt, false));
+        }
+
+        void softDelete(String objectId, long updatedAt) {
+            FaceSync.Record old = rows.get(objectId);
+            rows.put(objectId, new FaceSync.Record(objectId, old.name, null, updatedAt, true));
+        }
+
+        @Override
+        public List<FaceSync.Record> fetch(long since, int skip, int limit) throws Exception {
+            fetches++;
+            if (failing)
+                throw new Exception("offline");
+            List<FaceSync.Record> matching = new ArrayList<>();
+            for (FaceSync.Record record : rows.values()) {
+                if (record.updatedAt >= since)
+                    matching.add(record);
+            }
+            matching.sort(Comparator.<FaceSync.Record>comparingLong(r -> r.updatedAt).thenComparing(r -> r.objectId));
+            return new ArrayList<>(matching.subList(Math.min(skip, matching.size()),
+                    Math.min(skip + limit, matching.size())));
+        }
+    }
+
+    private final Random mRandom = new Random(1);
+    private FakeSource mSource;
+    private FaceGallery mGallery;
+    private FaceSync mSync;
+
+    @Before
+    public void setUp() {
+        mSource = new FakeSource();
+        mGallery = new FaceGallery(DIM);
+        mSync = new FaceSync(mSource, mGallery, 3);
+    }
+
+    private float[] feature() {
+        float[] v = new float[DIM];
+        for (int i = 0; i < DIM; i++) {
+            v[i] = (float) mRandom.nextGaussian();
+        }
+        return v;
+    }
+
+    @Test
+    public void sync_pagesThroughAllRows() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            mSource.save("id" + i, "user" + i, feature(), 1000 + i);
+        }
+        FaceSync.Result result = mSync.sync(0);
+
+        assertEquals(10, mGallery.size());
+        assertEquals(10, result.upserted.size());
+        assertEquals(1009, result.highWater);
+    }
+
+    @Test
+    public void sync_appliesOnlyNewerChanges() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            mSource.save("id" + i, "user" + i, feature(), 1000 + i);
+        }
+        long highWater = mSync.sync(0).highWater;
+
+        float[] updated = feature();
+        mSource.save("id2", "user2", updated, 2000);
+        mSource.save("id9", "user9", feature(), 2001);
+        FaceSync.Result result = mSync.sync(highWater);
+
+        assertEquals(2, result.upserted.size());
+        assertEquals(6, mGallery.size());
+        assertEquals("user2", mGallery.match(updated).bestId);
+        assertEquals(1.0, mGallery.match(updated).bestScore, 1e-5);
+        assertEquals(2001, result.highWater);
+    }
+
+    @Test
+    public void sync_handlesRenamesAndDeletes() throws Exception {
+        mSource.save("a", "ana", feature(), 1);
+        mSource.save("b", "beto", feature(), 2);
+        long highWater = mSync.sync(0).highWater;
+
+        mSource.save("a", "ana maria", mSource.rows.get("a").feature, 3);
+        mSource.softDelete("b", 4);
+        FaceSync.Result result = mSync.sync(highWater);
+
+        assertEquals(1, mGallery.size());
+        assertTrue(mGallery.contains("ana maria"));
+        assertFalse(mGallery.contains("ana"));
+        assertFalse(mGallery.contains("beto"));
+        assertEquals(1, result.deleted.size());
+        assertEquals("b", result.deleted.get(0));
+    }
+
+    @Test
+    public void sync_deletesRowsTrackedFromLocalCache() throws Exception {
+        mGallery.put("carla", feature());
+        mSync.track("c", "carla");
+        mSource.save("c", "carla", feature(), 10);
+        mSource.softDelete("c", 11);
+
+        mSync.sync(5);
+        assertTrue(mGallery.isEmpty());
+    }
+
+    @Test
+    public void sync_doesNotSkipTiesAcrossPages() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            mSource.save("id" + i, "user" + i, feature(), 500);
+        }
+        mSource.save("late", "late", feature(), 600);
+
+        FaceSync.Result result = mSync.sync(0);
+        assertEquals(9, mGallery.size());
+        assertEquals(600, result.highWater);
+    }
+
+    @Test
+    public void sync_leavesGalleryUntouchedOnFailure() throws Exception {
+        mSource.save("a", "ana", feature(), 1);
+        mSync.sync(0);
+
+        mSource.save("b", "beto", feature(), 2);
+        mSource.failing = true;
+        try {
+            mSync.sync(1);
+            fail("Expected the fetch to fail");
+        } catch (Exception expected) {
+        }
+        assertEquals(1, mGallery.size());
+    }
+
+    @Test
+    public void apply_isAtomicForConcurrentMatches() throws Exception {
+        float[] probe = feature();
+        mGallery.put("ana", probe);
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread matcher = new Thread(() -> {
+            try {
+                for (int i = 0; i < 20000; i++) {
+                    FaceGallery.Match match = mGallery.match(probe);
+                    assertNotNull(match);
+                    assertTrue(match.bestId, match.bestId.equals("ana") || match.bestId.equals("ana maria"));
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        matcher.start();
+        for (int i = 0; i < 2000; i++) {
+            Map<String, float[]> puts = new LinkedHashMap<>();
+            puts.put(i % 2 == 0 ? "ana maria" : "ana", probe);
+            List<String> removals = new ArrayList<>();
+            removals.add(i % 2 == 0 ? "ana" : "ana maria");
+            mGallery.apply(puts, removals);
+        }
+        matcher.join();
+        if (failure.get() != null)
+            throw new AssertionError("Matcher thread failed", failure.get());
+    }
+}
@@ -0,0 +1,101 @@
+package bo.edu.cba.faceid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FaceTrackerTest {
+
+    private static float[] box(float x, float y, float w, float h) {
+        return new float[] { x, y, w, h };
+    }
+
+    @Test
+    public void update_keepsTrackIdsForOverlappingBoxes() {
+        FaceTracker tracker = new FaceTracker(0.5, null);
+        FaceTracker.Track[] first = tracker.update(new float[][] { box(0, 0, 100, 100), box(300, 0, 100, 100) });
+        FaceTracker.Track[] second = tracker.update(new float[][] { box(305, 5, 100, 100), box(8, 4, 100, 100) });
+
+        assertEquals(first[0].id, second[1].id);
+        assertEquals(first[1].id, second[0].id);
+        assertEquals(8, second[1].x, 0);
+        assertEquals(2, tracker.size());
+    }
+
+    @Test
+    public void update_startsNewTrackForDistantBox() {
+        FaceTracker tracker = new FaceTracker(0.5, null);
+        FaceTracker.Track[] first = tracker.update(new float[][] { box(0, 0, 100, 100) });
+        FaceTracker.Track[] second = tracker.update(new float[][] { box(500, 500, 100, 100) });
+        assertNotEquals(first[0].id, second[0].id);
+        assertEquals(2, tracker.size());
+    }
+
+    @Test
+    public void update_dropsTracksAfterMaxMissed() {
+        FaceTracker tracker = new FaceTracker(0.3f, 2, 30, 3, 0.5, null);
+        tracker.update(new float[][] { box(0, 0, 100, 100) });
+        tracker.update(new float[0][]);
+        tracker.update(new float[0][]);
+        assertEquals(1, tracker.size());
+        tracker.update(new float[0][]);
+        assertEquals(0, tracker.size());
+    }
+
+    @Test
+    public void claimRecognition_onlyForNewStaleOrUncertainTracks() {
+        FaceTracker tracker = new FaceTracker(0.3f, 5, 10, 3, 0.5, null);
+        float[][] boxes = { box(0, 0, 100, 100) };
+
+        FaceTracker.Track track = tracker.update(boxes)[0];
+        assertTrue(tracker.claimRecognition(track));
+        assertFalse("Already in flight", tracker.claimRecognition(track));
+        tracker.recognized(track, "ana", 0.8);
+
+        int embeddings = 0;
+        for (int frame = 0; frame < 100; frame++) {
+            track = tracker.update(boxes)[0];
+            assertEquals("ana", tracker.name(track));
+            if (tracker.claimRecognition(track)) {
+                embeddings++;
+                tracker.recognized(track, "ana", 0.8);
+            }
+        }
+        assertEquals(10, embeddings);
+    }
+
+    @Test
+    public void claimRecognition_retriesLowConfidenceSooner() {
+        FaceTracker tracker = new FaceTracker(0.3f, 5, 30, 3, 0.5, null);
+        float[][] boxes = { box(0, 0, 100, 100) };
+        FaceTracker.Track track = tracker.update(boxes)[0];
+        tracker.claimRecognition(track);
+        tracker.recognized(track, null, 0.2);
+
+        int embeddings = 0;
+        for (int frame = 0; frame < 30; frame++) {
+            track = tracker.update(boxes)[0];
+            if (tracker.claimRecognition(track)) {
+                embeddings++;
+                tracker.recognized(track, null, 0.2);
+            }
+        }
+        assertEquals(10, embeddings);
+    }
+
+    @Test
+    public void abandoned_allowsImmediateRetry() {
+        FaceTracker tracker = new FaceTracker(0.5, null);
+        FaceTracker.Track track = tracker.update(new float[][] { box(0, 0, 10, 10) })[0];
+        assertTrue(tracker.claimRecognition(track));
+        tracker.abandoned(track);
+        assertTrue(tracker.claimRecognition(track));
+    }
+
+    @Test
+    public void iou_ofIdenticalAndDisjointBoxes() {
+        assertEquals(1.f, FaceTracker.iou(0, 0, 10, 10, box(0, 0, 10, 10)), 1e-6f);
+        assertEquals(0.f, FaceTracker.iou(0, 0, 10, 10, box(20, 20, 10, 10)), 1e-6f);
+        assertEquals(1.f / 3, FaceTracker.iou(0, 0, 10, 10, box(5, 0, 10, 10)), 1e-6f);
+    }
+}
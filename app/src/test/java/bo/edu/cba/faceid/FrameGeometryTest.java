@@ -0,0 +1,62 @@
+package bo.edu.cba.faceid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameGeometryTest {
+
+    private static float[] box(float x, float y, float w, float h) {
+        return new float[] { x, y, w, h };
+    }
+
+    @Test
+    public void boxToDisplay_rotatesClockwise() {
+        // 40x20 sensor image; a box in its top-left corner ends up top-right after 90 degrees.
+        FrameGeometry geometry = new FrameGeometry(40, 20, 90, false);
+        float[] b = box(0, 0, 10, 5);
+        geometry.boxToDisplay(b, 0);
+        assertArrayEquals(box(15, 0, 5, 10), b, 0);
+        assertEquals(20, geometry.displayWidth());
+        assertEquals(40, geometry.displayHeight());
+    }
+
+    @Test
+    public void boxToDisplay_mirrorsAfterRotation() {
+        FrameGeometry geometry = new FrameGeometry(40, 20, 0, true);
+        float[] b = box(2, 3, 10, 5);
+        geometry.boxToDisplay(b, 0);
+        assertArrayEquals(box(28, 3, 10, 5), b, 0);
+    }
+
+    @Test
+    public void boxToSensor_invertsBoxToDisplay() {
+        int[] rotations = { 0, 90, 180, 270 };
+        for (int rotation : rotations) {
+            for (boolean mirror : new boolean[] { false, true }) {
+                FrameGeometry geometry = new FrameGeometry(64, 48, rotation, mirror);
+                float[] b = { -1, 7, 3, 12, 9 };
+                geometry.boxToDisplay(b, 1);
+                geometry.boxToSensor(b, 1);
+                assertArrayEquals("rotation " + rotation + " mirror " + mirror,
+                        new float[] { -1, 7, 3, 12, 9 }, b, 1e-6f);
+            }
+        }
+    }
+
+    @Test
+    public void sensorRect_alignsToEvenCoordinatesAndClips() {
+        FrameGeometry geometry = new FrameGeometry(64, 48, 0, false);
+        int[] rect = new int[4];
+        assertTrue(geometry.sensorRect(box(3, 5, 10, 10), rect));
+        assertArrayEquals(new int[] { 2, 4, 14, 16 }, rect);
+        assertTrue(geometry.sensorRect(box(-10, 40, 30, 30), rect));
+        assertArrayEquals(new int[] { 0, 40, 20, 48 }, rect);
+        assertFalse(geometry.sensorRect(box(70, 0, 10, 10), rect));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsOddRotation() {
+        new FrameGeometry(10, 10, 45, false);
+    }
+}
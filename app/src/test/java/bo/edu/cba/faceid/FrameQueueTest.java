@@ -0,0 +1,71 @@
+package bo.edu.cba.faceid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameQueueTest {
+
+    private final List<Integer> mDropped = new ArrayList<>();
+
+    private FrameQueue<Integer> queue(int capacity, FrameQueue.DropPolicy policy) {
+        return new FrameQueue<>(capacity, policy, mDropped::add);
+    }
+
+    @Test
+    public void dropOldest_keepsLatestItems() throws Exception {
+        FrameQueue<Integer> queue = queue(2, FrameQueue.DropPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertEquals(3, queue.dropped());
+        assertEquals(3, mDropped.size());
+        assertEquals(Integer.valueOf(3), queue.take());
+        assertEquals(Integer.valueOf(4), queue.take());
+    }
+
+    @Test
+    public void dropNewest_rejectsWhenFull() throws Exception {
+        FrameQueue<Integer> queue = queue(2, FrameQueue.DropPolicy.DROP_NEWEST);
+        assertTrue(queue.offer(0));
+        assertTrue(queue.offer(1));
+        assertFalse(queue.offer(2));
+        assertEquals(1, queue.dropped());
+        assertEquals(Integer.valueOf(2), mDropped.get(0));
+        assertEquals(Integer.valueOf(0), queue.take());
+    }
+
+    @Test
+    public void block_waitsForConsumer() throws Exception {
+        FrameQueue<Integer> queue = queue(1, FrameQueue.DropPolicy.BLOCK);
+        queue.offer(0);
+        Thread producer = new Thread(() -> {
+            try {
+                queue.offer(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+
+        assertEquals(Integer.valueOf(0), queue.take());
+        producer.join();
+        assertEquals(Integer.valueOf(1), queue.take());
+        assertEquals(0, queue.dropped());
+    }
+
+    @Test
+    public void close_wakesConsumerAndDropsQueuedItems() throws Exception {
+        FrameQueue<Integer> queue = queue(4, FrameQueue.DropPolicy.DROP_OLDEST);
+        queue.offer(7);
+        queue.close();
+        assertNull(queue.take());
+        assertFalse(queue.offer(8));
+        assertEquals(2, mDropped.size());
+    }
+}
@@ -0,0 +1,150 @@
+package bo.edu.cba.faceid;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static bo.edu.cba.faceid.TestFeatures.noisy;
+import static bo.edu.cba.faceid.TestFeatures.randomFeature;
+import static org.junit.Assert.*;
+
+public class HnswFaceGalleryTest {
+
+    private static HnswFaceGallery gallery(float[][] features) {
+        HnswFaceGallery gallery = new HnswFaceGallery();
+        gallery.setExactThreshold(0);
+        for (int i = 0; i < features.length; i++) {
+            gallery.put("user" + i, features[i]);
+        }
+        return gallery;
+    }
+
+    @Test
+    public void match_recallAgainstExactScan() {
+        Random random = new Random(11);
+        float[][] features = new float[5000][];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = randomFeature(random, FaceGallery.DEFAULT_DIM);
+        }
+        HnswFaceGallery gallery = gallery(features);
+
+        int probes = 300, hits = 0;
+        for (int i = 0; i < probes; i++) {
+            int id = random.nextInt(features.length);
+            float[] probe = noisy(random, features[id], 1.0f);
+            gallery.setExact(true);
+            FaceGallery.Match expected = gallery.match(probe);
+            gallery.setExact(false);
+            FaceGallery.Match actual = gallery.match(probe);
+            if (expected.bestId.equals(actual.bestId)) {
+                hits++;
+                assertEquals(expected.bestScore, actual.bestScore, 1e-4);
+            }
+        }
+        assertTrue("Recall " + hits + "/" + probes, hits >= probes * 0.98);
+    }
+
+    @Test
+    public void remove_excludesDeletedIdentities() {
+        Random random = new Random(12);
+        float[][] features = new float[1000][];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = randomFeature(random, FaceGallery.DEFAULT_DIM);
+        }
+        HnswFaceGallery gallery = gallery(features);
+
+        for (int i = 0; i < features.length; i += 4) {
+            assertTrue(gallery.remove("user" + i));
+        }
+        for (int i = 0; i < features.length; i++) {
+            FaceGallery.Match match = gallery.match(features[i]);
+            if (i % 4 == 0) {
+                assertNotEquals("user" + i, match.bestId);
+            } else {
+                assertEquals("user" + i, match.bestId);
+            }
+        }
+    }
+
+    @Test
+    public void remove_rebuildsOnceTombstonesDominate() {
+        Random random = new Random(13);
+        float[][] features = new float[400][];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = randomFeature(random, FaceGallery.DEFAULT_DIM);
+        }
+        HnswFaceGallery gallery = gallery(features);
+
+        for (int i = 0; i < 300; i++) {
+            gallery.remove("user" + i);
+        }
+        assertEquals(100, gallery.size());
+        for (int i = 300; i < features.length; i++) {
+            assertEquals("user" + i, gallery.match(features[i]).bestId);
+        }
+    }
+
+    @Test
+    public void put_updatesExistingIdentityInPlace() {
+        Random random = new Random(14);
+        float[][] features = new float[200][];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = randomFeature(random, FaceGallery.DEFAULT_DIM);
+        }
+        HnswFaceGallery gallery = gallery(features);
+
+        float[] updated = randomFeature(random, FaceGallery.DEFAULT_DIM);
+        gallery.put("user5", updated);
+        assertEquals(200, gallery.size());
+        assertEquals("user5", gallery.match(updated).bestId);
+        assertNotEquals("user5", gallery.match(features[5]).bestId);
+    }
+
+    @Test
+    public void memoryBytes_holdsEachVectorOnce() {
+        Random random = new Random(16);
+        float[][] features = new float[200][];
+        FaceGallery exact = new FaceGallery();
+        for (int i = 0; i < features.length; i++) {
+            features[i] = randomFeature(random, FaceGallery.DEFAULT_DIM);
+            exact.put("user" + i, features[i]);
+        }
+        HnswFaceGallery gallery = gallery(features);
+
+        assertEquals(exact.memoryBytes(), gallery.memoryBytes());
+        assertArrayEquals(exact.get("user7"), gallery.get("user7"), 0.f);
+        assertNull(gallery.get("nobody"));
+    }
+
+    @Test
+    public void put_rebuildsOnceReplacedRowsDominate() {
+        Random random = new Random(17);
+        float[][] features = new float[100][];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = randomFeature(random, FaceGallery.DEFAULT_DIM);
+        }
+        HnswFaceGallery gallery = gallery(features);
+        long bytes = gallery.memoryBytes();
+
+        for (int i = 0; i < 1000; i++) {
+            features[i % 100] = randomFeature(random, FaceGallery.DEFAULT_DIM);
+            gallery.put("user" + (i % 100), features[i % 100]);
+        }
+        // Without compaction the graph would hold 1100 vectors.
+        assertTrue(gallery.memoryBytes() <= 2 * bytes);
+        for (int i = 0; i < features.length; i++) {
+            assertEquals("user" + i, gallery.match(features[i]).bestId);
+        }
+    }
+
+    @Test
+    public void clear_resetsIndex() {
+        Random random = new Random(15);
+        HnswFaceGallery gallery = gallery(new float[][] { randomFeature(random, 128), randomFeature(random, 128) });
+        gallery.clear();
+        assertNull(gallery.match(randomFeature(random, 128)));
+        float[] feature = randomFeature(random, 128);
+        gallery.put("ana", feature);
+        assertEquals("ana", gallery.match(feature).bestId);
+    }
+}
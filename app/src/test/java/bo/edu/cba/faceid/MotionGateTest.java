@@ -0,0 +1,79 @@
+package bo.edu.cba.faceid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MotionGateTest {
+
+    private static final float STILL  = 0.f;
+    private static final float MOVING = 0.1f;
+
+    /** A gate that has gone to sleep on a static scene. */
+    private static MotionGate asleep(int holdFrames, int idleInterval) {
+        MotionGate gate = new MotionGate(0.01f, holdFrames, idleInterval);
+        for (int i = 0; i < holdFrames; i++) {
+            assertTrue(gate.admit(STILL));
+        }
+        assertFalse(gate.isAwake());
+        return gate;
+    }
+
+    @Test
+    public void admit_detectsWhileTheBackgroundSettles() {
+        MotionGate gate = new MotionGate(0.01f, 5, 10);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(gate.admit(STILL));
+        }
+        assertFalse(gate.admit(STILL));
+    }
+
+    @Test
+    public void admit_throttlesStaticScene() {
+        MotionGate gate = asleep(3, 4);
+        int detected = 0;
+        for (int i = 0; i < 12; i++) {
+            if (gate.admit(STILL))
+                detected++;
+        }
+        assertEquals(3, detected);
+    }
+
+    @Test
+    public void admit_wakesOnMotionImmediately() {
+        MotionGate gate = asleep(3, 100);
+        assertFalse(gate.admit(STILL));
+        assertTrue(gate.admit(MOVING));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(gate.admit(STILL));
+        }
+        assertFalse(gate.admit(STILL));
+    }
+
+    @Test
+    public void update_keepsGateAwakeWhileFacesAreInView() {
+        MotionGate gate = asleep(3, 100);
+        assertTrue(gate.admit(MOVING));
+        for (int i = 0; i < 20; i++) {
+            gate.update(1);
+            assertTrue(gate.admit(STILL));
+        }
+        gate.update(0);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(gate.admit(STILL));
+        }
+        assertFalse(gate.admit(STILL));
+    }
+
+    @Test
+    public void dutyCycle_isFractionOfDetectedFrames() {
+        MotionGate gate = new MotionGate(0.01f, 0, 4);
+        assertEquals(1.f, gate.dutyCycle(), 0);
+        for (int i = 0; i < 8; i++) {
+            gate.admit(STILL);
+        }
+        assertEquals(2, gate.detectedFrames());
+        assertEquals(6, gate.skippedFrames());
+        assertEquals(0.25f, gate.dutyCycle(), 1e-6f);
+    }
+}
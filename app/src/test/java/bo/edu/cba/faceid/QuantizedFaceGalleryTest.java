@@ -0,0 +1,129 @@
+package bo.edu.cba.faceid;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static bo.edu.cba.faceid.TestFeatures.noisy;
+import static bo.edu.cba.faceid.TestFeatures.randomFeature;
+import static org.junit.Assert.*;
+
+public class QuantizedFaceGalleryTest {
+
+    @Test
+    public void quantize_roundTripsWithinOneStep() {
+        Random random = new Random(1);
+        float[] feature = randomFeature(random, FaceGallery.DEFAULT_DIM);
+        byte[] codes = new byte[feature.length];
+        float scale = QuantizedFaceGallery.quantize(feature, 0, feature.length, codes, 0);
+        for (int i = 0; i < feature.length; i++) {
+            assertEquals(feature[i], codes[i] * scale, scale / 2 + 1e-6f);
+        }
+    }
+
+    @Test
+    public void match_agreesWithFloatGalleryOnNoisyProbes() {
+        Random random = new Random(7);
+        FaceGallery exact = new FaceGallery();
+        QuantizedFaceGallery quantized = new QuantizedFaceGallery();
+        int people = 2000;
+        float[][] features = new float[people][];
+        for (int i = 0; i < people; i++) {
+            features[i] = randomFeature(random, exact.dim());
+            exact.put("user" + i, features[i]);
+            quantized.put("user" + i, features[i]);
+        }
+
+        int probes = 500, agreed = 0;
+        for (int i = 0; i < probes; i++) {
+            float[] probe = noisy(random, features[random.nextInt(people)], 1.2f);
+            FaceGallery.Match expected = exact.match(probe);
+            FaceGallery.Match actual = quantized.match(probe);
+            if (expected.bestId.equals(actual.bestId)) {
+                agreed++;
+                assertEquals(expected.bestScore, actual.bestScore, 1e-3);
+            }
+        }
+        assertTrue("Agreement " + agreed + "/" + probes, agreed >= probes * 0.99);
+    }
+
+    @Test
+    public void match_followsRowMovesOnRemove() {
+        Random random = new Random(3);
+        QuantizedFaceGallery gallery = new QuantizedFaceGallery(32, 4);
+        float[][] features = new float[300][];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = randomFeature(random, 32);
+            gallery.put("user" + i, features[i]);
+        }
+        for (int i = 0; i < features.length; i += 2) {
+            gallery.remove("user" + i);
+        }
+        for (int i = 1; i < features.length; i += 2) {
+            assertEquals("user" + i, gallery.match(features[i]).bestId);
+        }
+    }
+
+    @Test
+    public void memoryBytes_scanReadsAQuarterOfTheFloatGallery() {
+        Random random = new Random(5);
+        FaceGallery exact = new FaceGallery();
+        QuantizedFaceGallery quantized = new QuantizedFaceGallery();
+        for (int i = 0; i < 1000; i++) {
+            float[] feature = randomFeature(random, exact.dim());
+            exact.put("user" + i, feature);
+            quantized.put("user" + i, feature);
+        }
+        // One float scale per 128-byte row.
+        assertEquals(exact.memoryBytes() * 132 / 512, quantized.scanBytes());
+        assertTrue(quantized.memoryBytes() < exact.memoryBytes());
+    }
+
+    @Test
+    public void get_returnsTheNormalizedFeatureAtHalfPrecision() {
+        Random random = new Random(11);
+        FaceGallery exact = new FaceGallery();
+        QuantizedFaceGallery quantized = new QuantizedFaceGallery();
+        float[] feature = randomFeature(random, exact.dim());
+        exact.put("user", feature);
+        quantized.put("user", feature);
+        assertArrayEquals(exact.get("user"), quantized.get("user"), 1e-3f);
+        assertNull(quantized.get("nobody"));
+    }
+
+    @Test
+    public void match_scalesEachRowOnItsOwn() {
+        // Rows with very different ranges: a shared scale would flatten the small one to zeros.
+        QuantizedFaceGallery gallery = new QuantizedFaceGallery(4, 2);
+        gallery.put("flat", new float[]{1, 1, 1, 1});
+        gallery.put("peaked", new float[]{0, 0, 0, 1});
+        gallery.put("other", new float[]{1, 0, 0, 0});
+        gallery.put("small", new float[]{1e-3f, -1e-3f, 2e-3f, 0});
+        assertEquals("flat", gallery.match(new float[]{1, 1, 1, 1}).bestId);
+        assertEquals("peaked", gallery.match(new float[]{0, 0, 0, 1}).bestId);
+        assertEquals("other", gallery.match(new float[]{1, 0, 0, 0}).bestId);
+        FaceGallery.Match small = gallery.match(new float[]{1, -1, 2, 0});
+        assertEquals("small", small.bestId);
+        assertEquals(1.0, small.bestScore, 1e-3);
+    }
+
+    @Test
+    public void toHalf_roundsToNearestHalf() {
+        assertEquals(0x3c00, QuantizedFaceGallery.toHalf(1.f));
+        assertEquals((short) 0xc000, QuantizedFaceGallery.toHalf(-2.f));
+        assertEquals(0x0000, QuantizedFaceGallery.toHalf(0.f));
+        assertEquals(0x7c00, QuantizedFaceGallery.toHalf(1e6f));
+        assertEquals(0x0001, QuantizedFaceGallery.toHalf(0x1p-24f));
+        assertEquals(0x3c00, QuantizedFaceGallery.toHalf(1.f + 0x1p-11f));
+        assertEquals(0x3c01, QuantizedFaceGallery.toHalf(1.f + 0x1p-11f + 0x1p-20f));
+        assertTrue(Float.isNaN(QuantizedFaceGallery.fromHalf(QuantizedFaceGallery.toHalf(Float.NaN))));
+
+        Random random = new Random(17);
+        for (int i = 0; i < 10000; i++) {
+            float value = (float) random.nextGaussian() * (i % 2 == 0 ? 0.1f : 1e-5f);
+            float roundTrip = QuantizedFaceGallery.fromHalf(QuantizedFaceGallery.toHalf(value));
+            float step = Math.max(Math.abs(value) * 0x1p-10f, 0x1p-24f);
+            assertEquals(value, roundTrip, step / 2);
+        }
+    }
+}
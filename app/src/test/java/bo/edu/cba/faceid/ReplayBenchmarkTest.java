@@ -0,0 +1,67 @@
+package bo.edu.cba.faceid;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * End-to-end benchmark over recorded sequences, see {@link ReplayHarness}. Skipped unless both
+ * system properties are set:
+ * <ul>
+ * <li>{@code opencv.library}: path of a desktop build of the OpenCV Java native library matching
+ * the bundled bindings, e.g. {@code libopencv_java4xx.so};
+ * <li>{@code replay.dir}: the sequence directory.
+ * </ul>
+ * {@code replay.minFps}, {@code replay.minPrecision} and {@code replay.minRecall} turn the report
+ * into a regression check, for example
+ * {@code ./gradlew :app:testDebugUnitTest --tests '*ReplayBenchmarkTest' -Dopencv.library=... -Dreplay.dir=... -Dreplay.minFps=15}.
+ */
+public class ReplayBenchmarkTest {
+
+    private static final File MODEL_DIR = new File(System.getProperty("replay.models", "src/main/res/raw"));
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        String library = System.getProperty("opencv.library");
+        assumeTrue("opencv.library not set", library != null);
+        System.load(new File(library).getAbsolutePath());
+    }
+
+    private static RecognitionPipeline.Config config() {
+        // Mirrors MainActivity.startPipelineIfReady; keep the two in sync.
+        RecognitionPipeline.Config config = new RecognitionPipeline.Config();
+        config.frameQueueDepth = 2;
+        config.recognitionThreads = 2;
+        config.scale = 2.f;
+        config.cosThreshold = 0.363;
+        config.adaptiveDetection = true;
+        config.fullScanInterval = 10;
+        config.motionSubtractor = RecognitionPipeline.MOG2;
+        return config;
+    }
+
+    private static void assertAtLeast(String property, double actual) {
+        String min = System.getProperty(property);
+        if (min != null)
+            assertTrue(property + ": " + actual + " < " + min, actual >= Double.parseDouble(min));
+    }
+
+    @Test
+    public void replay() throws Exception {
+        String dir = System.getProperty("replay.dir");
+        assumeTrue("replay.dir not set", dir != null);
+
+        ReplayHarness.Report report = new ReplayHarness(MODEL_DIR, config(), true).run(new File(dir));
+        // The report is what the benchmark is run for, so it goes to stdout rather than a log.
+        System.out.println(report);
+
+        assertEquals(0, report.droppedFrames);
+        assertAtLeast("replay.minFps", report.fps());
+        assertAtLeast("replay.minPrecision", report.precision());
+        assertAtLeast("replay.minRecall", report.recall());
+    }
+}
@@ -0,0 +1,356 @@
+package bo.edu.cba.faceid;
+
+import org.opencv.android.FrameMetrics;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.FaceDetectorYN;
+import org.opencv.objdetect.FaceRecognizerSF;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a recorded frame sequence through {@link RecognitionPipeline} on a desktop JVM, with the
+ * same detection, alignment, embedding and matching code the app runs in
+ * {@code MainActivity.onCameraFrame}, and reports throughput, per-stage latency and
+ * identification accuracy.
+ *
+ * <p>A sequence is a directory holding:
+ * <ul>
+ * <li>frames, replayed in file name order: images ({@code .jpg}, {@code .png}, {@code .bmp}) are
+ * submitted like RGBA camera frames, raw NV21 dumps ({@code .nv21}) are submitted as YUV planes;
+ * <li>{@code sequence.properties}, required for NV21 dumps: {@code width}, {@code height} and
+ * optionally {@code rotation} and {@code mirror}, as passed to {@link RecognitionPipeline#submitYuv};
+ * <li>{@code gallery/}, one image per identity named {@code <name>.<ext>}, enrolled from its
+ * largest face;
+ * <li>{@code labels.txt}, optional, with lines {@code <frame file> <name>[,<name>...]} listing the
+ * identities visible in a frame, or {@code -} for none. Unlisted frames are not scored.
+ * </ul>
+ *
+ * <p>Frames are decoded before the run starts so that file I/O is not measured. The pipeline uses
+ * {@link FrameQueue.DropPolicy#BLOCK}, so no frame is dropped and throughput is bounded by the
+ * pipeline rather than by a camera frame rate. With motion gating, frames the gate skips are
+ * scored with the results of the frame before them, as the app would still show those.
+ */
+public class ReplayHarness {
+
+    private static final String   DETECTOR_MODEL      = "face_detection_yunet_2023mar.onnx";
+    private static final String   RECOGNIZER_MODEL    = "face_recognition_sface_2021dec.onnx";
+    private static final Size     DETECTOR_INPUT_SIZE = new Size(320, 320);
+    private static final String[] IMAGE_SUFFIXES      = { ".jpg", ".jpeg", ".png", ".bmp" };
+    private static final String   NV21_SUFFIX         = ".nv21";
+    private static final String   NO_FACES            = "-";
+    private static final long     TIMEOUT_SECONDS     = 600;
+
+    public static class Report {
+        public int                   frames;
+        public long                  elapsedNs;
+        /** Stage latencies and counters recorded by the pipeline. */
+        public FrameMetrics.Snapshot metrics;
+        public long                  droppedFrames;
+        /** Frames motion gating kept from the detector; scored with the results before them. */
+        public long                  skippedFrames;
+        public long                  detectedFaces;
+        public long                  embeddedFaces;
+        public int                   labeledFrames;
+        /** Labeled identities that were reported. */
+        public long                  truePositives;
+        /** Reported identities that were not labeled on their frame. */
+        public long                  falsePositives;
+        /** Labeled identities that were not reported. */
+        public long                  misses;
+
+        public double fps() {
+            return elapsedNs > 0 ? frames * 1e9 / elapsedNs : 0;
+        }
+
+        public double precision() {
+            long reported = truePositives + falsePositives;
+            return reported > 0 ? (double) truePositives / reported : 1;
+        }
+
+        public double recall() {
+            long labeled = truePositives + misses;
+            return labeled > 0 ? (double) truePositives / labeled : 1;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US, "%d frames in %.1f ms, %.2f FPS, %d dropped, %d skipped%n",
+                    frames, elapsedNs / 1e6, fps(), droppedFrames, skippedFrames));
+            sb.append(String.format(Locale.US, "%d faces detected, %d embedded%n", detectedFaces, embeddedFaces));
+            sb.append(String.format(Locale.US, "%d labeled frames: precision %.3f, recall %.3f (tp=%d fp=%d fn=%d)%n",
+                    labeledFrames, precision(), recall(), truePositives, falsePositives, misses));
+            for (FrameMetrics.StageStats stage : metrics.stages) {
+                sb.append(stage).append(System.lineSeparator());
+            }
+            if (!metrics.counters.isEmpty())
+                sb.append(metrics.counters).append(System.lineSeparator());
+            return sb.toString();
+        }
+    }
+
+    private final File                       mModelDir;
+    private final RecognitionPipeline.Config mConfig;
+    private final boolean                    mBatchEmbedding;
+
+    /**
+     * @param modelDir       directory holding the YuNet and SFace ONNX models
+     * @param config         pipeline settings; the drop policy, metrics and listener are replaced
+     * @param batchEmbedding embed all faces of a frame in one {@link FaceBatchEmbedder} pass
+     */
+    public ReplayHarness(File modelDir, RecognitionPipeline.Config config, boolean batchEmbedding) {
+        mModelDir = modelDir;
+        mConfig = config;
+        mBatchEmbedding = batchEmbedding;
+    }
+
+    /** A decoded frame ready to submit. */
+    private static class Sample {
+        final String name;
+        final Mat    rgba;
+        final Mat    yuv;
+
+        Sample(String name, Mat rgba, Mat yuv) {
+            this.name = name;
+            this.rgba = rgba;
+            this.yuv = yuv;
+        }
+
+        void release() {
+            if (rgba != null)
+                rgba.release();
+            if (yuv != null)
+                yuv.release();
+        }
+    }
+
+    public Report run(File sequence) throws IOException, InterruptedException {
+        String detectorPath = new File(mModelDir, DETECTOR_MODEL).getPath();
+        String recognizerPath = new File(mModelDir, RECOGNIZER_MODEL).getPath();
+        FaceDetectorYN detector = FaceDetectorYN.create(detectorPath, "", DETECTOR_INPUT_SIZE);
+
+        FaceGallery gallery = new QuantizedFaceGallery();
+        enroll(new File(sequence, "gallery"), detector, FaceRecognizerSF.create(recognizerPath, ""), gallery);
+
+        Properties properties = new Properties();
+        File propertiesFile = new File(sequence, "sequence.properties");
+        if (propertiesFile.isFile()) {
+            try (InputStream in = new FileInputStream(propertiesFile)) {
+                properties.load(in);
+            }
+        }
+        List<Sample> samples = load(sequence, properties);
+        Map<String, Set<String>> labels = readLabels(new File(sequence, "labels.txt"));
+        int rotation = Integer.parseInt(properties.getProperty("rotation", "0"));
+        boolean mirror = Boolean.parseBoolean(properties.getProperty("mirror", "false"));
+
+        FrameMetrics metrics = new FrameMetrics(Math.max(FrameMetrics.DEFAULT_WINDOW, 16 * samples.size()),
+                FrameMetrics.DEFAULT_REPORT_INTERVAL_MS);
+        Map<Long, List<RecognitionPipeline.FaceResult>> results = new ConcurrentHashMap<>();
+        Set<Long> skipped = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(samples.size());
+        mConfig.dropPolicy = FrameQueue.DropPolicy.BLOCK;
+        mConfig.metrics = metrics;
+        mConfig.listener = new RecognitionPipeline.ResultListener() {
+            @Override
+            public void onResults(long frameId, List<RecognitionPipeline.FaceResult> faces) {
+                results.put(frameId, faces);
+                synchronized (metrics) {
+                    metrics.frame();
+                }
+                done.countDown();
+            }
+
+            @Override
+            public void onSkipped(long frameId) {
+                skipped.add(frameId);
+                done.countDown();
+            }
+        };
+        RecognitionPipeline pipeline = new RecognitionPipeline(mConfig, detector,
+                () -> FaceRecognizerSF.create(recognizerPath, ""),
+                mBatchEmbedding ? () -> new FaceBatchEmbedder(recognizerPath) : null, gallery);
+
+        Report report = new Report();
+        long[] frameIds = new long[samples.size()];
+        pipeline.start();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < samples.size(); i++) {
+                Sample sample = samples.get(i);
+                if (sample.rgba != null) {
+                    frameIds[i] = pipeline.submit(sample.rgba);
+                } else {
+                    int height = sample.yuv.rows() * 2 / 3;
+                    Mat y = sample.yuv.rowRange(0, height);
+                    Mat uvRows = sample.yuv.rowRange(height, sample.yuv.rows());
+                    Mat uv = uvRows.reshape(2, height / 2);
+                    frameIds[i] = pipeline.submitYuv(y, uv, Imgproc.COLOR_YUV2BGR_NV21, rotation, mirror);
+                    y.release();
+                    uvRows.release();
+                    uv.release();
+                }
+            }
+            if (!done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                throw new IllegalStateException("Replay timed out with " + done.getCount() + " frames pending");
+            report.elapsedNs = System.nanoTime() - start;
+        } finally {
+            pipeline.stop();
+            for (Sample sample : samples) {
+                sample.release();
+            }
+        }
+
+        report.frames = samples.size();
+        report.metrics = metrics.snapshot();
+        report.droppedFrames = pipeline.droppedFrames();
+        report.skippedFrames = skipped.size();
+        report.detectedFaces = pipeline.detectedFaces();
+        report.embeddedFaces = pipeline.embeddedFaces();
+        // A skipped frame shows what the app would still show: the results of the frame before it.
+        List<RecognitionPipeline.FaceResult> shown = Collections.emptyList();
+        for (int i = 0; i < samples.size(); i++) {
+            if (!skipped.contains(frameIds[i]))
+                shown = results.get(frameIds[i]);
+            Set<String> expected = labels.get(samples.get(i).name);
+            if (expected == null)
+                continue;
+            report.labeledFrames++;
+            Set<String> reported = new HashSet<>();
+            for (RecognitionPipeline.FaceResult face : shown) {
+                if (face.name != null)
+                    reported.add(face.name);
+            }
+            for (String name : reported) {
+                if (expected.contains(name))
+                    report.truePositives++;
+                else
+                    report.falsePositives++;
+            }
+            for (String name : expected) {
+                if (!reported.contains(name))
+                    report.misses++;
+            }
+        }
+        return report;
+    }
+
+    private static void enroll(File dir, FaceDetectorYN detector, FaceRecognizerSF recognizer,
+                               FaceGallery gallery) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files);
+        Mat faces = new Mat();
+        Mat aligned = new Mat();
+        Mat feature = new Mat();
+        float[] featureArray = new float[gallery.dim()];
+        for (File file : files) {
+            String name = file.getName();
+            if (!hasSuffix(name, IMAGE_SUFFIXES))
+                continue;
+            Mat image = Imgcodecs.imread(file.getPath());
+            detector.setInputSize(image.size());
+            detector.detect(image, faces);
+            int largest = -1;
+            float largestArea = 0;
+            for (int i = 0; i < faces.rows(); i++) {
+                float[] box = new float[4];
+                faces.get(i, 0, box);
+                if (box[2] * box[3] > largestArea) {
+                    largestArea = box[2] * box[3];
+                    largest = i;
+                }
+            }
+            if (largest < 0)
+                throw new IllegalArgumentException("No face found in gallery image " + file);
+            Mat row = faces.row(largest);
+            recognizer.alignCrop(image, row, aligned);
+            recognizer.feature(aligned, feature);
+            feature.get(0, 0, featureArray);
+            gallery.put(name.substring(0, name.lastIndexOf('.')), featureArray);
+            row.release();
+            image.release();
+        }
+        faces.release();
+        aligned.release();
+        feature.release();
+    }
+
+    private static List<Sample> load(File sequence, Properties properties) throws IOException {
+        File[] files = sequence.listFiles();
+        if (files == null)
+            throw new IOException("Not a directory: " + sequence);
+        Arrays.sort(files);
+        List<Sample> samples = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (hasSuffix(name, IMAGE_SUFFIXES)) {
+                Mat bgr = Imgcodecs.imread(file.getPath());
+                if (bgr.empty())
+                    throw new IOException("Cannot decode " + file);
+                Mat rgba = new Mat();
+                Imgproc.cvtColor(bgr, rgba, Imgproc.COLOR_BGR2RGBA);
+                bgr.release();
+                samples.add(new Sample(name, rgba, null));
+            } else if (hasSuffix(name, NV21_SUFFIX)) {
+                int width = Integer.parseInt(properties.getProperty("width", "0"));
+                int height = Integer.parseInt(properties.getProperty("height", "0"));
+                byte[] data = Files.readAllBytes(file.toPath());
+                if (width <= 0 || height <= 0 || data.length != width * height * 3 / 2)
+                    throw new IOException(file + " does not match the NV21 size in sequence.properties");
+                Mat yuv = new Mat(height * 3 / 2, width, CvType.CV_8UC1);
+                yuv.put(0, 0, data);
+                samples.add(new Sample(name, null, yuv));
+            }
+        }
+        return samples;
+    }
+
+    private static Map<String, Set<String>> readLabels(File file) throws IOException {
+        if (!file.isFile())
+            return Collections.emptyMap();
+        Map<String, Set<String>> labels = new HashMap<>();
+        for (String line : Files.readAllLines(file.toPath())) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] fields = line.split("\\s+", 2);
+            Set<String> names = new HashSet<>();
+            if (fields.length > 1 && !NO_FACES.equals(fields[1]))
+                names.addAll(Arrays.asList(fields[1].split("\\s*,\\s*")));
+            labels.put(fields[0], names);
+        }
+        return labels;
+    }
+
+    private static boolean hasSuffix(String name, String... suffixes) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String suffix : suffixes) {
+            if (lower.endsWith(suffix))
+                return true;
+        }
+        return false;
+    }
+}
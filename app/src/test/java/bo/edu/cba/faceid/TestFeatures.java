@@ -0,0 +1,30 @@
+package bo.edu.cba.faceid;
+
+import java.util.Random;
+
+/**
+ * Synthetic face features shared by the gallery and codec tests.
+ */
+final class TestFeatures {
+
+    private TestFeatures() {
+    }
+
+    /** A feature with independent standard normal components. */
+    static float[] randomFeature(Random random, int dim) {
+        float[] v = new float[dim];
+        for (int i = 0; i < dim; i++) {
+            v[i] = (float) random.nextGaussian();
+        }
+        return v;
+    }
+
+    /** A copy of {@code feature} with Gaussian noise of {@code sigma} added to each component. */
+    static float[] noisy(Random random, float[] feature, float sigma) {
+        float[] v = feature.clone();
+        for (int i = 0; i < v.length; i++) {
+            v[i] += sigma * (float) random.nextGaussian();
+        }
+        return v;
+    }
+}
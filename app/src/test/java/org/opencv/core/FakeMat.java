@@ -0,0 +1,97 @@
+package org.opencv.core;
+
+/**
+ * Mat that only records its shape and whether it was released, for testing the bookkeeping of
+ * {@link MatPool}, {@link MatScope} and {@link MatView} without the native library. Only the
+ * methods those classes call are overridden.
+ */
+final class FakeMat extends Mat {
+
+    private static long sNextAddress = 16;
+
+    private final int  mRows;
+    private final int  mCols;
+    private final int  mType;
+    private final long mAddress = sNextAddress += 16;
+    boolean            continuous = true;
+    boolean            submatrix;
+    boolean            released;
+    /** The Mat last passed to {@link #copyTo}, or null. */
+    Mat                copiedTo;
+
+    FakeMat(int rows, int cols, int type) {
+        super(1L);
+        mRows = rows;
+        mCols = cols;
+        mType = type;
+    }
+
+    @Override
+    public int rows() {
+        return mRows;
+    }
+
+    @Override
+    public int cols() {
+        return mCols;
+    }
+
+    @Override
+    public int type() {
+        return mType;
+    }
+
+    @Override
+    public int dims() {
+        return 2;
+    }
+
+    @Override
+    public int channels() {
+        return CvType.channels(mType);
+    }
+
+    @Override
+    public long total() {
+        return (long) mRows * mCols;
+    }
+
+    @Override
+    public long elemSize() {
+        return CvType.ELEM_SIZE(mType);
+    }
+
+    @Override
+    public boolean empty() {
+        return released || total() == 0;
+    }
+
+    @Override
+    public boolean isContinuous() {
+        return continuous;
+    }
+
+    @Override
+    public boolean isSubmatrix() {
+        return submatrix;
+    }
+
+    @Override
+    public long dataAddr() {
+        return released ? 0 : mAddress;
+    }
+
+    @Override
+    public void copyTo(Mat m) {
+        copiedTo = m;
+    }
+
+    @Override
+    public void release() {
+        released = true;
+    }
+
+    @Override
+    protected void finalize() {
+    }
+}
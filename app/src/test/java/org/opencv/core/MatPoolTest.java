@@ -0,0 +1,110 @@
+package org.opencv.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Runs on {@link FakeMat}s, without the OpenCV native library. */
+public class MatPoolTest {
+
+    private static MatPool pool(int maxIdle, int maxShapes) {
+        return new MatPool(maxIdle, maxShapes, FakeMat::new);
+    }
+
+    @Test
+    public void acquire_countsHitsAndMisses() {
+        MatPool pool = pool(2, 2);
+        long totalHits = MatPool.totalHits(), totalMisses = MatPool.totalMisses();
+
+        Mat mat = pool.acquire(2, 3, CvType.CV_32F);
+        assertEquals(0, pool.hits());
+        assertEquals(1, pool.misses());
+        pool.recycle(mat);
+        assertSame(mat, pool.acquire(2, 3, CvType.CV_32F));
+        assertEquals(1, pool.hits());
+        assertEquals(1, pool.misses());
+
+        // Same size, other type.
+        Mat other = pool.acquire(2, 3, CvType.CV_8UC4);
+        assertNotSame(mat, other);
+        assertEquals(CvType.CV_8UC4, other.type());
+        assertEquals(2, pool.misses());
+        assertEquals(totalHits + 1, MatPool.totalHits());
+        assertEquals(totalMisses + 2, MatPool.totalMisses());
+    }
+
+    @Test
+    public void recycle_keepsAtMostMaxIdlePerShape() {
+        MatPool pool = pool(2, 4);
+        FakeMat[] mats = new FakeMat[3];
+        for (int i = 0; i < mats.length; i++) {
+            mats[i] = new FakeMat(4, 4, CvType.CV_8UC1);
+        }
+        for (Mat mat : mats) {
+            pool.recycle(mat);
+        }
+        assertEquals(2, pool.idle());
+        assertFalse(mats[0].released);
+        assertFalse(mats[1].released);
+        assertTrue(mats[2].released);
+
+        pool.recycle(new FakeMat(2, 2, CvType.CV_8UC1));
+        assertEquals(3, pool.idle());
+        pool.clear();
+        assertEquals(0, pool.idle());
+        assertTrue(mats[0].released);
+    }
+
+    @Test
+    public void recycle_evictsTheLeastRecentlyUsedShape() {
+        MatPool pool = pool(2, 2);
+        FakeMat a = new FakeMat(1, 1, CvType.CV_8UC1);
+        FakeMat b = new FakeMat(2, 2, CvType.CV_8UC1);
+        pool.recycle(a);
+        pool.recycle(b);
+        // Borrowing a makes b the least recently used shape.
+        assertSame(a, pool.acquire(1, 1, CvType.CV_8UC1));
+        pool.recycle(a);
+
+        pool.recycle(new FakeMat(3, 3, CvType.CV_8UC1));
+        assertTrue(b.released);
+        assertFalse(a.released);
+        assertEquals(2, pool.idle());
+        assertSame(a, pool.acquire(1, 1, CvType.CV_8UC1));
+        long misses = pool.misses();
+        assertNotSame(b, pool.acquire(2, 2, CvType.CV_8UC1));
+        assertEquals(misses + 1, pool.misses());
+    }
+
+    @Test
+    public void recycle_growsPastTheInitialShapeSlots() {
+        MatPool pool = pool(1, 16);
+        FakeMat[] mats = new FakeMat[10];
+        for (int i = 0; i < mats.length; i++) {
+            mats[i] = new FakeMat(i + 1, 1, CvType.CV_8UC1);
+            pool.recycle(mats[i]);
+        }
+        assertEquals(10, pool.idle());
+        for (int i = 0; i < mats.length; i++) {
+            assertSame(mats[i], pool.acquire(i + 1, 1, CvType.CV_8UC1));
+        }
+    }
+
+    @Test
+    public void recycle_releasesMatsItCannotReuse() {
+        MatPool pool = pool(2, 2);
+        FakeMat submatrix = new FakeMat(2, 4, CvType.CV_8UC1);
+        submatrix.submatrix = true;
+        FakeMat strided = new FakeMat(2, 4, CvType.CV_8UC1);
+        strided.continuous = false;
+        FakeMat empty = new FakeMat(0, 0, CvType.CV_8UC1);
+
+        pool.recycle(submatrix);
+        pool.recycle(strided);
+        pool.recycle(empty);
+        assertEquals(0, pool.idle());
+        assertTrue(submatrix.released);
+        assertTrue(strided.released);
+        assertTrue(empty.released);
+    }
+}
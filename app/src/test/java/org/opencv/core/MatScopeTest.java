@@ -0,0 +1,120 @@
+package org.opencv.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/** Runs on {@link FakeMat}s, without the OpenCV native library. */
+public class MatScopeTest {
+
+    @After
+    public void reset() {
+        MatScope.setDebug(false);
+        MatScope.setLeakListener(null);
+        MatPool.local().clear();
+    }
+
+    @Test
+    public void close_releasesOwnedMats() {
+        FakeMat mat;
+        try (MatScope scope = MatScope.open()) {
+            mat = scope.track(new FakeMat(2, 3, CvType.CV_8UC1));
+            assertEquals(6, scope.bytes());
+        }
+        assertTrue(mat.released);
+    }
+
+    @Test
+    public void close_recyclesAcquiredMatsToThePool() {
+        FakeMat pooled = new FakeMat(2, 2, CvType.CV_32F);
+        MatPool.local().recycle(pooled);
+        try (MatScope scope = MatScope.open()) {
+            assertSame(pooled, scope.acquire(2, 2, CvType.CV_32F));
+            assertEquals(0, MatPool.local().idle());
+            assertEquals(16, scope.bytes());
+        }
+        assertFalse(pooled.released);
+        assertEquals(1, MatPool.local().idle());
+    }
+
+    @Test
+    public void open_nestsInTheCurrentScope() {
+        assertNull(MatScope.current());
+        try (MatScope outer = MatScope.open()) {
+            assertSame(outer, MatScope.current());
+            FakeMat inner;
+            try (MatScope scope = MatScope.open()) {
+                assertSame(scope, MatScope.current());
+                inner = scope.track(new FakeMat(1, 1, CvType.CV_8UC1));
+            }
+            assertSame(outer, MatScope.current());
+            assertTrue(inner.released);
+        }
+        assertNull(MatScope.current());
+    }
+
+    @Test
+    public void detach_keepsTheMatAfterClose() {
+        FakeMat kept;
+        try (MatScope scope = MatScope.open()) {
+            kept = scope.detach(scope.track(new FakeMat(2, 2, CvType.CV_8UC1)));
+            assertEquals(0, scope.bytes());
+        }
+        assertFalse(kept.released);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void detach_rejectsMatsOfOtherScopes() {
+        try (MatScope scope = MatScope.open()) {
+            scope.detach(new FakeMat(1, 1, CvType.CV_8UC1));
+        }
+    }
+
+    @Test
+    public void liveBytes_coversOnlyTrackedMats() {
+        MatScope.setDebug(true);
+        long before = MatScope.liveBytes();
+        FakeMat untracked = new FakeMat(10, 10, CvType.CV_8UC1);
+        try (MatScope scope = MatScope.open()) {
+            scope.track(new FakeMat(4, 4, CvType.CV_8UC1));
+            assertEquals(before + 16, MatScope.liveBytes());
+        }
+        assertEquals(before, MatScope.liveBytes());
+        assertFalse(untracked.released);
+    }
+
+    @Test
+    public void reportLeaks_reportsScopesCollectedWithoutClose() throws Exception {
+        List<Long> leaked = new CopyOnWriteArrayList<>();
+        MatScope.setLeakListener((bytes, tracked) -> leaked.add(bytes));
+        MatScope.setDebug(true);
+        long leakedMats = MatScope.leakedMats();
+        FakeMat mat = new FakeMat(3, 3, CvType.CV_8UC1);
+
+        // Opened on another thread so that the leaked scope never becomes current here.
+        Thread thread = new Thread(() -> MatScope.open().track(mat));
+        thread.start();
+        thread.join();
+
+        for (int i = 0; i < 50 && leaked.isEmpty(); i++) {
+            System.gc();
+            Thread.sleep(20);
+            MatScope.reportLeaks();
+        }
+        assertEquals(1, leaked.size());
+        assertEquals(Long.valueOf(9), leaked.get(0));
+        assertEquals(leakedMats + 1, MatScope.leakedMats());
+        assertTrue(mat.released);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedScope_throws() {
+        MatScope scope = MatScope.open();
+        scope.close();
+        scope.track(new FakeMat(1, 1, CvType.CV_8UC1));
+    }
+}
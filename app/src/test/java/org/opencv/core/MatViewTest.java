@@ -0,0 +1,148 @@
+package org.opencv.core;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests on real Mats need the OpenCV native library, given as {@code -Dopencv.library}, and are
+ * skipped without it; the others run on {@link FakeMat}s.
+ */
+public class MatViewTest {
+
+    private static void loadOpenCv() {
+        String library = System.getProperty("opencv.library");
+        assumeTrue("opencv.library not set", library != null);
+        System.load(new File(library).getAbsolutePath());
+    }
+
+    /** A view of {@code header}, zero copy if {@code target} is null and else written back to it. */
+    private static MatView fakeView(FakeMat header, FakeMat target) {
+        int size = (int) (header.total() * header.elemSize());
+        return new MatView(header, target, ByteBuffer.allocateDirect(size), target == null);
+    }
+
+    private static Mat floats(int rows, int cols, float... values) {
+        loadOpenCv();
+        Mat mat = new Mat(rows, cols, CvType.CV_32F);
+        mat.put(0, 0, values);
+        return mat;
+    }
+
+    @Test
+    public void of_readsAndWritesTheMat() {
+        Mat mat = floats(2, 2, 1.f, 2.f, 3.f, 4.f);
+        try (MatView view = MatView.of(mat)) {
+            assertEquals(MatView.isZeroCopySupported(), view.isZeroCopy());
+            FloatBuffer data = view.floats();
+            assertEquals(4, data.remaining());
+            assertEquals(3.f, data.get(2), 0.f);
+            data.put(1, 5.f);
+        }
+        float[] values = new float[4];
+        mat.get(0, 0, values);
+        assertArrayEquals(new float[] { 1.f, 5.f, 3.f, 4.f }, values, 0.f);
+        mat.release();
+    }
+
+    @Test
+    public void of_withoutZeroCopyWritesBackOnClose() {
+        Mat mat = floats(1, 3, 1.f, 2.f, 3.f);
+        MatView view = MatView.of(mat, false);
+        assertFalse(view.isZeroCopy());
+        view.floats().put(0, 7.f);
+        float[] values = new float[3];
+        mat.get(0, 0, values);
+        assertEquals(1.f, values[0], 0.f);
+
+        view.close();
+        mat.get(0, 0, values);
+        assertArrayEquals(new float[] { 7.f, 2.f, 3.f }, values, 0.f);
+        mat.release();
+    }
+
+    @Test
+    public void of_keepsDataAfterTheMatIsReleased() {
+        Mat mat = floats(1, 2, 1.f, 2.f);
+        try (MatView view = MatView.of(mat)) {
+            mat.release();
+            assertEquals(2.f, view.floats().get(1), 0.f);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void of_rejectsNonContinuousMats() {
+        FakeMat column = new FakeMat(4, 1, CvType.CV_32F);
+        column.continuous = false;
+        MatView.of(column);
+    }
+
+    @Test
+    public void allocate_isCurrentUntilReallocated() {
+        loadOpenCv();
+        try (MatView view = MatView.allocate(2, 3, CvType.CV_32S)) {
+            assertTrue(view.isZeroCopy());
+            Mat mat = view.mat();
+            mat.setTo(new Scalar(9));
+            IntBuffer data = view.ints();
+            assertEquals(6, data.remaining());
+            assertEquals(9, data.get(5));
+            assertTrue(view.isCurrent());
+
+            mat.create(2, 3, CvType.CV_32S);
+            assertTrue(view.isCurrent());
+            mat.create(4, 3, CvType.CV_32S);
+            assertFalse(view.isCurrent());
+        }
+    }
+
+    @Test
+    public void close_emptiesReturnedBuffers() {
+        MatView view = fakeView(new FakeMat(1, 2, CvType.CV_32F), null);
+        FloatBuffer data = view.floats();
+        assertEquals(2, data.remaining());
+        view.close();
+        assertEquals(0, data.remaining());
+        try {
+            data.get(0);
+            fail("Buffer still readable after close");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void close_writesBackOnlyWithoutZeroCopy() {
+        FakeMat header = new FakeMat(1, 2, CvType.CV_32F);
+        fakeView(header, null).close();
+        assertNull(header.copiedTo);
+        assertTrue(header.released);
+
+        FakeMat copy = new FakeMat(1, 2, CvType.CV_32F), target = new FakeMat(1, 2, CvType.CV_32F);
+        MatView view = fakeView(copy, target);
+        assertFalse(view.isZeroCopy());
+        view.close();
+        assertSame(target, copy.copiedTo);
+        assertTrue(copy.released);
+        assertTrue(target.released);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedView_throws() {
+        MatView view = fakeView(new FakeMat(1, 1, CvType.CV_32F), null);
+        view.close();
+        view.mat();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void floats_rejectsOtherDepths() {
+        try (MatView view = fakeView(new FakeMat(1, 4, CvType.CV_8U), null)) {
+            view.floats();
+        }
+    }
+}
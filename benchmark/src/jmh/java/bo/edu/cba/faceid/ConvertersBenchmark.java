@@ -0,0 +1,167 @@
+package bo.edu.cba.faceid;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.utils.Converters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Converters} list conversions against the array paths of the {@code MatOf*} classes and
+ * the array, holder and direct buffer overloads that reuse their destination. Needs the OpenCV
+ * native library, given as {@code -Popencv.library}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConvertersBenchmark {
+
+    @Param({ "16", "1024", "65536" })
+    public int count;
+
+    private List<Float> mFloatList;
+    private float[]     mFloats;
+    private List<Rect>  mRectList;
+    private Rect[]      mRects;
+    private Mat         mFloatMat;
+    private List<Float> mFloatsOut;
+    private FloatBuffer mFloatBuffer;
+    private int[]       mPackedRects;
+    private MatOfRect   mRectMat;
+    private Rect[]      mRectsOut;
+    private Mat         mReused;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String library = System.getProperty("opencv.library");
+        if (library == null)
+            throw new IllegalStateException("Set -Popencv.library to a desktop OpenCV Java native library");
+        System.load(new File(library).getAbsolutePath());
+
+        Random random = new Random(42);
+        mFloats = new float[count];
+        mFloatList = new ArrayList<>(count);
+        mRects = new Rect[count];
+        mRectList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            mFloats[i] = random.nextFloat();
+            mFloatList.add(mFloats[i]);
+            mRects[i] = new Rect(random.nextInt(1000), random.nextInt(1000), 1 + random.nextInt(100), 1 + random.nextInt(100));
+            mRectList.add(mRects[i]);
+        }
+        mFloatMat = new MatOfFloat(mFloats);
+        mFloatsOut = new ArrayList<>(count);
+        mFloatBuffer = ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mFloatBuffer.put(mFloats).flip();
+        mRectMat = new MatOfRect(mRects);
+        mPackedRects = Converters.Mat_to_vector_Rect(mRectMat, (int[]) null);
+        mRectsOut = mRectMat.toArray();
+        mReused = new Mat();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFloatMat.release();
+        mRectMat.release();
+        mReused.release();
+    }
+
+    @Benchmark
+    public long floatListToMat() {
+        Mat mat = Converters.vector_float_to_Mat(mFloatList);
+        long total = mat.total();
+        mat.release();
+        return total;
+    }
+
+    @Benchmark
+    public long floatArrayToMat() {
+        MatOfFloat mat = new MatOfFloat(mFloats);
+        long total = mat.total();
+        mat.release();
+        return total;
+    }
+
+    @Benchmark
+    public List<Float> matToFloatList() {
+        mFloatsOut.clear();
+        Converters.Mat_to_vector_float(mFloatMat, mFloatsOut);
+        return mFloatsOut;
+    }
+
+    @Benchmark
+    public float[] matToFloatArray() {
+        mFloatMat.get(0, 0, mFloats);
+        return mFloats;
+    }
+
+    @Benchmark
+    public long rectListToMat() {
+        Mat mat = Converters.vector_Rect_to_Mat(mRectList);
+        long total = mat.total();
+        mat.release();
+        return total;
+    }
+
+    @Benchmark
+    public long rectArrayToMat() {
+        MatOfRect mat = new MatOfRect(mRects);
+        long total = mat.total();
+        mat.release();
+        return total;
+    }
+
+    @Benchmark
+    public long floatArrayToReusedMat() {
+        Converters.vector_float_to_Mat(mFloats, count, mReused);
+        return mReused.total();
+    }
+
+    @Benchmark
+    public long floatBufferToReusedMat() {
+        Converters.vector_float_to_Mat(mFloatBuffer, mReused);
+        return mReused.total();
+    }
+
+    @Benchmark
+    public float[] matToFloatHolder() {
+        return Converters.Mat_to_vector_float(mFloatMat, mFloats);
+    }
+
+    @Benchmark
+    public FloatBuffer matToFloatBuffer() {
+        mFloatBuffer.clear();
+        Converters.Mat_to_vector_float(mFloatMat, mFloatBuffer);
+        return mFloatBuffer;
+    }
+
+    @Benchmark
+    public long packedRectsToReusedMat() {
+        Converters.vector_Rect_to_Mat(mPackedRects, count, mReused);
+        return mReused.total();
+    }
+
+    @Benchmark
+    public Rect[] matToRectHolder() {
+        return mRectMat.toArray(mRectsOut, mPackedRects);
+    }
+}
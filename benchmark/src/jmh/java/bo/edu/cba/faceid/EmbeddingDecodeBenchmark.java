@@ -0,0 +1,72 @@
+package bo.edu.cba.faceid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning one stored embedding into the {@code float[]} a gallery takes: the legacy boxed
+ * {@code List<Double>} that {@code loadData} used to convert element by element, against the
+ * binary {@link EmbeddingCodec} formats, plus the int8 quantization done on insert into a
+ * {@link QuantizedFaceGallery}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EmbeddingDecodeBenchmark {
+
+    @Param({ "128", "512" })
+    public int dim;
+
+    private List<Double> mList;
+    private byte[]       mFloat32;
+    private byte[]       mInt8;
+    private float[]      mFeature;
+    private byte[]       mCodes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mFeature = new float[dim];
+        GalleryMatchBenchmark.randomUnit(new Random(42), mFeature);
+        mList = new ArrayList<>(dim);
+        for (float value : mFeature) {
+            mList.add((double) value);
+        }
+        mFloat32 = EmbeddingCodec.encode(mFeature);
+        mInt8 = EmbeddingCodec.encodeInt8(mFeature);
+        mCodes = new byte[dim];
+    }
+
+    @Benchmark
+    public float[] fromList() {
+        return EmbeddingCodec.fromList(mList);
+    }
+
+    @Benchmark
+    public float[] decodeFloat32() {
+        EmbeddingCodec.decode(mFloat32, mFeature, 0);
+        return mFeature;
+    }
+
+    @Benchmark
+    public float[] decodeInt8() {
+        EmbeddingCodec.decode(mInt8, mFeature, 0);
+        return mFeature;
+    }
+
+    @Benchmark
+    public float quantize() {
+        return QuantizedFaceGallery.quantize(mFeature, 0, dim, mCodes, 0);
+    }
+}
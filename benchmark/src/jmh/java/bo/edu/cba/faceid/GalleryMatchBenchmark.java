@@ -0,0 +1,119 @@
+package bo.edu.cba.faceid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One probe scored against a gallery of random unit embeddings, per gallery layout:
+ * <ul>
+ * <li>{@code map}: one array per identity, each pair normalized while scoring, like
+ * {@code findMatchingFace} did with {@code FaceRecognizerSF.match(..., FR_COSINE)};
+ * <li>{@code flat}: {@link FaceGallery}, the exhaustive scan over one normalized matrix;
+ * <li>{@code quantized}: {@link QuantizedFaceGallery}, int8 codes with float re-ranking;
+ * <li>{@code hnsw}: {@link HnswFaceGallery} with the exact fallback disabled.
+ * </ul>
+ * Building the HNSW graph for the largest sizes takes minutes of setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GalleryMatchBenchmark {
+
+    @Param({ "100", "1000", "10000", "100000", "1000000" })
+    public int    size;
+    @Param({ "128", "512" })
+    public int    dim;
+    @Param({ "map", "flat", "quantized", "hnsw" })
+    public String layout;
+
+    private Map<String, float[]> mMap;
+    private FaceGallery          mGallery;
+    private float[]              mProbe;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        switch (layout) {
+            case "map":
+                mMap = new LinkedHashMap<>();
+                break;
+            case "flat":
+                mGallery = new FaceGallery(dim);
+                break;
+            case "quantized":
+                mGallery = new QuantizedFaceGallery(dim, QuantizedFaceGallery.DEFAULT_RERANK_COUNT);
+                break;
+            case "hnsw":
+                HnswFaceGallery hnsw = new HnswFaceGallery(dim);
+                hnsw.setExactThreshold(0);
+                mGallery = hnsw;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown layout " + layout);
+        }
+        float[] feature = new float[dim];
+        for (int i = 0; i < size; i++) {
+            randomUnit(random, feature);
+            if (mMap != null)
+                mMap.put("id" + i, feature.clone());
+            else
+                mGallery.put("id" + i, feature);
+            if (i == size / 2) {
+                // A noisy view of a registered identity, as a live probe would be.
+                mProbe = feature.clone();
+                for (int k = 0; k < dim; k++) {
+                    mProbe[k] += 0.3f * (float) random.nextGaussian() / (float) Math.sqrt(dim);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Object match() {
+        return mMap != null ? matchMap(mMap, mProbe) : mGallery.match(mProbe);
+    }
+
+    private static String matchMap(Map<String, float[]> map, float[] probe) {
+        String bestId = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (Map.Entry<String, float[]> entry : map.entrySet()) {
+            float[] feature = entry.getValue();
+            double dot = 0, probeNorm = 0, featureNorm = 0;
+            for (int k = 0; k < probe.length; k++) {
+                dot += probe[k] * feature[k];
+                probeNorm += probe[k] * probe[k];
+                featureNorm += feature[k] * feature[k];
+            }
+            double score = dot / Math.sqrt(probeNorm * featureNorm);
+            if (score > bestScore) {
+                bestScore = score;
+                bestId = entry.getKey();
+            }
+        }
+        return bestId;
+    }
+
+    static void randomUnit(Random random, float[] v) {
+        double norm = 0;
+        for (int k = 0; k < v.length; k++) {
+            v[k] = (float) random.nextGaussian();
+            norm += v[k] * v[k];
+        }
+        float inv = (float) (1 / Math.sqrt(norm));
+        for (int k = 0; k < v.length; k++) {
+            v[k] *= inv;
+        }
+    }
+}
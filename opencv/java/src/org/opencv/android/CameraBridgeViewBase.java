@@ -53,6 +53,8 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected boolean mEnabled;
     protected boolean mCameraPermissionGranted = false;
     protected FpsMeter mFpsMeter = null;
+    protected FrameMetrics mMetrics = FrameMetrics.NONE;
+    private FrameMetrics.OverlayExporter mMetricsOverlay;
 
     public static final int CAMERA_ID_ANY   = -1;
     public static final int CAMERA_ID_BACK  = 99;
@@ -196,11 +198,42 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         public void release();
     };
 
-    public class RotatedCameraFrame implements CvCameraViewFrame {
+    /**
+     * Optional interface of frames that can expose their pixels in the camera's native YUV 4:2:0
+     * layout, before color conversion and rotation. Same lifetime rules as CvCameraViewFrame.
+     */
+    public interface CvCameraViewYuvFrame {
+
+        /**
+         * This method returns the luma plane in sensor orientation, or null if not available
+         */
+        public Mat yPlane();
+
+        /**
+         * This method returns the interleaved chroma plane (CV_8UC2, half resolution), or null
+         * if the camera delivers planar chroma
+         */
+        public Mat uvPlane();
+
+        /**
+         * Imgproc.cvtColorTwoPlane code converting yPlane and uvPlane to BGR
+         */
+        public int yuvToBgrCode();
+
+        /**
+         * Clockwise rotation in degrees from the yPlane orientation to the rgba() orientation
+         */
+        public int rotation();
+    };
+
+    public class RotatedCameraFrame implements CvCameraViewFrame, CvCameraViewYuvFrame {
         @Override
         public Mat gray() {
             if (mRotation != 0) {
-                Core.rotate(mFrame.gray(), mGrayRotated, getCvRotationCode(mRotation));
+                Mat gray = mFrame.gray();
+                long start = mMetrics.start();
+                Core.rotate(gray, mGrayRotated, getCvRotationCode(mRotation));
+                mMetrics.end("bridge.rotate", start);
                 return mGrayRotated;
             } else {
                 return mFrame.gray();
@@ -210,13 +243,36 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         @Override
         public Mat rgba() {
             if (mRotation != 0) {
-                Core.rotate(mFrame.rgba(), mRgbaRotated, getCvRotationCode(mRotation));
+                Mat rgba = mFrame.rgba();
+                long start = mMetrics.start();
+                Core.rotate(rgba, mRgbaRotated, getCvRotationCode(mRotation));
+                mMetrics.end("bridge.rotate", start);
                 return mRgbaRotated;
             } else {
                 return mFrame.rgba();
             }
         }
 
+        @Override
+        public Mat yPlane() {
+            return mFrame instanceof CvCameraViewYuvFrame ? ((CvCameraViewYuvFrame) mFrame).yPlane() : null;
+        }
+
+        @Override
+        public Mat uvPlane() {
+            return mFrame instanceof CvCameraViewYuvFrame ? ((CvCameraViewYuvFrame) mFrame).uvPlane() : null;
+        }
+
+        @Override
+        public int yuvToBgrCode() {
+            return mFrame instanceof CvCameraViewYuvFrame ? ((CvCameraViewYuvFrame) mFrame).yuvToBgrCode() : -1;
+        }
+
+        @Override
+        public int rotation() {
+            return mRotation;
+        }
+
         private int getCvRotationCode(int degrees) {
             if  (degrees == 90) {
                 return Core.ROTATE_90_CLOCKWISE;
@@ -235,6 +291,14 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             mRotation = rotation;
         }
 
+        /**
+         * Points this wrapper at another frame so it can be reused without reallocating its Mats.
+         */
+        void reset(CvCameraViewFrame frame, int rotation) {
+            mFrame = frame;
+            mRotation = rotation;
+        }
+
         @Override
         public void release() {
             mRgbaRotated.release();
@@ -359,6 +423,47 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             mFpsMeter = null;
     }
 
+    /**
+     * Sets the metrics that frame delivery reports its stage timings to. Passing null disables
+     * them. The same instance can be shared with the listener to time its own stages.
+     */
+    public void setFrameMetrics(FrameMetrics metrics) {
+        if (mMetricsOverlay != null)
+            mMetrics.removeExporter(mMetricsOverlay);
+        mMetrics = metrics != null ? metrics : FrameMetrics.NONE;
+        if (mMetricsOverlay != null)
+            mMetrics.addExporter(mMetricsOverlay);
+    }
+
+    public FrameMetrics getFrameMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Returns the scale at which frames are drawn, centered, on the view. Valid once the camera
+     * view has started.
+     */
+    public float getFrameScale() {
+        return mScale != 0 ? mScale : 1.f;
+    }
+
+    /**
+     * This method enables per-stage latency labels on the screen, taken from the frame metrics
+     */
+    public void enableMetricsOverlay() {
+        if (mMetricsOverlay == null) {
+            mMetricsOverlay = new FrameMetrics.OverlayExporter();
+            mMetrics.addExporter(mMetricsOverlay);
+        }
+    }
+
+    public void disableMetricsOverlay() {
+        if (mMetricsOverlay != null) {
+            mMetrics.removeExporter(mMetricsOverlay);
+            mMetricsOverlay = null;
+        }
+    }
+
     /**
      *
      * @param listener
@@ -492,16 +597,20 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
         Mat modified;
 
+        long start = mMetrics.start();
         if (mListener != null) {
             modified = mListener.onCameraFrame(frame);
         } else {
             modified = frame.rgba();
         }
+        mMetrics.end("bridge.listener", start);
 
         boolean bmpValid = true;
         if (modified != null) {
             try {
+                start = mMetrics.start();
                 Utils.matToBitmap(modified, mCacheBitmap);
+                mMetrics.end("bridge.matToBitmap", start);
             } catch(Exception e) {
                 Log.e(TAG, "Mat type: " + modified);
                 Log.e(TAG, "Bitmap type: " + mCacheBitmap.getWidth() + "*" + mCacheBitmap.getHeight());
@@ -511,6 +620,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         }
 
         if (bmpValid && mCacheBitmap != null) {
+            start = mMetrics.start();
             Canvas canvas = getHolder().lockCanvas();
             if (canvas != null) {
                 canvas.drawColor(0, android.graphics.PorterDuff.Mode.CLEAR);
@@ -535,9 +645,14 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
                     mFpsMeter.measure();
                     mFpsMeter.draw(canvas, 20, 30);
                 }
+                if (mMetricsOverlay != null) {
+                    mMetricsOverlay.draw(canvas, 20, mFpsMeter != null ? 60 : 30);
+                }
                 getHolder().unlockCanvasAndPost(canvas);
+                mMetrics.end("bridge.draw", start);
             }
         }
+        mMetrics.frame();
     }
 
     /**
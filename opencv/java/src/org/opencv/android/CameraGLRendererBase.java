@@ -7,7 +7,10 @@ import java.nio.FloatBuffer;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import org.opencv.android.CameraGLSurfaceView.CameraFrameListener;
 import org.opencv.android.CameraGLSurfaceView.CameraTextureListener;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
 
 import android.annotation.TargetApi;
 import android.graphics.SurfaceTexture;
@@ -64,6 +67,11 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
 
     private int[] texCamera = {0}, texFBO = {0}, texDraw = {0};
     private int[] FBO = {0};
+    // downscaled copy read back for CameraFrameListener
+    private int[] texRead = {0}, FBORead = {0};
+    private int mReadWidth = -1, mReadHeight = -1;
+    private ByteBuffer mReadBuffer;
+    private Mat mReadMat;
     private int progOES = -1, prog2D = -1;
     private int vPosOES, vTCOES, vPos2D, vTC2D;
 
@@ -114,11 +122,20 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
             return;
 
         synchronized(this) {
+            boolean newFrame = mUpdateST;
             if (mUpdateST) {
                 mSTexture.updateTexImage();
                 mUpdateST = false;
             }
 
+            CameraFrameListener frameListener = mView.getCameraFrameListener();
+            if (frameListener != null && newFrame) {
+                if (frameListener.wantsFrame())
+                    readFrame(frameListener);
+                else
+                    mView.getFrameMetrics().count("gl.readbackSkipped", 1);
+            }
+
             GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
             CameraTextureListener texListener = mView.getCameraTextureListener();
@@ -138,14 +155,45 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
                     drawTex(texFBO[0], false, 0);
                 }
             } else {
-                Log.d(LOGTAG, "texCamera(OES) -> screen");
                 // texCamera(OES) -> screen
                 drawTex(texCamera[0], true, 0);
             }
+            if (newFrame)
+                mView.getFrameMetrics().frame();
             //Log.i(LOGTAG, "onDrawFrame end");
         }
     }
 
+    // texCamera(OES) -> downscaled FBO -> mReadMat, then hand it to the listener
+    private void readFrame(CameraFrameListener listener) {
+        int width = mCameraWidth, height = mCameraHeight;
+        int maxWidth = mView.getMaxFrameWidth();
+        if (maxWidth > 0 && width > maxWidth) {
+            height = Math.round((float) height * maxWidth / width) & ~1;
+            width = maxWidth & ~1;
+        }
+        if (width != mReadWidth || height != mReadHeight)
+            initReadFBO(width, height);
+
+        FrameMetrics metrics = mView.getFrameMetrics();
+        long start = metrics.start();
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, FBORead[0]);
+        GLES20.glViewport(0, 0, mReadWidth, mReadHeight);
+        GLES20.glUseProgram(progOES);
+        GLES20.glVertexAttribPointer(vPosOES, 2, GLES20.GL_FLOAT, false, 4*2, vert);
+        // Unlike the preview, keep the image top at y = 0 so glReadPixels returns rows top-down.
+        GLES20.glVertexAttribPointer(vTCOES,  2, GLES20.GL_FLOAT, false, 4*2, tex2D);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texCamera[0]);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(progOES, "sTexture"), 0);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        mReadBuffer.position(0);
+        GLES20.glReadPixels(0, 0, mReadWidth, mReadHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mReadBuffer);
+        metrics.end("gl.readback", start);
+
+        listener.onCameraFrame(mReadMat);
+    }
+
     @Override
     public void onSurfaceChanged(GL10 gl, int surfaceWidth, int surfaceHeight) {
         Log.i(LOGTAG, "onSurfaceChanged("+surfaceWidth+"x"+surfaceHeight+")");
@@ -157,6 +205,12 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
         Log.i(LOGTAG, "onSurfaceCreated");
+        synchronized(this) {
+            // A new surface comes with a new context that does not have the old read FBO, so
+            // forget its names instead of deleting them.
+            mReadWidth = mReadHeight = -1;
+            deleteReadFBO();
+        }
         initShaders();
     }
 
@@ -203,7 +257,8 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
             GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, tex[0]);
             GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
             GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-            GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+            // linear, so that the downscaled read back does not alias
+            GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
             GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
         }
     }
@@ -314,6 +369,45 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
         mFBOHeight = height;
     }
 
+    private void deleteReadFBO()
+    {
+        if (mReadMat != null) {
+            mReadMat.release();
+            mReadMat = null;
+        }
+        mReadBuffer = null;
+        if (mReadWidth > 0) {
+            GLES20.glDeleteFramebuffers(1, FBORead, 0);
+            deleteTex(texRead);
+        }
+        mReadWidth = mReadHeight = -1;
+    }
+
+    private void initReadFBO(int width, int height)
+    {
+        Log.d(LOGTAG, "initReadFBO("+width+"x"+height+")");
+
+        deleteReadFBO();
+
+        GLES20.glGenTextures(1, texRead, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texRead[0]);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+
+        GLES20.glGenFramebuffers(1, FBORead, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, FBORead[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, texRead[0], 0);
+        int FBOstatus = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (FBOstatus != GLES20.GL_FRAMEBUFFER_COMPLETE)
+            Log.e(LOGTAG, "initReadFBO failed, status: " + FBOstatus);
+
+        mReadBuffer = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+        mReadMat = new Mat(height, width, CvType.CV_8UC4, mReadBuffer);
+        mReadWidth  = width;
+        mReadHeight = height;
+    }
+
     // draw texture to FBO or to screen if fbo == 0
     private void drawTex(int tex, boolean isOES, int fbo)
     {
@@ -393,9 +487,12 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
             mHaveFBO = false;
             closeCamera();
             deleteSurfaceTexture();
+            deleteReadFBO();
         }
         CameraTextureListener listener = mView.getCameraTextureListener();
         if(listener != null) listener.onCameraViewStopped();
+        CameraFrameListener frameListener = mView.getCameraFrameListener();
+        if(frameListener != null) frameListener.onCameraViewStopped();
 
     }
 
@@ -411,6 +508,8 @@ public abstract class CameraGLRendererBase implements GLSurfaceView.Renderer, Su
 
         CameraTextureListener listener = mView.getCameraTextureListener();
         if(listener != null) listener.onCameraViewStarted(mCameraWidth, mCameraHeight);
+        CameraFrameListener frameListener = mView.getCameraFrameListener();
+        if(frameListener != null) frameListener.onCameraViewStarted(mCameraWidth, mCameraHeight);
     }
 
     public void setCameraIndex(int cameraIndex) {
@@ -1,6 +1,7 @@
 package org.opencv.android;
 
 import org.opencv.R;
+import org.opencv.core.Mat;
 
 import android.content.Context;
 import android.content.res.TypedArray;
@@ -39,7 +40,44 @@ public class CameraGLSurfaceView extends GLSurfaceView {
         public boolean onCameraTexture(int texIn, int texOut, int width, int height);
     };
 
+    /**
+     * Receives a downscaled CPU copy of each camera frame while the preview itself is drawn
+     * straight from the camera texture, so processing never touches full-resolution pixels.
+     */
+    public interface CameraFrameListener {
+        /**
+         * Invoked when camera preview has started.
+         * @param width -  the width of the camera frames
+         * @param height - the height of the camera frames
+         */
+        public void onCameraViewStarted(int width, int height);
+
+        /**
+         * Invoked when camera preview has been stopped.
+         */
+        public void onCameraViewStopped();
+
+        /**
+         * Invoked on the GL thread before a new camera frame is read back. Reading back stalls
+         * the GL thread, so return false while the frame would only be dropped.
+         */
+        default boolean wantsFrame() {
+            return true;
+        }
+
+        /**
+         * Invoked on the GL thread for every new camera frame that {@link #wantsFrame} accepted.
+         * @param rgba - the frame, upright as previewed and scaled to at most the width given to
+         *               {@link #setCameraFrameListener}. It is overwritten by the next frame, so
+         *               copy anything that must outlive this call.
+         */
+        public void onCameraFrame(Mat rgba);
+    };
+
     private CameraTextureListener mTexListener;
+    private CameraFrameListener mFrameListener;
+    private int mMaxFrameWidth = -1;
+    private FrameMetrics mMetrics = FrameMetrics.NONE;
     private CameraGLRendererBase mRenderer;
 
     public CameraGLSurfaceView(Context context, AttributeSet attrs) {
@@ -71,6 +109,38 @@ public class CameraGLSurfaceView extends GLSurfaceView {
         return mTexListener;
     }
 
+    /**
+     * @param maxWidth - frames wider than this are downscaled before read back, or -1 for none
+     */
+    public void setCameraFrameListener(CameraFrameListener frameListener, int maxWidth)
+    {
+        mFrameListener = frameListener;
+        mMaxFrameWidth = maxWidth;
+    }
+
+    public CameraFrameListener getCameraFrameListener()
+    {
+        return mFrameListener;
+    }
+
+    public int getMaxFrameWidth()
+    {
+        return mMaxFrameWidth;
+    }
+
+    /**
+     * Records the read back time ("gl.readback") and the rate of camera frames drawn.
+     */
+    public void setFrameMetrics(FrameMetrics metrics)
+    {
+        mMetrics = metrics != null ? metrics : FrameMetrics.NONE;
+    }
+
+    public FrameMetrics getFrameMetrics()
+    {
+        return mMetrics;
+    }
+
     public void setCameraIndex(int cameraIndex) {
         mRenderer.setCameraIndex(cameraIndex);
     }
@@ -0,0 +1,372 @@
+package org.opencv.android;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.Log;
+
+/**
+ * Named stage timings and counters for the camera processing path.
+ *
+ * <p>Code under measurement brackets a stage with {@link #start()} and {@link #end(String, long)};
+ * each stage keeps a rolling window of its most recent durations from which p50/p95/p99 are
+ * computed. {@link #count(String, long)} accumulates event counters such as allocations.
+ * {@link #frame()} is called once per displayed frame; at most once per report interval it takes
+ * a {@link Snapshot} and hands it to every registered {@link Exporter} on the calling thread.
+ *
+ * <p>Recording is thread safe and does not allocate once a stage has been seen. {@link #NONE}
+ * is a disabled instance whose calls return immediately.
+ */
+public class FrameMetrics {
+    private static final String TAG = "FrameMetrics";
+
+    public static final int  DEFAULT_WINDOW             = 128;
+    public static final long DEFAULT_REPORT_INTERVAL_MS = 1000;
+    /** Stage recording the interval between consecutive {@link #frame()} calls. */
+    public static final String FRAME_STAGE = "frame";
+
+    /** Disabled instance, used where no metrics have been configured. */
+    public static final FrameMetrics NONE = new FrameMetrics(1, DEFAULT_REPORT_INTERVAL_MS, false);
+
+    public interface Exporter {
+        void export(Snapshot snapshot);
+    }
+
+    public static class StageStats {
+        public final String name;
+        /** Samples recorded since creation. */
+        public final long   count;
+        public final double p50Ms;
+        public final double p95Ms;
+        public final double p99Ms;
+        public final double maxMs;
+
+        StageStats(String name, long count, double p50Ms, double p95Ms, double p99Ms, double maxMs) {
+            this.name = name;
+            this.count = count;
+            this.p50Ms = p50Ms;
+            this.p95Ms = p95Ms;
+            this.p99Ms = p99Ms;
+            this.maxMs = maxMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s p50=%.2f p95=%.2f p99=%.2f max=%.2f ms n=%d",
+                    name, p50Ms, p95Ms, p99Ms, maxMs, count);
+        }
+    }
+
+    public static class Snapshot {
+        public final long             timestampMs;
+        /** Frames per second over the rolling window of {@link #FRAME_STAGE}, or 0. */
+        public final double           fps;
+        public final List<StageStats> stages;
+        /** Counter totals since creation, by name. */
+        public final Map<String, Long> counters;
+        public final long             heapUsedBytes;
+
+        Snapshot(long timestampMs, double fps, List<StageStats> stages, Map<String, Long> counters,
+                 long heapUsedBytes) {
+            this.timestampMs = timestampMs;
+            this.fps = fps;
+            this.stages = stages;
+            this.counters = counters;
+            this.heapUsedBytes = heapUsedBytes;
+        }
+    }
+
+    private static final class Window {
+        final long[] samples;
+        int          next;
+        long         total;
+
+        Window(int size) {
+            samples = new long[size];
+        }
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            total++;
+        }
+
+        StageStats stats(String name, long[] scratch) {
+            int n;
+            long count;
+            synchronized (this) {
+                count = total;
+                n = (int) Math.min(total, samples.length);
+                System.arraycopy(samples, 0, scratch, 0, n);
+            }
+            if (n == 0)
+                return new StageStats(name, 0, 0, 0, 0, 0);
+            Arrays.sort(scratch, 0, n);
+            return new StageStats(name, count, percentile(scratch, n, 0.50), percentile(scratch, n, 0.95),
+                    percentile(scratch, n, 0.99), scratch[n - 1] / 1e6);
+        }
+
+        private static double percentile(long[] sorted, int n, double p) {
+            int rank = (int) Math.ceil(p * n) - 1;
+            return sorted[Math.max(0, Math.min(n - 1, rank))] / 1e6;
+        }
+    }
+
+    private final int                                  mWindow;
+    private final long                                 mReportIntervalNs;
+    private final ConcurrentHashMap<String, Window>     mStages = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> mCounters = new ConcurrentHashMap<>();
+    private final List<Exporter>                       mExporters = new CopyOnWriteArrayList<>();
+    private volatile boolean                           mEnabled;
+    private long                                       mLastFrameNs;
+    private long                                       mLastReportNs;
+
+    public FrameMetrics() {
+        this(DEFAULT_WINDOW, DEFAULT_REPORT_INTERVAL_MS, true);
+    }
+
+    /**
+     * @param window           number of most recent samples per stage used for percentiles
+     * @param reportIntervalMs minimum time between exports
+     */
+    public FrameMetrics(int window, long reportIntervalMs) {
+        this(window, reportIntervalMs, true);
+    }
+
+    private FrameMetrics(int window, long reportIntervalMs, boolean enabled) {
+        if (window < 1)
+            throw new IllegalArgumentException("Window must be positive: " + window);
+        mWindow = window;
+        mReportIntervalNs = reportIntervalMs * 1000000L;
+        mEnabled = enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        if (this != NONE)
+            mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public void addExporter(Exporter exporter) {
+        mExporters.add(exporter);
+    }
+
+    public void removeExporter(Exporter exporter) {
+        mExporters.remove(exporter);
+    }
+
+    /**
+     * Returns the start timestamp of a span, to be passed to {@link #end(String, long)}.
+     */
+    public long start() {
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since {@code start} under {@code stage}.
+     */
+    public void end(String stage, long start) {
+        if (!mEnabled || start == 0)
+            return;
+        record(stage, System.nanoTime() - start);
+    }
+
+    public void record(String stage, long nanos) {
+        if (!mEnabled)
+            return;
+        Window window = mStages.get(stage);
+        if (window == null) {
+            window = new Window(mWindow);
+            Window existing = mStages.putIfAbsent(stage, window);
+            if (existing != null)
+                window = existing;
+        }
+        window.record(nanos);
+    }
+
+    /**
+     * Adds {@code delta} to the counter {@code name}.
+     */
+    public void count(String name, long delta) {
+        if (!mEnabled)
+            return;
+        AtomicLong counter = mCounters.get(name);
+        if (counter == null) {
+            counter = new AtomicLong();
+            AtomicLong existing = mCounters.putIfAbsent(name, counter);
+            if (existing != null)
+                counter = existing;
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Marks the end of a displayed frame and exports a snapshot if the report interval has elapsed.
+     * Must be called from a single thread.
+     */
+    public void frame() {
+        if (!mEnabled)
+            return;
+        long now = System.nanoTime();
+        if (mLastFrameNs != 0)
+            record(FRAME_STAGE, now - mLastFrameNs);
+        mLastFrameNs = now;
+        if (mLastReportNs == 0) {
+            mLastReportNs = now;
+        } else if (now - mLastReportNs >= mReportIntervalNs && !mExporters.isEmpty()) {
+            mLastReportNs = now;
+            Snapshot snapshot = snapshot();
+            for (Exporter exporter : mExporters) {
+                exporter.export(snapshot);
+            }
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] scratch = new long[mWindow];
+        List<String> names = new ArrayList<>(mStages.keySet());
+        Collections.sort(names);
+        List<StageStats> stages = new ArrayList<>(names.size());
+        double fps = 0;
+        for (String name : names) {
+            StageStats stats = mStages.get(name).stats(name, scratch);
+            if (FRAME_STAGE.equals(name)) {
+                if (stats.p50Ms > 0)
+                    fps = 1000. / stats.p50Ms;
+            } else {
+                stages.add(stats);
+            }
+        }
+        Map<String, Long> counters = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : mCounters.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().get());
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return new Snapshot(System.currentTimeMillis(), fps, Collections.unmodifiableList(stages),
+                Collections.unmodifiableMap(counters), runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * Drops all recorded samples and counters.
+     */
+    public void reset() {
+        mStages.clear();
+        mCounters.clear();
+        mLastFrameNs = 0;
+        mLastReportNs = 0;
+    }
+
+    /**
+     * Writes each snapshot to logcat, one line per stage.
+     */
+    public static class LogcatExporter implements Exporter {
+        private static final DecimalFormat FPS_FORMAT = new DecimalFormat("0.00");
+
+        @Override
+        public void export(Snapshot snapshot) {
+            Log.i(TAG, FPS_FORMAT.format(snapshot.fps) + " FPS, heap " + (snapshot.heapUsedBytes >> 10) + " KiB");
+            for (StageStats stage : snapshot.stages) {
+                Log.i(TAG, stage.toString());
+            }
+            if (!snapshot.counters.isEmpty())
+                Log.i(TAG, snapshot.counters.toString());
+        }
+    }
+
+    /**
+     * Appends each snapshot to a CSV file with one row per stage and counter. The file is written
+     * on the thread that calls {@link #frame()}; call {@link #close()} when done.
+     */
+    public static class FileExporter implements Exporter {
+        private final Writer mWriter;
+
+        public FileExporter(File file) throws IOException {
+            boolean header = !file.exists() || file.length() == 0;
+            mWriter = new FileWriter(file, true);
+            if (header)
+                mWriter.write("timestamp_ms,name,count,p50_ms,p95_ms,p99_ms,max_ms\n");
+        }
+
+        @Override
+        public synchronized void export(Snapshot snapshot) {
+            try {
+                mWriter.write(String.format(Locale.US, "%d,fps,0,%.2f,,,\n", snapshot.timestampMs, snapshot.fps));
+                mWriter.write(String.format(Locale.US, "%d,heap_bytes,%d,,,,\n", snapshot.timestampMs, snapshot.heapUsedBytes));
+                for (StageStats stage : snapshot.stages) {
+                    mWriter.write(String.format(Locale.US, "%d,%s,%d,%.3f,%.3f,%.3f,%.3f\n", snapshot.timestampMs,
+                            stage.name, stage.count, stage.p50Ms, stage.p95Ms, stage.p99Ms, stage.maxMs));
+                }
+                for (Map.Entry<String, Long> counter : snapshot.counters.entrySet()) {
+                    mWriter.write(String.format(Locale.US, "%d,%s,%d,,,,\n", snapshot.timestampMs,
+                            counter.getKey(), counter.getValue()));
+                }
+                mWriter.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write metrics", e);
+            }
+        }
+
+        public synchronized void close() {
+            try {
+                mWriter.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close metrics file", e);
+            }
+        }
+    }
+
+    /**
+     * Keeps the latest snapshot as text lines to be drawn over the preview.
+     */
+    public static class OverlayExporter implements Exporter {
+        private static final DecimalFormat FPS_FORMAT = new DecimalFormat("0.00");
+
+        private final Paint       mPaint;
+        private volatile String[] mLines = new String[0];
+
+        public OverlayExporter() {
+            mPaint = new Paint();
+            mPaint.setColor(Color.YELLOW);
+            mPaint.setTextSize(20);
+        }
+
+        @Override
+        public void export(Snapshot snapshot) {
+            String[] lines = new String[snapshot.stages.size() + 1];
+            lines[0] = FPS_FORMAT.format(snapshot.fps) + " FPS";
+            for (int i = 0; i < snapshot.stages.size(); i++) {
+                StageStats stage = snapshot.stages.get(i);
+                lines[i + 1] = String.format(Locale.US, "%s %.1f/%.1f/%.1f ms",
+                        stage.name, stage.p50Ms, stage.p95Ms, stage.p99Ms);
+            }
+            mLines = lines;
+        }
+
+        public void draw(Canvas canvas, float offsetx, float offsety) {
+            float step = mPaint.getTextSize() * 1.2f;
+            String[] lines = mLines;
+            for (int i = 0; i < lines.length; i++) {
+                canvas.drawText(lines[i], offsetx, offsety + i * step, mPaint);
+            }
+        }
+    }
+}
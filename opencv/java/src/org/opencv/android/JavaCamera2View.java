@@ -42,6 +42,7 @@ import org.opencv.imgproc.Imgproc;
 public class JavaCamera2View extends CameraBridgeViewBase {
 
     private static final String LOGTAG = "JavaCamera2View";
+    private static final int FRAME_POOL_SIZE = 2;
 
     protected ImageReader mImageReader;
     protected int mPreviewFormat = ImageFormat.YUV_420_888;
@@ -57,6 +58,11 @@ public class JavaCamera2View extends CameraBridgeViewBase {
     private HandlerThread mBackgroundThread;
     protected Handler mBackgroundHandler;
 
+    private boolean mFramePooling = false;
+    private JavaCamera2Frame[] mFramePool;
+    private RotatedCameraFrame[] mRotatedFramePool;
+    private int mFramePoolIndex;
+
     public JavaCamera2View(Context context, int cameraId) {
         super(context, cameraId);
     }
@@ -65,6 +71,41 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         super(context, attrs);
     }
 
+    /**
+     * Enables or disables pooled frame mode, which is off by default. When enabled, a fixed ring
+     * of frame objects with their RGBA and YUV staging buffers is allocated in connectCamera and
+     * reused for every image instead of allocating new ones per frame. In both modes Mats returned
+     * by the frames passed to the listener are only valid until the listener returns. Takes effect
+     * on the next connectCamera call.
+     */
+    public void setFramePooling(boolean enabled) {
+        mFramePooling = enabled;
+    }
+
+    private void allocateFramePool(int width, int height) {
+        releaseFramePool();
+        if (!mFramePooling)
+            return;
+        mFramePool = new JavaCamera2Frame[FRAME_POOL_SIZE];
+        mRotatedFramePool = new RotatedCameraFrame[FRAME_POOL_SIZE];
+        for (int i = 0; i < FRAME_POOL_SIZE; i++) {
+            mFramePool[i] = new JavaCamera2Frame(width, height);
+            mRotatedFramePool[i] = new RotatedCameraFrame(mFramePool[i], mFrameRotation);
+        }
+        mFramePoolIndex = 0;
+    }
+
+    private void releaseFramePool() {
+        if (mFramePool == null)
+            return;
+        for (int i = 0; i < mFramePool.length; i++) {
+            mFramePool[i].release();
+            mRotatedFramePool[i].release();
+        }
+        mFramePool = null;
+        mRotatedFramePool = null;
+    }
+
     private void startBackgroundThread() {
         Log.i(LOGTAG, "startBackgroundThread");
         stopBackgroundThread();
@@ -214,10 +255,20 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                     assert (planes.length == 3);
                     assert (image.getFormat() == mPreviewFormat);
 
-                    RotatedCameraFrame tempFrame = new RotatedCameraFrame(new JavaCamera2Frame(image), mFrameRotation);
-                    deliverAndDrawFrame(tempFrame);
-                    tempFrame.mFrame.release();
-                    tempFrame.release();
+                    if (mFramePool != null) {
+                        int index = mFramePoolIndex;
+                        mFramePoolIndex = (index + 1) % mFramePool.length;
+                        mFramePool[index].setImage(image);
+                        mRotatedFramePool[index].reset(mFramePool[index], mFrameRotation);
+                        deliverAndDrawFrame(mRotatedFramePool[index]);
+                        mFramePool[index].setImage(null);
+                    } else {
+                        RotatedCameraFrame tempFrame = new RotatedCameraFrame(new JavaCamera2Frame(image), mFrameRotation);
+                        mMetrics.count("camera2.frameAlloc", 1);
+                        deliverAndDrawFrame(tempFrame);
+                        tempFrame.mFrame.release();
+                        tempFrame.release();
+                    }
                     image.close();
                 }
             }, mBackgroundHandler);
@@ -252,6 +303,7 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                 mImageReader.close();
                 mImageReader = null;
             }
+            releaseFramePool();
         }
         Log.i(LOGTAG, "camera closed!");
     }
@@ -328,6 +380,7 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                 mScale = 0;
 
             AllocateCache();
+            allocateFramePool(mPreviewSize.getWidth(), mPreviewSize.getHeight());
 
             if (needReconfig) {
                 if (null != mCaptureSession) {
@@ -351,21 +404,21 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         return true;
     }
 
-    private class JavaCamera2Frame implements CvCameraViewFrame {
+    private class JavaCamera2Frame implements CvCameraViewFrame, CvCameraViewYuvFrame {
         @Override
         public Mat gray() {
-            Image.Plane[] planes = mImage.getPlanes();
-            int w = mImage.getWidth();
-            int h = mImage.getHeight();
-            assert(planes[0].getPixelStride() == 1);
-            ByteBuffer y_plane = planes[0].getBuffer();
-            int y_plane_step = planes[0].getRowStride();
-            mGray = new Mat(h, w, CvType.CV_8UC1, y_plane, y_plane_step);
-            return mGray;
+            return wrapLuma();
         }
 
         @Override
         public Mat rgba() {
+            long start = mMetrics.start();
+            Mat rgba = convertToRgba();
+            mMetrics.end("camera.yuv2rgba", start);
+            return rgba;
+        }
+
+        private Mat convertToRgba() {
             Image.Plane[] planes = mImage.getPlanes();
             int w = mImage.getWidth();
             int h = mImage.getHeight();
@@ -373,28 +426,17 @@ public class JavaCamera2View extends CameraBridgeViewBase {
 
 
             if (chromaPixelStride == 2) { // Chroma channels are interleaved
-                assert(planes[0].getPixelStride() == 1);
-                assert(planes[2].getPixelStride() == 2);
-                ByteBuffer y_plane = planes[0].getBuffer();
-                int y_plane_step = planes[0].getRowStride();
-                ByteBuffer uv_plane1 = planes[1].getBuffer();
-                int uv_plane1_step = planes[1].getRowStride();
-                ByteBuffer uv_plane2 = planes[2].getBuffer();
-                int uv_plane2_step = planes[2].getRowStride();
-                Mat y_mat = new Mat(h, w, CvType.CV_8UC1, y_plane, y_plane_step);
-                Mat uv_mat1 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane1, uv_plane1_step);
-                Mat uv_mat2 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane2, uv_plane2_step);
-                long addr_diff = uv_mat2.dataAddr() - uv_mat1.dataAddr();
-                if (addr_diff > 0) {
-                    assert(addr_diff == 1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat1, mRgba, Imgproc.COLOR_YUV2RGBA_NV12);
-                } else {
-                    assert(addr_diff == -1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat2, mRgba, Imgproc.COLOR_YUV2RGBA_NV21);
-                }
+                wrapPlanes();
+                Imgproc.cvtColorTwoPlane(mYPlane, mUvPlane, mRgba,
+                        mYuvNv12 ? Imgproc.COLOR_YUV2RGBA_NV12 : Imgproc.COLOR_YUV2RGBA_NV21);
                 return mRgba;
             } else { // Chroma channels are not interleaved
-                byte[] yuv_bytes = new byte[w*(h+h/2)];
+                byte[] yuv_bytes = mYuvBytes;
+                if (yuv_bytes == null || yuv_bytes.length != w*(h+h/2)) {
+                    yuv_bytes = new byte[w*(h+h/2)];
+                    mYuvBytes = yuv_bytes;
+                    mMetrics.count("camera2.allocBytes", yuv_bytes.length);
+                }
                 ByteBuffer y_plane = planes[0].getBuffer();
                 ByteBuffer u_plane = planes[1].getBuffer();
                 ByteBuffer v_plane = planes[2].getBuffer();
@@ -444,29 +486,132 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                     }
                 }
 
-                Mat yuv_mat = new Mat(h+h/2, w, CvType.CV_8UC1);
+                Mat yuv_mat = mYuvMat != null ? mYuvMat : new Mat();
+                yuv_mat.create(h+h/2, w, CvType.CV_8UC1);
                 yuv_mat.put(0, 0, yuv_bytes);
                 Imgproc.cvtColor(yuv_mat, mRgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
+                if (yuv_mat != mYuvMat)
+                    yuv_mat.release();
                 return mRgba;
             }
         }
 
 
+        @Override
+        public Mat yPlane() {
+            return mImage.getPlanes()[1].getPixelStride() == 2 && wrapPlanes() ? mYPlane : null;
+        }
+
+        @Override
+        public Mat uvPlane() {
+            return mImage.getPlanes()[1].getPixelStride() == 2 && wrapPlanes() ? mUvPlane : null;
+        }
+
+        @Override
+        public int yuvToBgrCode() {
+            if (mImage.getPlanes()[1].getPixelStride() == 2)
+                wrapPlanes();
+            return mYuvNv12 ? Imgproc.COLOR_YUV2BGR_NV12 : Imgproc.COLOR_YUV2BGR_NV21;
+        }
+
+        @Override
+        public int rotation() {
+            return 0;
+        }
+
+        /**
+         * Wraps the luma plane of the current image, once per image; it serves as both the gray
+         * frame and the Y plane.
+         */
+        private Mat wrapLuma() {
+            if (mYPlane == null) {
+                Image.Plane plane = mImage.getPlanes()[0];
+                assert(plane.getPixelStride() == 1);
+                mYPlane = new Mat(mImage.getHeight(), mImage.getWidth(), CvType.CV_8UC1,
+                        plane.getBuffer(), plane.getRowStride());
+            }
+            return mYPlane;
+        }
+
+        /**
+         * Wraps the luma and interleaved chroma planes of the current image, once per image.
+         */
+        private boolean wrapPlanes() {
+            if (mUvPlane != null)
+                return true;
+            wrapLuma();
+            Image.Plane[] planes = mImage.getPlanes();
+            int w = mImage.getWidth();
+            int h = mImage.getHeight();
+            assert(planes[2].getPixelStride() == 2);
+            ByteBuffer uv_plane1 = planes[1].getBuffer();
+            int uv_plane1_step = planes[1].getRowStride();
+            ByteBuffer uv_plane2 = planes[2].getBuffer();
+            int uv_plane2_step = planes[2].getRowStride();
+            Mat uv_mat1 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane1, uv_plane1_step);
+            Mat uv_mat2 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane2, uv_plane2_step);
+            long addr_diff = uv_mat2.dataAddr() - uv_mat1.dataAddr();
+            if (addr_diff > 0) {
+                assert(addr_diff == 1);
+                mYuvNv12 = true;
+                mUvPlane = uv_mat1;
+                uv_mat2.release();
+            } else {
+                assert(addr_diff == -1);
+                mYuvNv12 = false;
+                mUvPlane = uv_mat2;
+                uv_mat1.release();
+            }
+            return true;
+        }
+
+        private void releasePlanes() {
+            if (mYPlane != null) {
+                mYPlane.release();
+                mYPlane = null;
+            }
+            if (mUvPlane != null) {
+                mUvPlane.release();
+                mUvPlane = null;
+            }
+        }
+
         public JavaCamera2Frame(Image image) {
             super();
             mImage = image;
             mRgba = new Mat();
-            mGray = new Mat();
+        }
+
+        /**
+         * Pooled frame: the RGBA Mat and the I420 staging buffers are allocated once for
+         * {@code width}x{@code height} images and reused by every {@link #setImage}.
+         */
+        public JavaCamera2Frame(int width, int height) {
+            this(null);
+            mRgba.create(height, width, CvType.CV_8UC4);
+            mYuvBytes = new byte[width * (height + height / 2)];
+            mYuvMat = new Mat(height + height / 2, width, CvType.CV_8UC1);
+        }
+
+        void setImage(Image image) {
+            releasePlanes();
+            mImage = image;
         }
 
         @Override
         public void release() {
+            releasePlanes();
             mRgba.release();
-            mGray.release();
+            if (mYuvMat != null)
+                mYuvMat.release();
         }
 
         private Image mImage;
         private Mat mRgba;
-        private Mat mGray;
+        private byte[] mYuvBytes;
+        private Mat mYuvMat;
+        private Mat mYPlane;
+        private Mat mUvPlane;
+        private boolean mYuvNv12;
     };
 }
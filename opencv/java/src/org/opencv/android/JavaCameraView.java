@@ -1,6 +1,9 @@
 package org.opencv.android;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import android.content.Context;
 import android.graphics.ImageFormat;
@@ -29,17 +32,30 @@ import org.opencv.imgproc.Imgproc;
  * disconnectCamera - closes the camera and stops preview.
  * When frame is delivered via callback from Camera - it processed via OpenCV to be
  * converted to RGBA32 and then passed to the external callback for modifications if required.
+ *
+ * Frames are handed from the camera callback to the processing thread through three preview
+ * buffers without locking: the camera fills one, the newest filled one waits for the processing
+ * thread and the processing thread works on the third. A frame still waiting when a newer one
+ * arrives is dropped and its buffer returned to the camera, so the camera is never held up and
+ * the processing thread always gets the latest frame. The processing thread copies a frame into
+ * its Mat, so the callback never waits for a copy.
  */
 public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallback {
 
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
+    /** Preview buffers: one being filled, one ready and one being processed. */
+    private static final int FRAME_SLOTS = 3;
+    private static final int NO_SLOT = -1;
 
-    private byte mBuffer[];
+    /** Preview buffers registered with the camera, one per slot. */
+    private byte[][] mBuffers;
     private Mat[] mFrameChain;
-    private int mChainIdx = 0;
+    /** Slot of the newest filled frame not yet taken by the processing thread, or NO_SLOT. */
+    private final AtomicInteger mReadySlot = new AtomicInteger(NO_SLOT);
+    private final AtomicLong mDroppedFrames = new AtomicLong();
     private Thread mThread;
-    private boolean mStopThread;
+    private volatile boolean mStopThread;
 
     protected Camera mCamera;
     protected RotatedCameraFrame[] mCameraFrame;
@@ -199,20 +215,19 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
                     int size = mFrameWidth * mFrameHeight;
                     size  = size * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
-                    mBuffer = new byte[size];
+                    int yuvRows = rawFrameHeight + (rawFrameHeight/2);
+                    allocateFrameChain(yuvRows, rawFrameWidth, Math.max(size, yuvRows * rawFrameWidth));
 
-                    mCamera.addCallbackBuffer(mBuffer);
+                    mReadySlot.set(NO_SLOT);
+                    for (byte[] buffer : mBuffers)
+                        mCamera.addCallbackBuffer(buffer);
                     mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(rawFrameHeight + (rawFrameHeight/2), rawFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(rawFrameHeight + (rawFrameHeight/2), rawFrameWidth, CvType.CV_8UC1);
-
                     AllocateCache();
 
-                    mCameraFrame = new RotatedCameraFrame[2];
-                    mCameraFrame[0] = new RotatedCameraFrame(new JavaCameraFrame(mFrameChain[0], rawFrameWidth, rawFrameHeight), frameRotation);
-                    mCameraFrame[1] = new RotatedCameraFrame(new JavaCameraFrame(mFrameChain[1], rawFrameWidth, rawFrameHeight), frameRotation);
+                    mCameraFrame = new RotatedCameraFrame[FRAME_SLOTS];
+                    for (int i = 0; i < FRAME_SLOTS; i++)
+                        mCameraFrame[i] = new RotatedCameraFrame(new JavaCameraFrame(mFrameChain[i], rawFrameWidth, rawFrameHeight), frameRotation);
 
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
@@ -235,6 +250,24 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         return result;
     }
 
+    /** Allocates a preview buffer and a frame Mat it is copied into for each slot. */
+    private void allocateFrameChain(int rows, int cols, int bytes) {
+        mBuffers = new byte[FRAME_SLOTS][];
+        mFrameChain = new Mat[FRAME_SLOTS];
+        for (int i = 0; i < FRAME_SLOTS; i++) {
+            mBuffers[i] = new byte[bytes];
+            mFrameChain[i] = new Mat(rows, cols, CvType.CV_8UC1);
+        }
+    }
+
+    /**
+     * Frames dropped since the view was created because a newer frame arrived before the
+     * processing thread took them.
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
     protected void releaseCamera() {
         synchronized (this) {
             if (mCamera != null) {
@@ -245,20 +278,19 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             }
             mCamera = null;
             if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
+                for (Mat frame : mFrameChain)
+                    frame.release();
             }
             if (mCameraFrame != null) {
-                mCameraFrame[0].mFrame.release();
-                mCameraFrame[0].release();
-                mCameraFrame[1].mFrame.release();
-                mCameraFrame[1].release();
+                for (RotatedCameraFrame frame : mCameraFrame) {
+                    frame.mFrame.release();
+                    frame.release();
+                }
             }
+            mBuffers = null;
         }
     }
 
-    private boolean mCameraFrameReady = false;
-
     @Override
     protected boolean connectCamera(int width, int height) {
 
@@ -270,8 +302,6 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         if (!initializeCamera(width, height))
             return false;
 
-        mCameraFrameReady = false;
-
         /* now we can start update thread */
         Log.d(TAG, "Starting processing thread");
         mStopThread = false;
@@ -290,9 +320,7 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         try {
             mStopThread = true;
             Log.d(TAG, "Notify thread");
-            synchronized (this) {
-                this.notify();
-            }
+            LockSupport.unpark(mThread);
             Log.d(TAG, "Waiting for thread");
             if (mThread != null)
                 mThread.join();
@@ -304,24 +332,44 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
         /* Now release camera */
         releaseCamera();
-
-        mCameraFrameReady = false;
     }
 
     @Override
     public void onPreviewFrame(byte[] frame, Camera arg1) {
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
-        synchronized (this) {
-            mFrameChain[mChainIdx].put(0, 0, frame);
-            mCameraFrameReady = true;
-            this.notify();
+        int slot = slotOf(frame);
+        if (slot == NO_SLOT)
+            return;
+        int dropped = mReadySlot.getAndSet(slot);
+        if (dropped != NO_SLOT) {
+            mDroppedFrames.incrementAndGet();
+            mMetrics.count("camera.dropped", 1);
+            returnBuffer(dropped);
         }
-        if (mCamera != null)
-            mCamera.addCallbackBuffer(mBuffer);
+        LockSupport.unpark(mThread);
+    }
+
+    /** The slot of a preview buffer, or NO_SLOT for one left over from a previous connection. */
+    private int slotOf(byte[] buffer) {
+        byte[][] buffers = mBuffers;
+        if (buffers != null) {
+            for (int i = 0; i < FRAME_SLOTS; i++) {
+                if (buffers[i] == buffer)
+                    return i;
+            }
+        }
+        return NO_SLOT;
+    }
+
+    /** Hands the buffer of {@code slot} back to the camera to be filled again. */
+    private void returnBuffer(int slot) {
+        Camera camera = mCamera;
+        if (camera != null)
+            camera.addCallbackBuffer(mBuffers[slot]);
     }
 
-    private class JavaCameraFrame implements CvCameraViewFrame {
+    private class JavaCameraFrame implements CvCameraViewFrame, CvCameraViewYuvFrame {
         @Override
         public Mat gray() {
             return mYuvFrameData.submat(0, mHeight, 0, mWidth);
@@ -329,12 +377,14 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
         @Override
         public Mat rgba() {
+            long start = mMetrics.start();
             if (mPreviewFormat == ImageFormat.NV21)
                 Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
             else if (mPreviewFormat == ImageFormat.YV12)
                 Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGB_I420, 4);  // COLOR_YUV2RGBA_YV12 produces inverted colors
             else
                 throw new IllegalArgumentException("Preview Format can be NV21 or YV12");
+            mMetrics.end("camera.yuv2rgba", start);
 
             return mRgba;
         }
@@ -345,15 +395,43 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             mHeight = height;
             mYuvFrameData = Yuv420sp;
             mRgba = new Mat();
+            mYPlane = mYuvFrameData.submat(0, height, 0, width);
+            Mat chroma = mYuvFrameData.submat(height, height + height / 2, 0, width);
+            mUvPlane = chroma.reshape(2);
+            chroma.release();
+        }
+
+        @Override
+        public Mat yPlane() {
+            return mYPlane;
+        }
+
+        @Override
+        public Mat uvPlane() {
+            return mPreviewFormat == ImageFormat.NV21 ? mUvPlane : null;
+        }
+
+        @Override
+        public int yuvToBgrCode() {
+            return Imgproc.COLOR_YUV2BGR_NV21;
+        }
+
+        @Override
+        public int rotation() {
+            return 0;
         }
 
         @Override
         public void release() {
             mRgba.release();
+            mYPlane.release();
+            mUvPlane.release();
         }
 
         private Mat mYuvFrameData;
         private Mat mRgba;
+        private Mat mYPlane;
+        private Mat mUvPlane;
         private int mWidth;
         private int mHeight;
     };
@@ -363,27 +441,20 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         @Override
         public void run() {
             do {
-                boolean hasFrame = false;
-                synchronized (JavaCameraView.this) {
-                    try {
-                        while (!mCameraFrameReady && !mStopThread) {
-                            JavaCameraView.this.wait();
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    if (mCameraFrameReady)
-                    {
-                        mChainIdx = 1 - mChainIdx;
-                        mCameraFrameReady = false;
-                        hasFrame = true;
-                    }
+                int slot = mReadySlot.getAndSet(NO_SLOT);
+                if (slot == NO_SLOT) {
+                    // Spurious wakeups only cost another look at the ready slot.
+                    LockSupport.park(JavaCameraView.this);
+                    continue;
                 }
 
-                if (!mStopThread && hasFrame) {
-                    if (!mFrameChain[1 - mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[1 - mChainIdx]);
+                if (!mStopThread) {
+                    long start = mMetrics.start();
+                    mFrameChain[slot].put(0, 0, mBuffers[slot]);
+                    mMetrics.end("camera.copy", start);
+                    deliverAndDrawFrame(mCameraFrame[slot]);
                 }
+                returnBuffer(slot);
             } while (!mStopThread);
             Log.d(TAG, "Finish processing thread");
         }
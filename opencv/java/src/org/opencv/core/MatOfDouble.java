@@ -3,6 +3,8 @@ package org.opencv.core;
 import java.util.Arrays;
 import java.util.List;
 
+import org.opencv.utils.Converters;
+
 public class MatOfDouble extends Mat {
     // 64FC(x)
     private static final int _depth = CvType.CV_64F;
@@ -59,13 +61,21 @@ public class MatOfDouble extends Mat {
         return a;
     }
 
+    /**
+     * Copies the elements into {@code a} if it has room for all of them and returns it, or into
+     * a new array otherwise. The number of elements is {@link #total()}.
+     */
+    public double[] toArray(double[] a) {
+        return Converters.Mat_to_vector_double(this, a);
+    }
+
     public void fromList(List<Double> lb) {
         if(lb==null || lb.size()==0)
             return;
-        Double ab[] = lb.toArray(new Double[0]);
-        double a[] = new double[ab.length];
-        for(int i=0; i<ab.length; i++)
-            a[i] = ab[i];
+        double a[] = new double[lb.size()];
+        int i = 0;
+        for(Double v : lb)
+            a[i++] = v;
         fromArray(a);
     }
 
@@ -3,6 +3,8 @@ package org.opencv.core;
 import java.util.Arrays;
 import java.util.List;
 
+import org.opencv.utils.Converters;
+
 public class MatOfFloat extends Mat {
     // 32FC1
     private static final int _depth = CvType.CV_32F;
@@ -59,13 +61,21 @@ public class MatOfFloat extends Mat {
         return a;
     }
 
+    /**
+     * Copies the elements into {@code a} if it has room for all of them and returns it, or into
+     * a new array otherwise. The number of elements is {@link #total()}.
+     */
+    public float[] toArray(float[] a) {
+        return Converters.Mat_to_vector_float(this, a);
+    }
+
     public void fromList(List<Float> lb) {
         if(lb==null || lb.size()==0)
             return;
-        Float ab[] = lb.toArray(new Float[0]);
-        float a[] = new float[ab.length];
-        for(int i=0; i<ab.length; i++)
-            a[i] = ab[i];
+        float a[] = new float[lb.size()];
+        int i = 0;
+        for(Float v : lb)
+            a[i++] = v;
         fromArray(a);
     }
 
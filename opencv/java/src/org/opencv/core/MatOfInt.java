@@ -3,6 +3,8 @@ package org.opencv.core;
 import java.util.Arrays;
 import java.util.List;
 
+import org.opencv.utils.Converters;
+
 
 public class MatOfInt extends Mat {
     // 32SC1
@@ -60,13 +62,21 @@ public class MatOfInt extends Mat {
         return a;
     }
 
+    /**
+     * Copies the elements into {@code a} if it has room for all of them and returns it, or into
+     * a new array otherwise. The number of elements is {@link #total()}.
+     */
+    public int[] toArray(int[] a) {
+        return Converters.Mat_to_vector_int(this, a);
+    }
+
     public void fromList(List<Integer> lb) {
         if(lb==null || lb.size()==0)
             return;
-        Integer ab[] = lb.toArray(new Integer[0]);
-        int a[] = new int[ab.length];
-        for(int i=0; i<ab.length; i++)
-            a[i] = ab[i];
+        int a[] = new int[lb.size()];
+        int i = 0;
+        for(Integer v : lb)
+            a[i++] = v;
         fromArray(a);
     }
 
@@ -3,6 +3,8 @@ package org.opencv.core;
 import java.util.Arrays;
 import java.util.List;
 
+import org.opencv.utils.Converters;
+
 
 public class MatOfRect extends Mat {
     // 32SC4
@@ -45,7 +47,6 @@ public class MatOfRect extends Mat {
         if(a==null || a.length==0)
             return;
         int num = a.length;
-        alloc(num);
         int buff[] = new int[num * _channels];
         for(int i=0; i<num; i++) {
             Rect r = a[i];
@@ -54,21 +55,23 @@ public class MatOfRect extends Mat {
             buff[_channels*i+2] = (int) r.width;
             buff[_channels*i+3] = (int) r.height;
         }
-        put(0, 0, buff); //TODO: check ret val!
+        Converters.vector_Rect_to_Mat(buff, num, this);
     }
 
 
     public Rect[] toArray() {
-        int num = (int) total();
-        Rect[] a = new Rect[num];
-        if(num == 0)
-            return a;
-        int buff[] = new int[num * _channels];
-        get(0, 0, buff); //TODO: check ret val!
-        for(int i=0; i<num; i++)
-            a[i] = new Rect(buff[i*_channels], buff[i*_channels+1], buff[i*_channels+2], buff[i*_channels+3]);
-        return a;
+        return toArray(null, null);
     }
+
+    /**
+     * Reads the rects into the objects of {@code a}, which is returned if it has exactly
+     * {@link #total()} elements. {@code buff} is a reusable holder for the packed values, may be
+     * null. See {@link Converters#Mat_to_vector_Rect(Mat, Rect[], int[])}.
+     */
+    public Rect[] toArray(Rect[] a, int[] buff) {
+        return Converters.Mat_to_vector_Rect(this, a, buff);
+    }
+
     public void fromList(List<Rect> lr) {
         Rect ap[] = lr.toArray(new Rect[0]);
         fromArray(ap);
@@ -0,0 +1,190 @@
+package org.opencv.core;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-confined pool of Mats keyed by shape and type, for temporaries that are allocated and
+ * dropped at the same shape on every frame. A Mat is borrowed with {@link #acquire} and handed
+ * back with {@link #recycle}; once every shape in use has an idle Mat, borrowing does no native
+ * or heap allocation.
+ *
+ * <p>{@link #local()} returns the pool of the calling thread. Pools must only be used from the
+ * thread that owns them. Hit and miss counts are kept per pool and summed over all pools by
+ * {@link #totalHits()} and {@link #totalMisses()}.
+ */
+public final class MatPool {
+
+    /** Idle Mats kept per shape; further recycled Mats of that shape are released. */
+    public static final int DEFAULT_MAX_IDLE   = 8;
+    /** Shapes kept; recycling a new shape beyond this drops the least recently used one. */
+    public static final int DEFAULT_MAX_SHAPES = 16;
+
+    /** Creates the Mats of borrows that find no idle one. */
+    interface Allocator {
+        Mat allocate(int rows, int cols, int type);
+    }
+
+    private static final ThreadLocal<MatPool> LOCAL = new ThreadLocal<MatPool>() {
+        @Override
+        protected MatPool initialValue() {
+            return new MatPool(DEFAULT_MAX_IDLE, DEFAULT_MAX_SHAPES);
+        }
+    };
+    private static final AtomicLong TOTAL_HITS = new AtomicLong();
+    private static final AtomicLong TOTAL_MISSES = new AtomicLong();
+
+    private final int          mMaxIdle;
+    private final int          mMaxShapes;
+    private final Allocator    mAllocator;
+    private long[]             mKeys = new long[4];
+    private long[]             mLastUse = new long[4];
+    private ArrayDeque<Mat>[]  mIdle = newBuckets(4);
+    private int                mShapes;
+    private long               mClock;
+    private long               mHits;
+    private long               mMisses;
+
+    /**
+     * @param maxIdle   idle Mats kept per shape
+     * @param maxShapes shapes kept
+     */
+    public MatPool(int maxIdle, int maxShapes) {
+        this(maxIdle, maxShapes, Mat::new);
+    }
+
+    MatPool(int maxIdle, int maxShapes, Allocator allocator) {
+        if (maxShapes < 1)
+            throw new IllegalArgumentException("maxShapes must be positive: " + maxShapes);
+        mMaxIdle = maxIdle;
+        mMaxShapes = maxShapes;
+        mAllocator = allocator;
+    }
+
+    /** The pool of the calling thread. */
+    public static MatPool local() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Returns an idle {@code rows}x{@code cols} Mat of {@code type}, or a new one if there is
+     * none. Its contents are undefined.
+     */
+    public Mat acquire(int rows, int cols, int type) {
+        int bucket = find(key(rows, cols, type));
+        if (bucket >= 0)
+            mLastUse[bucket] = ++mClock;
+        Mat mat = bucket >= 0 ? mIdle[bucket].pollLast() : null;
+        if (mat != null) {
+            mHits++;
+            TOTAL_HITS.incrementAndGet();
+            return mat;
+        }
+        mMisses++;
+        TOTAL_MISSES.incrementAndGet();
+        return mAllocator.allocate(rows, cols, type);
+    }
+
+    /**
+     * Hands {@code mat} back to be borrowed at its current shape, or releases it if it is empty,
+     * not a 2D Mat owning continuous data, or its shape already has enough idle Mats.
+     */
+    public void recycle(Mat mat) {
+        if (mat.empty() || mat.dims() > 2 || !mat.isContinuous() || mat.isSubmatrix()) {
+            mat.release();
+            return;
+        }
+        long key = key(mat.rows(), mat.cols(), mat.type());
+        int bucket = find(key);
+        if (bucket < 0)
+            bucket = add(key);
+        mLastUse[bucket] = ++mClock;
+        if (mIdle[bucket].size() < mMaxIdle)
+            mIdle[bucket].addLast(mat);
+        else
+            mat.release();
+    }
+
+    /** Releases all idle Mats. */
+    public void clear() {
+        for (int i = 0; i < mShapes; i++) {
+            for (Mat mat : mIdle[i]) {
+                mat.release();
+            }
+            mIdle[i].clear();
+        }
+    }
+
+    /** Borrows served by an idle Mat. */
+    public long hits() {
+        return mHits;
+    }
+
+    /** Borrows that allocated a new Mat. */
+    public long misses() {
+        return mMisses;
+    }
+
+    /** Idle Mats currently held. */
+    public int idle() {
+        int idle = 0;
+        for (int i = 0; i < mShapes; i++) {
+            idle += mIdle[i].size();
+        }
+        return idle;
+    }
+
+    public static long totalHits() {
+        return TOTAL_HITS.get();
+    }
+
+    public static long totalMisses() {
+        return TOTAL_MISSES.get();
+    }
+
+    /** Packs a shape; OpenCV types fit in 12 bits and dimensions here in 26. */
+    private static long key(int rows, int cols, int type) {
+        return ((long) rows << 38) | ((long) cols << 12) | type;
+    }
+
+    private int find(long key) {
+        // Pools hold a handful of shapes, so a linear scan beats hashing and does not box keys.
+        for (int i = 0; i < mShapes; i++) {
+            if (mKeys[i] == key)
+                return i;
+        }
+        return -1;
+    }
+
+    private int add(long key) {
+        if (mShapes == mMaxShapes) {
+            int oldest = 0;
+            for (int i = 1; i < mShapes; i++) {
+                if (mLastUse[i] < mLastUse[oldest])
+                    oldest = i;
+            }
+            for (Mat mat : mIdle[oldest]) {
+                mat.release();
+            }
+            mIdle[oldest].clear();
+            mKeys[oldest] = key;
+            return oldest;
+        }
+        if (mShapes == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, 2 * mShapes);
+            mLastUse = Arrays.copyOf(mLastUse, 2 * mShapes);
+            ArrayDeque<Mat>[] idle = newBuckets(2 * mShapes);
+            System.arraycopy(mIdle, 0, idle, 0, mShapes);
+            mIdle = idle;
+        }
+        mKeys[mShapes] = key;
+        mIdle[mShapes] = new ArrayDeque<>(mMaxIdle);
+        return mShapes++;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayDeque<Mat>[] newBuckets(int size) {
+        return new ArrayDeque[size];
+    }
+}
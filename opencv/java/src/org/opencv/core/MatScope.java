@@ -0,0 +1,284 @@
+package org.opencv.core;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Owns the Mats created or tracked inside a block and releases them together on {@link #close()},
+ * instead of leaving their native memory to the finalizer:
+ *
+ * <pre>
+ * try (MatScope scope = MatScope.open()) {
+ *     Mat roi = scope.track(image.submat(rect));
+ *     Mat gray = scope.mat();
+ *     Imgproc.cvtColor(roi, gray, Imgproc.COLOR_BGR2GRAY);
+ *     return scope.detach(result);
+ * }
+ * </pre>
+ *
+ * <p>Closing releases the data of every owned Mat in reverse order of tracking; the small native
+ * headers are still deleted by the finalizer. Scopes nest per thread and {@link #current()}
+ * returns the innermost open one. A scope belongs to the thread that opened it.
+ *
+ * <p>Mats borrowed with {@link #acquire} come from the thread's {@link MatPool} and are recycled to
+ * it on close instead of being released.
+ *
+ * <p>With {@link #setDebug debug} enabled, each tracked Mat records the stack it was tracked from,
+ * {@link #liveBytes()} sums the data held by open scopes, and a scope that is garbage collected
+ * without being closed is reported to the {@link LeakListener} with those stacks, after which its
+ * Mats are released. Leaks are checked for whenever a scope is opened.
+ *
+ * <p>This accounting only sees Mats while a scope tracks them. Mats created outside any scope,
+ * tracked by scopes opened with debug off, or detached from a scope count neither towards
+ * {@link #liveBytes()} nor as leaks, and are left to {@link Mat#release()} or the finalizer. A
+ * scope that is closed is never a leak, even if Mats it once owned are still referenced.
+ */
+public final class MatScope implements AutoCloseable {
+
+    public interface LeakListener {
+        /**
+         * Called for each Mat of a scope that was never closed.
+         *
+         * @param bytes   size of the Mat's data when the leak was found
+         * @param tracked stack from which the Mat was tracked
+         */
+        void onLeak(long bytes, Throwable tracked);
+    }
+
+    /** Reports leaks as warnings to {@link java.util.logging}, which Android forwards to logcat. */
+    public static final LeakListener LOG = (bytes, tracked) ->
+            Logger.getLogger(MatScope.class.getName()).log(Level.WARNING,
+                    "Leaked Mat of " + bytes + " bytes", tracked);
+
+    /** Weak so that a scope left open can still be collected and reported. */
+    private static final ThreadLocal<WeakReference<MatScope>> CURRENT = new ThreadLocal<>();
+    private static final ReferenceQueue<Object>               LEAKS = new ReferenceQueue<>();
+    private static final Set<Tracker>                         TRACKERS = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong                           LEAKED_MATS = new AtomicLong();
+    private static volatile boolean                           sDebug;
+    private static volatile LeakListener                      sLeakListener = LOG;
+
+    /**
+     * Mats of a scope and, in debug mode, where they were tracked. Kept apart from the scope so
+     * that it can still be released after the scope has been collected.
+     */
+    private static final class Tracker extends PhantomReference<Object> {
+        final List<Mat>       mats = new ArrayList<>();
+        final List<Throwable> traces;
+        /** Mats from {@link #mats} to recycle to the pool instead of releasing. */
+        final List<Mat>       pooled = new ArrayList<>();
+
+        Tracker(MatScope scope, boolean debug) {
+            super(scope, debug ? LEAKS : null);
+            traces = debug ? new ArrayList<>() : null;
+        }
+
+        synchronized void add(Mat mat) {
+            mats.add(mat);
+            if (traces != null)
+                traces.add(new Throwable("Mat tracked by a MatScope"));
+        }
+
+        synchronized boolean remove(Mat mat) {
+            for (int i = pooled.size() - 1; i >= 0; i--) {
+                if (pooled.get(i) == mat)
+                    pooled.remove(i);
+            }
+            for (int i = mats.size() - 1; i >= 0; i--) {
+                if (mats.get(i) == mat) {
+                    mats.remove(i);
+                    if (traces != null)
+                        traces.remove(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isPooled(Mat mat) {
+            for (int i = 0; i < pooled.size(); i++) {
+                if (pooled.get(i) == mat)
+                    return true;
+            }
+            return false;
+        }
+
+        synchronized long bytes() {
+            long bytes = 0;
+            for (Mat mat : mats) {
+                bytes += dataBytes(mat);
+            }
+            return bytes;
+        }
+
+        /**
+         * Releases all Mats, or recycles pooled ones to {@code pool} if not null, reporting each
+         * to {@code listener} first if not null.
+         */
+        synchronized void releaseAll(MatPool pool, LeakListener listener) {
+            for (int i = mats.size() - 1; i >= 0; i--) {
+                Mat mat = mats.get(i);
+                if (listener != null)
+                    listener.onLeak(dataBytes(mat), traces.get(i));
+                if (pool != null && isPooled(mat))
+                    pool.recycle(mat);
+                else
+                    mat.release();
+            }
+            mats.clear();
+            pooled.clear();
+            if (traces != null)
+                traces.clear();
+        }
+    }
+
+    private final MatScope                mParent;
+    private final Tracker                 mTracker;
+    private final WeakReference<MatScope> mSelf = new WeakReference<>(this);
+    private boolean                       mClosed;
+
+    private MatScope(MatScope parent, boolean debug) {
+        mParent = parent;
+        mTracker = new Tracker(this, debug);
+        if (debug)
+            TRACKERS.add(mTracker);
+    }
+
+    /** Opens a scope nested in the current one of this thread, if any. */
+    public static MatScope open() {
+        boolean debug = sDebug;
+        if (debug)
+            reportLeaks();
+        MatScope scope = new MatScope(current(), debug);
+        CURRENT.set(scope.mSelf);
+        return scope;
+    }
+
+    /** The innermost open scope of this thread, or null. */
+    public static MatScope current() {
+        WeakReference<MatScope> current = CURRENT.get();
+        return current != null ? current.get() : null;
+    }
+
+    /**
+     * Records allocation stacks, live bytes and leaks of the scopes opened from now on.
+     */
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+
+    public static boolean isDebug() {
+        return sDebug;
+    }
+
+    /** Sets where leaks are reported; {@link #LOG} by default. */
+    public static void setLeakListener(LeakListener listener) {
+        sLeakListener = listener != null ? listener : LOG;
+    }
+
+    /** Bytes of data currently held by open scopes opened in debug mode. */
+    public static long liveBytes() {
+        long bytes = 0;
+        for (Tracker tracker : TRACKERS) {
+            bytes += tracker.bytes();
+        }
+        return bytes;
+    }
+
+    /** Mats reported as leaked since the process started. */
+    public static long leakedMats() {
+        return LEAKED_MATS.get();
+    }
+
+    /** Reports and releases the Mats of scopes that were collected without being closed. */
+    public static void reportLeaks() {
+        Tracker tracker;
+        while ((tracker = (Tracker) LEAKS.poll()) != null) {
+            TRACKERS.remove(tracker);
+            LEAKED_MATS.addAndGet(tracker.mats.size());
+            tracker.releaseAll(null, sLeakListener);
+        }
+    }
+
+    /** Takes ownership of {@code mat} and returns it. */
+    public <T extends Mat> T track(T mat) {
+        checkOpen();
+        mTracker.add(mat);
+        return mat;
+    }
+
+    /** Returns a new empty Mat owned by this scope. */
+    public Mat mat() {
+        return track(new Mat());
+    }
+
+    /** Returns a new Mat owned by this scope. */
+    public Mat mat(int rows, int cols, int type) {
+        return track(new Mat(rows, cols, type));
+    }
+
+    /**
+     * Borrows a {@code rows}x{@code cols} Mat of {@code type} from the thread's {@link MatPool},
+     * to be recycled to it when this scope closes. Its contents are undefined.
+     */
+    public Mat acquire(int rows, int cols, int type) {
+        checkOpen();
+        Mat mat = MatPool.local().acquire(rows, cols, type);
+        synchronized (mTracker) {
+            mTracker.add(mat);
+            mTracker.pooled.add(mat);
+        }
+        return mat;
+    }
+
+    /**
+     * Gives up ownership of {@code mat}, which the caller must release, and returns it.
+     *
+     * @throws IllegalArgumentException if this scope does not own {@code mat}
+     */
+    public <T extends Mat> T detach(T mat) {
+        checkOpen();
+        if (!mTracker.remove(mat))
+            throw new IllegalArgumentException("Mat is not owned by this scope");
+        return mat;
+    }
+
+    /** Bytes of data currently held by the Mats of this scope. */
+    public long bytes() {
+        return mTracker.bytes();
+    }
+
+    /** Releases the data of all owned Mats and makes the enclosing scope current again. */
+    @Override
+    public void close() {
+        if (mClosed)
+            return;
+        mClosed = true;
+        mTracker.releaseAll(MatPool.local(), null);
+        mTracker.clear();
+        TRACKERS.remove(mTracker);
+        if (CURRENT.get() == mSelf) {
+            if (mParent != null)
+                CURRENT.set(mParent.mSelf);
+            else
+                CURRENT.remove();
+        }
+    }
+
+    private void checkOpen() {
+        if (mClosed)
+            throw new IllegalStateException("MatScope is closed");
+    }
+
+    private static long dataBytes(Mat mat) {
+        return mat.empty() ? 0 : mat.total() * mat.elemSize();
+    }
+}
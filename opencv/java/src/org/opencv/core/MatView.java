@@ -0,0 +1,218 @@
+package org.opencv.core;
+
+import java.lang.reflect.Constructor;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Typed {@link java.nio.Buffer} views over the data of a continuous 2D {@link Mat}, for reading
+ * or writing many elements without a JNI copy per {@code get}/{@code put} call.
+ *
+ * <p>A view from {@link #of(Mat)} holds its own header on the Mat's data, so the data stays
+ * allocated until the view is closed even if the Mat is released or reallocated in the meantime.
+ * Where the runtime allows wrapping native memory in a direct buffer, the views point at the
+ * Mat's data itself; elsewhere they point at a copy made when the view is created, which is
+ * written back to the Mat on {@link #close()}. {@link #isZeroCopy()} tells the two apart.
+ *
+ * <p>Wrapping goes through the hidden {@code DirectByteBuffer(long, int)} constructor, reached by
+ * reflection. That is a non-SDK interface on Android and a closed module on recent JDKs, so it may
+ * be refused; {@link #isZeroCopySupported()} reports whether views of this process can be zero
+ * copy, so that callers can log the fallback.
+ *
+ * <p>A view from {@link #allocate} owns a direct buffer and a Mat built over it, so it is zero
+ * copy on every runtime. OpenCV keeps writing into that buffer as long as the Mat is used as an
+ * output of the same size and type; {@link #isCurrent()} turns false once it has been reallocated.
+ *
+ * <p>Buffers returned by a view must not be used after it is closed: the memory of a zero copy
+ * view may be freed by then. As a guard, {@link #close()} sets the limit of every buffer the view
+ * returned to 0, so that reading or writing them throws; buffers derived from those, or whose
+ * limit is raised again, are not covered. Not thread safe.
+ */
+public final class MatView implements AutoCloseable {
+
+    private static final Constructor<?> DIRECT_BUFFER = directBufferConstructor();
+
+    /** Header sharing the viewed data, which keeps it allocated. */
+    private final Mat          mHeader;
+    /** The Mat the buffer is copied back to on close, if not zero copy. */
+    private final Mat          mTarget;
+    private final ByteBuffer   mData;
+    private final long         mAddress;
+    private final boolean      mZeroCopy;
+    /** Buffers handed out, emptied on close. */
+    private final List<Buffer> mBuffers = new ArrayList<>();
+    private boolean            mClosed;
+
+    /**
+     * @param header the Mat whose data {@code data} is, released on close
+     * @param target the Mat to copy {@code header} to on close, or null if zero copy
+     */
+    MatView(Mat header, Mat target, ByteBuffer data, boolean zeroCopy) {
+        mHeader = header;
+        mTarget = target;
+        mData = data.order(ByteOrder.nativeOrder());
+        mAddress = header.dataAddr();
+        mZeroCopy = zeroCopy;
+    }
+
+    /**
+     * Returns a view over the data of {@code mat}, which must be continuous and have at most two
+     * dimensions.
+     */
+    public static MatView of(Mat mat) {
+        return of(mat, true);
+    }
+
+    /** {@link #of(Mat)}, always copying if {@code allowZeroCopy} is false. */
+    static MatView of(Mat mat, boolean allowZeroCopy) {
+        if (mat.dims() > 2)
+            throw new IllegalArgumentException("Mat has " + mat.dims() + " dimensions");
+        if (!mat.isContinuous())
+            throw new IllegalArgumentException("Mat is not continuous");
+        int size = byteSize(mat.rows(), mat.cols(), mat.type());
+        Mat header = new Mat(mat, Range.all());
+        if (size == 0)
+            return new MatView(header, null, ByteBuffer.allocateDirect(0), true);
+        ByteBuffer data = allowZeroCopy ? wrap(header.dataAddr(), size) : null;
+        if (data != null)
+            return new MatView(header, null, data, true);
+
+        data = ByteBuffer.allocateDirect(size);
+        Mat copy = new Mat(mat.rows(), mat.cols(), mat.type(), data);
+        header.copyTo(copy);
+        return new MatView(copy, header, data, false);
+    }
+
+    /**
+     * Returns a view over a new {@code rows}x{@code cols} Mat of {@code type} whose data is a
+     * direct buffer, available from {@link #mat()}.
+     */
+    public static MatView allocate(int rows, int cols, int type) {
+        ByteBuffer data = ByteBuffer.allocateDirect(Math.max(byteSize(rows, cols, type), 1));
+        return new MatView(new Mat(rows, cols, type, data), null, data, true);
+    }
+
+    /**
+     * The Mat the buffers point at. For views from {@link #of(Mat)} this is a header sharing the
+     * original data, or the copy if not zero copy.
+     */
+    public Mat mat() {
+        checkOpen();
+        return mHeader;
+    }
+
+    public boolean isZeroCopy() {
+        return mZeroCopy;
+    }
+
+    /**
+     * Whether this runtime lets {@link #of(Mat)} wrap Mat data, so that its views are zero copy.
+     * Views from {@link #allocate} are zero copy either way.
+     */
+    public static boolean isZeroCopySupported() {
+        return DIRECT_BUFFER != null;
+    }
+
+    /**
+     * Whether {@link #mat()} still uses the memory the buffers point at, which stops being true
+     * once OpenCV has reallocated it as an output of a different size or type.
+     */
+    public boolean isCurrent() {
+        checkOpen();
+        return mHeader.dataAddr() == mAddress;
+    }
+
+    /** The data as bytes in native order, positioned at its start. */
+    public ByteBuffer bytes() {
+        checkOpen();
+        return track(mData.duplicate().order(ByteOrder.nativeOrder()));
+    }
+
+    /** The data of a {@link CvType#CV_32F} Mat, in row-major, channel-interleaved order. */
+    public FloatBuffer floats() {
+        checkDepth(CvType.CV_32F);
+        return track(mData.duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer());
+    }
+
+    /** The data of a {@link CvType#CV_32S} Mat, in row-major, channel-interleaved order. */
+    public IntBuffer ints() {
+        checkDepth(CvType.CV_32S);
+        return track(mData.duplicate().order(ByteOrder.nativeOrder()).asIntBuffer());
+    }
+
+    /**
+     * Releases the header on the viewed data, first copying the buffer back to the Mat if the
+     * view is not zero copy, and empties the buffers the view returned.
+     */
+    @Override
+    public void close() {
+        if (mClosed)
+            return;
+        mClosed = true;
+        for (Buffer buffer : mBuffers) {
+            buffer.limit(0);
+        }
+        mBuffers.clear();
+        if (mTarget != null) {
+            mHeader.copyTo(mTarget);
+            mTarget.release();
+        }
+        mHeader.release();
+    }
+
+    private <T extends Buffer> T track(T buffer) {
+        mBuffers.add(buffer);
+        return buffer;
+    }
+
+    private void checkOpen() {
+        if (mClosed)
+            throw new IllegalStateException("MatView is closed");
+    }
+
+    private void checkDepth(int depth) {
+        checkOpen();
+        if (CvType.depth(mHeader.type()) != depth)
+            throw new IllegalStateException("Mat of type " + CvType.typeToString(mHeader.type())
+                    + " viewed as " + CvType.typeToString(depth));
+    }
+
+    private static int byteSize(int rows, int cols, int type) {
+        long size = (long) rows * cols * CvType.ELEM_SIZE(type);
+        if (rows < 0 || cols < 0 || size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Cannot view a " + rows + "x" + cols + " Mat of type "
+                    + CvType.typeToString(type));
+        return (int) size;
+    }
+
+    /** Wraps native memory in a direct buffer, or returns null if the runtime does not allow it. */
+    private static ByteBuffer wrap(long address, int size) {
+        if (DIRECT_BUFFER == null || address == 0)
+            return null;
+        try {
+            return (ByteBuffer) DIRECT_BUFFER.newInstance(address, size);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The {@code DirectByteBuffer(long address, int capacity)} constructor that both the JDK and
+     * Android use for {@code NewDirectByteBuffer}.
+     */
+    private static Constructor<?> directBufferConstructor() {
+        try {
+            Constructor<?> constructor = Class.forName("java.nio.DirectByteBuffer")
+                    .getDeclaredConstructor(long.class, int.class);
+            constructor.setAccessible(true);
+            return constructor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
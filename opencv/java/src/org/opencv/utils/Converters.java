@@ -1,5 +1,7 @@
 package org.opencv.utils;
 
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -11,6 +13,7 @@ import org.opencv.core.MatOfKeyPoint;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.MatView;
 import org.opencv.core.Point;
 import org.opencv.core.Point3;
 import org.opencv.core.Size;
@@ -803,4 +806,179 @@ public class Converters {
             rs.add(new RotatedRect(new Point(buff[5 * i], buff[5 * i + 1]), new Size(buff[5 * i + 2], buff[5 * i + 3]), buff[5 * i + 4]));
         }
     }
+
+    /*
+     * Allocation-light counterparts of the List conversions, for per-frame use.
+     *
+     * The *_to_Mat overloads write the first count elements into dst, which is only reallocated
+     * when its size or type changes, and released when count is 0. The Mat_to_vector_* overloads
+     * accept any continuous single-row or single-column vector Mat; given an array holder, they
+     * fill it when it has room for all elements and return it, or return a new array otherwise.
+     * The number of elements is m.checkVector(channels, depth).
+     */
+
+    public static Mat vector_float_to_Mat(float[] fs) {
+        Mat res = new Mat();
+        vector_float_to_Mat(fs, fs != null ? fs.length : 0, res);
+        return res;
+    }
+
+    public static void vector_float_to_Mat(float[] fs, int count, Mat dst) {
+        if (allocVector(dst, count, CvType.CV_32FC1, fs != null ? fs.length : 0))
+            dst.put(0, 0, fs);
+    }
+
+    public static float[] Mat_to_vector_float(Mat m, float[] fs) {
+        int count = checkVector(m, 1, CvType.CV_32F);
+        if (fs == null || fs.length < count)
+            fs = new float[count];
+        if (count > 0)
+            m.get(0, 0, fs);
+        return fs;
+    }
+
+    /** Converts the remaining elements of {@code fs}, without changing its position. */
+    public static void vector_float_to_Mat(FloatBuffer fs, Mat dst) {
+        if (allocVector(dst, fs.remaining(), CvType.CV_32FC1, fs.remaining())) {
+            try (MatView view = MatView.of(dst)) {
+                view.floats().put(fs.duplicate());
+            }
+        }
+    }
+
+    /** Appends the elements of {@code m} to {@code fs} at its position, advancing it. */
+    public static void Mat_to_vector_float(Mat m, FloatBuffer fs) {
+        if (checkVector(m, 1, CvType.CV_32F) == 0)
+            return;
+        try (MatView view = viewOf(m)) {
+            fs.put(view.floats());
+        }
+    }
+
+    public static Mat vector_int_to_Mat(int[] is) {
+        Mat res = new Mat();
+        vector_int_to_Mat(is, is != null ? is.length : 0, res);
+        return res;
+    }
+
+    public static void vector_int_to_Mat(int[] is, int count, Mat dst) {
+        if (allocVector(dst, count, CvType.CV_32SC1, is != null ? is.length : 0))
+            dst.put(0, 0, is);
+    }
+
+    public static int[] Mat_to_vector_int(Mat m, int[] is) {
+        int count = checkVector(m, 1, CvType.CV_32S);
+        if (is == null || is.length < count)
+            is = new int[count];
+        if (count > 0)
+            m.get(0, 0, is);
+        return is;
+    }
+
+    /** Converts the remaining elements of {@code is}, without changing its position. */
+    public static void vector_int_to_Mat(IntBuffer is, Mat dst) {
+        if (allocVector(dst, is.remaining(), CvType.CV_32SC1, is.remaining())) {
+            try (MatView view = MatView.of(dst)) {
+                view.ints().put(is.duplicate());
+            }
+        }
+    }
+
+    /** Appends the elements of {@code m} to {@code is} at its position, advancing it. */
+    public static void Mat_to_vector_int(Mat m, IntBuffer is) {
+        if (checkVector(m, 1, CvType.CV_32S) == 0)
+            return;
+        try (MatView view = viewOf(m)) {
+            is.put(view.ints());
+        }
+    }
+
+    public static Mat vector_double_to_Mat(double[] ds) {
+        Mat res = new Mat();
+        vector_double_to_Mat(ds, ds != null ? ds.length : 0, res);
+        return res;
+    }
+
+    public static void vector_double_to_Mat(double[] ds, int count, Mat dst) {
+        if (allocVector(dst, count, CvType.CV_64FC1, ds != null ? ds.length : 0))
+            dst.put(0, 0, ds);
+    }
+
+    public static double[] Mat_to_vector_double(Mat m, double[] ds) {
+        int count = checkVector(m, 1, CvType.CV_64F);
+        if (ds == null || ds.length < count)
+            ds = new double[count];
+        if (count > 0)
+            m.get(0, 0, ds);
+        return ds;
+    }
+
+    /** Converts {@code count} rects packed as {@code x, y, width, height} in {@code rs}. */
+    public static void vector_Rect_to_Mat(int[] rs, int count, Mat dst) {
+        if (allocVector(dst, count, CvType.CV_32SC4, rs != null ? rs.length / 4 : 0))
+            dst.put(0, 0, rs);
+    }
+
+    /** Reads the rects of {@code m} packed as {@code x, y, width, height}. */
+    public static int[] Mat_to_vector_Rect(Mat m, int[] rs) {
+        int count = checkVector(m, 4, CvType.CV_32S);
+        if (rs == null || rs.length < 4 * count)
+            rs = new int[4 * count];
+        if (count > 0)
+            m.get(0, 0, rs);
+        return rs;
+    }
+
+    /**
+     * Reads the rects of {@code m} into the {@link Rect} objects of {@code rs}, which is returned
+     * if it has exactly as many elements and replaced by an array reusing its objects otherwise.
+     * {@code buff} is a reusable holder for the packed values, as in
+     * {@link #Mat_to_vector_Rect(Mat, int[])}; may be null.
+     */
+    public static Rect[] Mat_to_vector_Rect(Mat m, Rect[] rs, int[] buff) {
+        buff = Mat_to_vector_Rect(m, buff);
+        int count = checkVector(m, 4, CvType.CV_32S);
+        Rect[] res = rs != null && rs.length == count ? rs : new Rect[count];
+        for (int i = 0; i < count; i++) {
+            Rect r = rs != null && i < rs.length && rs[i] != null ? rs[i] : new Rect();
+            r.x = buff[4 * i];
+            r.y = buff[4 * i + 1];
+            r.width = buff[4 * i + 2];
+            r.height = buff[4 * i + 3];
+            res[i] = r;
+        }
+        return res;
+    }
+
+    private static boolean allocVector(Mat dst, int count, int type, int available) {
+        if (count > available)
+            throw new IllegalArgumentException("count " + count + " exceeds the " + available + " elements given");
+        if (count <= 0) {
+            dst.release();
+            return false;
+        }
+        dst.create(count, 1, type);
+        return true;
+    }
+
+    private static int checkVector(Mat m, int channels, int depth) {
+        if (m.empty())
+            return 0;
+        int count = m.checkVector(channels, depth);
+        if (count < 0)
+            throw new IllegalArgumentException("Mat is not a vector of " + CvType.typeToString(CvType.makeType(depth, channels))
+                    + "\n" + m);
+        return count;
+    }
+
+    private static MatView viewOf(Mat m) {
+        if (m.isContinuous())
+            return MatView.of(m);
+        Mat copy = m.clone();
+        try {
+            return MatView.of(copy);
+        } finally {
+            copy.release();
+        }
+    }
 }